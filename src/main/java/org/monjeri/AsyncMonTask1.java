@@ -0,0 +1,154 @@
+package org.monjeri;
+
+import com.mongodb.async.client.MongoClient;
+import org.monjeri.metrics.Metrics;
+import org.monjeri.metrics.MetricsRegistry;
+import org.monjeri.metrics.TaskRecorder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>A {@link MonTask1} for the asynchronous driver. Running it starts the
+ * work and returns a future, instead of blocking until the result is
+ * there. The combinators have the same meaning as those of
+ * {@link MonTask1}; each step starts when the future of the previous one
+ * completes, so no thread waits for the database in between.</p>
+ *
+ * <pre>
+ *   AsyncMonTask1&lt;List&lt;Person&gt;&gt; adults = db("app")
+ *       .map(collection("person"))
+ *       .mapAsync(find(Json.obj("age", Json.obj("$gte", Json.num(18))), decodePerson()));
+ *   adults.run(asyncClient).thenAccept(this::render);
+ * </pre>
+ *
+ * <p>Use {@link #fromBlocking(MonTask1, com.mongodb.MongoClient, Executor)}
+ * and {@link #blocking(MongoClient)} to combine it with blocking
+ * tasks.</p>
+ */
+@FunctionalInterface
+public interface AsyncMonTask1<A> {
+
+  CompletableFuture<A> run(MongoClient client);
+
+  default <B> AsyncMonTask1<B> map(Function<A, B> f) {
+    return flatMap(f.andThen(AsyncMonTask1::unit));
+  }
+
+  /**
+   * Continue with an operation that returns a future, like those of
+   * {@link AsyncMonjeri}.
+   */
+  default <B> AsyncMonTask1<B> mapAsync(Function<A, CompletableFuture<B>> f) {
+    Function<A, AsyncMonTask1<B>> ff = a -> client -> f.apply(a);
+    return flatMap(ff);
+  }
+
+  @SuppressWarnings("unchecked")
+  default <B> AsyncMonTask1<B> flatMap(Function<A, AsyncMonTask1<B>> f) {
+    return new StackedAsyncMonTask1<>((AsyncMonTask1) this, List.of((Function) f));
+  }
+
+  default AsyncMonTask1<Void> drain() {
+    return map(x -> null);
+  }
+
+  default AsyncMonTask1<A> thenDo(Consumer<A> effect) {
+    return map(a -> {
+      effect.accept(a);
+      return a;
+    });
+  }
+
+  default AsyncMonTask1<A> thenRun(AsyncMonTask1<Void> effect) {
+    return flatMap(a -> effect.map(x -> a));
+  }
+
+  /**
+   * Run {@code effect} once after this task, whether it succeeds or fails.
+   * The result is that of this task, unless {@code effect} fails after this
+   * task succeeded. If both fail, the failure of {@code effect} is added as
+   * suppressed to that of this task.
+   */
+  default AsyncMonTask1<A> alwaysRun(AsyncMonTask1<Void> effect) {
+    return client -> Futures.run(this, client)
+        .handle((a, e) -> Futures.run(effect, client)
+            .handle((x, effectFailure) -> Futures.outcome(a, e, effectFailure))
+            .thenCompose(Function.identity()))
+        .thenCompose(Function.identity());
+  }
+
+  default <B> AsyncMonTask1<B> transform(Function<AsyncMonTask1<A>, AsyncMonTask1<B>> f) {
+    return f.apply(this);
+  }
+
+  /**
+   * Record the duration and outcome of each run under {@code name} in
+   * {@link Metrics#getRegistry()}. A run lasts until its future completes.
+   */
+  default AsyncMonTask1<A> named(String name) {
+    return named(name, Metrics.getRegistry());
+  }
+
+  default AsyncMonTask1<A> named(String name, MetricsRegistry registry) {
+    TaskRecorder recorder = registry.recorder(name);
+    return client -> {
+      recorder.started();
+      long start = System.nanoTime();
+      return Futures.run(this, client)
+          .whenComplete((a, e) -> recorder.finished(System.nanoTime() - start, e != null));
+    };
+  }
+
+  /**
+   * Continue with the task returned by {@code f} if this task fails with a
+   * {@link RuntimeException}. Other failures are passed on.
+   */
+  default AsyncMonTask1<A> onError(Function<RuntimeException, AsyncMonTask1<A>> f) {
+    return client -> Futures.recover(Futures.run(this, client), e -> e instanceof RuntimeException
+        ? Futures.run(f.apply((RuntimeException) e), client)
+        : Futures.failed(e));
+  }
+
+  /**
+   * Return a blocking task that runs this task with {@code client} and
+   * waits for its result. The client passed to the returned task is not
+   * used.
+   */
+  default MonTask1<A> blocking(MongoClient client) {
+    return ignored -> Futures.join(Futures.run(this, client));
+  }
+
+  /**
+   * Return a task that runs the blocking {@code task} with {@code client}
+   * on {@code executor}.
+   */
+  static <A> AsyncMonTask1<A> fromBlocking(MonTask1<A> task, com.mongodb.MongoClient client, Executor executor) {
+    return ignored -> CompletableFuture.supplyAsync(() -> task.run(client), executor);
+  }
+
+  static <A> AsyncMonTask1<A> unit(A value) {
+    return c -> CompletableFuture.completedFuture(value);
+  }
+
+  static <A> AsyncMonTask1<A> defer(Supplier<A> value) {
+    return c -> CompletableFuture.completedFuture(value.get());
+  }
+
+  static <A> AsyncMonTask1<A> fail(RuntimeException e) {
+    return c -> Futures.failed(e);
+  }
+
+  /**
+   * Create a single task from the given list of tasks, which are run one
+   * after the other. As with {@link MonTask1#seq(List)}, {@code null}
+   * values are not collected.
+   */
+  static <A> AsyncMonTask1<List<A>> seq(List<AsyncMonTask1<A>> tasks) {
+    AsyncMonTask1<List<A>> zero = unit(List.nil());
+    return tasks.foldLeft(zero, (listTask, t) -> listTask.flatMap(l -> t.map(l::nullSafeCons)));
+  }
+}
@@ -0,0 +1,95 @@
+package org.monjeri;
+
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.monjeri.Json.JObject;
+
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The operations of {@link Monjeri} for the asynchronous driver, to be
+ * combined with {@link AsyncMonTask1}. Operations on collections return a
+ * future, so they are used with {@link AsyncMonTask1#mapAsync(Function)}.
+ */
+public interface AsyncMonjeri {
+  static AsyncMonjeri getInstance() {
+    return new AsyncMonjeri() {};
+  }
+
+  default AsyncMonTask1<MongoDatabase> db(String name) {
+    return client -> CompletableFuture.completedFuture(client.getDatabase(name));
+  }
+
+  default Function<MongoDatabase, MongoCollection<Document>> collection(String name) {
+    return db -> db.getCollection(name);
+  }
+
+  default Function<MongoDatabase, MongoCollection<Document>> collection(org.monjeri.model.Document coll) {
+    return db -> db.getCollection(coll.name());
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<Long>> count(JObject filter) {
+    return coll -> Futures.callback(cb -> coll.count(filter, cb));
+  }
+
+  default <A> Function<MongoCollection<Document>, CompletableFuture<List<A>>> find(JObject filter, Decode<A> decode) {
+    return coll -> Futures.<java.util.List<Document>>callback(cb -> coll.find(filter).into(new ArrayList<>(), cb))
+        .thenApply(docs -> List.fromList(docs, decode));
+  }
+
+  default <A> Function<MongoCollection<Document>, CompletableFuture<Optional<A>>> findFirst(JObject filter, Decode<A> decode) {
+    return coll -> Futures.<Document>callback(cb -> coll.find(filter).first(cb))
+        .thenApply(doc -> Optional.ofNullable(doc).map(decode));
+  }
+
+  default <A> Function<MongoCollection<Document>, CompletableFuture<List<A>>> aggregate(List<JObject> pipeline, Decode<A> decode) {
+    return coll -> Futures.<java.util.List<Document>>callback(cb -> coll.aggregate(pipeline.toJava()).into(new ArrayList<>(), cb))
+        .thenApply(docs -> List.fromList(docs, decode));
+  }
+
+  /**
+   * Insert {@code document} and return its id. A document without
+   * {@code _id} gets a new {@link org.bson.types.ObjectId}.
+   */
+  default Function<MongoCollection<Document>, CompletableFuture<Object>> insert(JObject document) {
+    return coll -> {
+      JObject doc = JsonCodec.withId(document);
+      return Futures.<Void>callback(cb -> JsonCodec.jsonCollection(coll).insertOne(doc, cb))
+          .thenApply(x -> JsonCodec.idOf(doc));
+    };
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<List<Object>>> insertMany(List<JObject> documents) {
+    return coll -> {
+      java.util.List<JObject> docs = documents.map(JsonCodec::withId).toJava();
+      return Futures.<Void>callback(cb -> JsonCodec.jsonCollection(coll).insertMany(docs, cb))
+          .thenApply(x -> List.fromList(docs, JsonCodec::idOf));
+    };
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<UpdateResult>> updateOne(JObject filter, JObject update) {
+    return coll -> Futures.callback(cb -> coll.updateOne(filter, update, cb));
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<UpdateResult>> updateMany(JObject filter, JObject update) {
+    return coll -> Futures.callback(cb -> coll.updateMany(filter, update, cb));
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<UpdateResult>> replaceOne(JObject filter, JObject doc) {
+    return coll -> Futures.callback(cb -> JsonCodec.jsonCollection(coll).replaceOne(filter, doc, cb));
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<DeleteResult>> deleteOne(JObject filter) {
+    return coll -> Futures.callback(cb -> coll.deleteOne(filter, cb));
+  }
+
+  default Function<MongoCollection<Document>, CompletableFuture<DeleteResult>> deleteMany(JObject filter) {
+    return coll -> Futures.callback(cb -> coll.deleteMany(filter, cb));
+  }
+}
@@ -2,6 +2,7 @@ package org.monjeri;
 
 import com.mongodb.DBRef;
 import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 
 import java.math.BigDecimal;
@@ -29,9 +30,12 @@ public interface BaseDecode {
   }
 
   default Decode.Id doc(Path path) {
-    return path.isEmpty()
-        ? doc -> doc
-        : doc -> doc(path.dropFirst()).apply((doc.get(path.first(), Document.class)));
+    if (path.isEmpty()) {
+      return doc -> doc;
+    }
+    String first = path.first();
+    Decode.Id rest = doc(path.dropFirst());
+    return Decode.Id.at(path, doc -> rest.apply(doc.get(first, Document.class)));
   }
 
   default Decode<String> json() {
@@ -44,7 +48,7 @@ public interface BaseDecode {
       throw new IllegalArgumentException("path must not be root");
     }
     return p.dropFirst().isEmpty()
-        ? doc -> conv.apply(doc, p.first())
+        ? Decode.withPaths(List.of(p), doc -> conv.apply(doc, p.first()))
         : doc(p.firstPath()).then(path(p.dropFirst(), conv));
   }
 
@@ -125,7 +129,9 @@ public interface BaseDecode {
     Decode<BigDecimal> fromInt = intNullable(path).map(nullSafe(BigDecimal::new));
     Decode<BigDecimal> fromDouble = doubleNullable(path).map(nullSafe(BigDecimal::new));
     Decode<BigDecimal> fromString = stringNullable(path).map(nullSafe(BigDecimal::new));
-    return fromString.onError(fromDouble).onError(fromLong).onError(fromInt);
+    Decode<BigDecimal> fromDecimal128 = path(path, (doc, name) -> doc.get(name, Decimal128.class))
+        .map(nullSafe(Decimal128::bigDecimalValue));
+    return fromString.onError(fromDouble).onError(fromLong).onError(fromInt).onError(fromDecimal128);
   }
 
   default Decode<BigDecimal> decimal(Path path) {
@@ -228,7 +234,7 @@ public interface BaseDecode {
 
   default Decode<Boolean> exists(Path path) {
     return path.isEmpty()
-        ? doc -> true  // todo true, false, exception?
+        ? Decode.withPaths(List.nil(), doc -> true)  // todo true, false, exception?
         : path(path, Document::containsKey);
   }
 
@@ -32,6 +32,10 @@ public interface BaseEncode {
     return Json::num;
   }
 
+  default Encode<BigDecimal> decimal128Encode() {
+    return Json::decimal128;
+  }
+
   default Encode<Boolean> boolEncode() {
     return Json::of;
   }
@@ -65,7 +69,14 @@ public interface BaseEncode {
   }
 
   default <A> Encode<List<A>> listWithIndexEncode(Function<Integer, Encode<A>> encode) {
-    return list -> Json.array(list.zipWithIndex().map(p2 -> encode.apply(p2._2).apply(p2._1)));
+    return list -> {
+      Json.JArray.Builder array = Json.JArray.builder();
+      int index = 0;
+      for (A a : list) {
+        array.add(encode.apply(index++).apply(a));
+      }
+      return array.build();
+    };
   }
 
   default <A> Encode<List<A>> listWithIndexEncode(Encode.Object<A> encode, String positionKey) {
@@ -0,0 +1,339 @@
+package org.monjeri;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.types.ObjectId;
+import org.monjeri.Json.JObject;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * <p>A decoder that reads a value directly from a {@link BsonReader}. In
+ * contrast to {@link Decode}, no intermediate {@link Document} is created
+ * for a result.</p>
+ *
+ * <p>Documents are read using a {@link Record}, that collects the fields of
+ * interest and skips all others:</p>
+ *
+ * <pre>
+ *   BsonDecode.Record r = BsonDecode.record();
+ *   Field&lt;String&gt; name = r.field("name", BsonDecode.string());
+ *   Field&lt;Integer&gt; age = r.field("age", BsonDecode.integer());
+ *   BsonDecode&lt;Person&gt; person = r.build(v -&gt; new Person(v.require(name), v.require(age)));
+ * </pre>
+ *
+ * <p>This is an abstract class instead of a functional interface, so that
+ * lambdas are not ambiguous when passed to methods that are overloaded for
+ * {@link Decode} and {@code BsonDecode}.</p>
+ */
+public abstract class BsonDecode<A> implements Decoder<A> {
+
+  private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+  public static <A> BsonDecode<A> of(Function<BsonReader, A> read) {
+    return new BsonDecode<A>() {
+      @Override
+      public A decode(BsonReader reader, DecoderContext decoderContext) {
+        return read.apply(reader);
+      }
+    };
+  }
+
+  /**
+   * Create a {@code BsonDecode} from a {@link Decode}. This reads the value
+   * into a {@link Document} first.
+   */
+  public static <A> BsonDecode<A> fromDecode(Decode<A> decode) {
+    return document().map(decode);
+  }
+
+  /**
+   * Return the paths this decoder reads from a document, if known. An empty
+   * optional means that the decoder may read anything.
+   */
+  public Optional<List<Path>> paths() {
+    return Optional.empty();
+  }
+
+  public <B> BsonDecode<B> map(Function<? super A, ? extends B> f) {
+    BsonDecode<A> self = this;
+    return new BsonDecode<B>() {
+      @Override
+      public B decode(BsonReader reader, DecoderContext decoderContext) {
+        return f.apply(self.decode(reader, decoderContext));
+      }
+
+      @Override
+      public Optional<List<Path>> paths() {
+        return self.paths();
+      }
+    };
+  }
+
+  /**
+   * Decode a document that has been read already.
+   */
+  public A apply(Document doc) {
+    BsonDocumentReader reader = new BsonDocumentReader(
+        doc.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()));
+    return decode(reader, DECODER_CONTEXT);
+  }
+
+  public Decode<A> toDecode() {
+    return this::apply;
+  }
+
+  /**
+   * Return a codec using this for decoding. Encoding is not supported.
+   */
+  public Codec<A> toCodec(Class<A> type) {
+    BsonDecode<A> self = this;
+    return new Codec<A>() {
+      @Override
+      public A decode(BsonReader reader, DecoderContext decoderContext) {
+        return self.decode(reader, decoderContext);
+      }
+
+      @Override
+      public void encode(BsonWriter writer, A value, EncoderContext encoderContext) {
+        throw new UnsupportedOperationException("Cannot encode values using a BsonDecode");
+      }
+
+      @Override
+      public Class<A> getEncoderClass() {
+        return type;
+      }
+    };
+  }
+
+  /**
+   * Return a view of {@code coll} that decodes its documents using this.
+   */
+  @SuppressWarnings("unchecked")
+  <D> MongoCollection<A> collection(MongoCollection<D> coll) {
+    // the registry is keyed by class; use a private class as key, since
+    // there is no class for A in general
+    Class<A> type = (Class<A>) (Class<?>) Decoded.class;
+    return coll.withDocumentClass(type)
+        .withCodecRegistry(CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(toCodec(type)),
+            coll.getCodecRegistry()));
+  }
+
+  private static final class Decoded {
+    private Decoded() {
+    }
+  }
+
+
+  public static BsonDecode<String> string() {
+    return of(BsonReader::readString);
+  }
+
+  public static BsonDecode<Integer> integer() {
+    return of(BsonReader::readInt32);
+  }
+
+  /**
+   * Reads 64-bit and 32-bit integers.
+   */
+  public static BsonDecode<Long> long_() {
+    return of(reader -> reader.getCurrentBsonType() == BsonType.INT32
+        ? (long) reader.readInt32()
+        : reader.readInt64());
+  }
+
+  public static BsonDecode<Double> double_() {
+    return of(BsonReader::readDouble);
+  }
+
+  public static BsonDecode<Boolean> bool() {
+    return of(BsonReader::readBoolean);
+  }
+
+  public static BsonDecode<ObjectId> objectId() {
+    return of(BsonReader::readObjectId);
+  }
+
+  /**
+   * Reads all numeric types and strings, like {@link BaseDecode#decimal(Path)}.
+   */
+  public static BsonDecode<BigDecimal> decimal() {
+    return of(reader -> {
+      switch (reader.getCurrentBsonType()) {
+        case STRING:
+          return new BigDecimal(reader.readString());
+        case DOUBLE:
+          return new BigDecimal(reader.readDouble());
+        case INT32:
+          return new BigDecimal(reader.readInt32());
+        case INT64:
+          return new BigDecimal(reader.readInt64());
+        case DECIMAL128:
+          return reader.readDecimal128().bigDecimalValue();
+        default:
+          throw new IllegalArgumentException("Cannot read a decimal from " + reader.getCurrentBsonType());
+      }
+    });
+  }
+
+  public static BsonDecode<Json> json() {
+    return of(reader -> JsonCodec.INSTANCE.readValue(reader, DECODER_CONTEXT));
+  }
+
+  public static BsonDecode<JObject> jsonObject() {
+    return of(reader -> JsonCodec.INSTANCE.decode(reader, DECODER_CONTEXT));
+  }
+
+  public static BsonDecode<Document> document() {
+    DocumentCodec codec = new DocumentCodec();
+    return of(reader -> codec.decode(reader, DECODER_CONTEXT));
+  }
+
+  /**
+   * Read an array, decoding each element with {@code decode}.
+   */
+  public static <A> BsonDecode<List<A>> list(BsonDecode<A> decode) {
+    return new BsonDecode<List<A>>() {
+      @Override
+      public List<A> decode(BsonReader reader, DecoderContext decoderContext) {
+        List<A> result = List.nil();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+          result = result.cons(decode.decode(reader, decoderContext));
+        }
+        reader.readEndArray();
+        return result.reverse();
+      }
+
+      @Override
+      public Optional<List<Path>> paths() {
+        return decode.paths();
+      }
+    };
+  }
+
+  public static Record record() {
+    return new Record();
+  }
+
+  /**
+   * A builder for decoding a document into a value. Each field is decoded
+   * with its own decoder; fields that are not declared are skipped.
+   */
+  public static final class Record {
+    private final Map<String, Integer> index = new HashMap<>();
+    private final java.util.List<BsonDecode<?>> decoders = new ArrayList<>();
+
+    private Record() {
+    }
+
+    public <T> Field<T> field(String name, BsonDecode<T> decode) {
+      if (index.containsKey(name)) {
+        throw new IllegalArgumentException("Field '" + name + "' is already declared");
+      }
+      index.put(name, decoders.size());
+      decoders.add(decode);
+      return new Field<>(name, decoders.size() - 1);
+    }
+
+    public <T> Field<T> field(Path name, BsonDecode<T> decode) {
+      if (name.length() != 1) {
+        throw new IllegalArgumentException("Path must be a single name: " + name);
+      }
+      return field(name.first(), decode);
+    }
+
+    public <A> BsonDecode<A> build(Function<Values, A> f) {
+      Map<String, Integer> index = new HashMap<>(this.index);
+      BsonDecode<?>[] decoders = this.decoders.toArray(new BsonDecode<?>[0]);
+      Optional<List<Path>> paths = Optional.of(List.fromIterable(index.entrySet()).flatMap(e -> {
+        Path name = Path.single(e.getKey());
+        return decoders[e.getValue()].paths()
+            .filter(List::nonEmpty)
+            .map(ps -> ps.map(name::concat))
+            .orElse(List.of(name));
+      }));
+      return new BsonDecode<A>() {
+        @Override
+        public Optional<List<Path>> paths() {
+          return paths;
+        }
+
+        @Override
+        public A decode(BsonReader reader, DecoderContext decoderContext) {
+          Object[] values = new Object[decoders.length];
+          reader.readStartDocument();
+          while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Integer i = index.get(reader.readName());
+            if (i == null) {
+              reader.skipValue();
+            } else if (reader.getCurrentBsonType() == BsonType.NULL) {
+              reader.readNull();
+            } else {
+              values[i] = decoders[i].decode(reader, decoderContext);
+            }
+          }
+          reader.readEndDocument();
+          return f.apply(new Values(values));
+        }
+      };
+    }
+  }
+
+  public static final class Field<T> {
+    private final String name;
+    private final int index;
+
+    private Field(String name, int index) {
+      this.name = name;
+      this.index = index;
+    }
+
+    public String name() {
+      return name;
+    }
+  }
+
+  /**
+   * The values of a decoded {@link Record}. Fields that are missing or
+   * {@code null} in the document are {@code null}.
+   */
+  public static final class Values {
+    private final Object[] values;
+
+    private Values(Object[] values) {
+      this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Field<T> field) {
+      return (T) values[field.index];
+    }
+
+    public <T> Optional<T> opt(Field<T> field) {
+      return Optional.ofNullable(get(field));
+    }
+
+    public <T> T require(Field<T> field) {
+      return Objects.requireNonNull(get(field), () -> "Field '" + field.name + "' is missing or null");
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package org.monjeri;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.bulk.WriteConcernError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.codecs.DecoderContext;
+import org.monjeri.Json.JObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * <p>Runs a sequence of write operations with as few {@code bulkWrite}
+ * calls as possible, see {@link Monjeri#bulkWrite(Stream, BulkWrite)}.</p>
+ *
+ * <pre>
+ *   BulkWrite.Result result = db.andThen(collection(model().person))
+ *       .andThen(bulkWrite(Stream.of(
+ *           BulkWrite.insert(alice),
+ *           BulkWrite.upsert(Json.obj("name", Json.str("bob")), setAge),
+ *           BulkWrite.deleteMany(Json.obj("age", Json.num(0)))),
+ *           BulkWrite.unordered()))
+ *       .apply(client);
+ * </pre>
+ *
+ * <p>The operations are sent in chunks of at most {@link #maxOps(int)}
+ * operations and about {@link #maxBytes(int)} bytes. Operations are read
+ * from the stream only as the chunks are sent.</p>
+ *
+ * <p>Ordered writes stop at the first failed operation; the following
+ * operations and chunks are not run. Unordered writes run all chunks and
+ * collect all errors. In both cases the errors are returned in the
+ * {@link Result}, with indexes into the whole sequence of operations.
+ * Other exceptions, like network errors, are thrown.</p>
+ */
+public final class BulkWrite {
+
+  public static final int DEFAULT_MAX_OPS = 1000;
+  // the maximum document size; the wire protocol allows a bit more per
+  // message, which leaves room for the command around the operations
+  public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  // bytes of an operation besides its documents, like "q", "u", "multi"
+  private static final int OP_OVERHEAD = 32;
+
+  private final boolean ordered;
+  private int maxOps = DEFAULT_MAX_OPS;
+  private int maxBytes = DEFAULT_MAX_BYTES;
+
+  private BulkWrite(boolean ordered) {
+    this.ordered = ordered;
+  }
+
+  public static BulkWrite ordered() {
+    return new BulkWrite(true);
+  }
+
+  public static BulkWrite unordered() {
+    return new BulkWrite(false);
+  }
+
+  public BulkWrite maxOps(int maxOps) {
+    if (maxOps <= 0) {
+      throw new IllegalArgumentException("maxOps must be positive: " + maxOps);
+    }
+    this.maxOps = maxOps;
+    return this;
+  }
+
+  public BulkWrite maxBytes(int maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  public static Op insert(JObject document) {
+    return new Op(new InsertOneModel<>(document), JsonCodec.estimateSize(document));
+  }
+
+  public static Op updateOne(JObject filter, JObject update) {
+    return new Op(new UpdateOneModel<>(filter, update), size(filter, update));
+  }
+
+  public static Op updateMany(JObject filter, JObject update) {
+    return new Op(new UpdateManyModel<>(filter, update), size(filter, update));
+  }
+
+  /**
+   * Update one document, or insert one if none matches {@code filter}.
+   */
+  public static Op upsert(JObject filter, JObject update) {
+    return new Op(new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true)), size(filter, update));
+  }
+
+  public static Op replaceOne(JObject filter, JObject document) {
+    return new Op(new ReplaceOneModel<>(filter, document), size(filter, document));
+  }
+
+  /**
+   * Replace one document, or insert {@code document} if none matches
+   * {@code filter}.
+   */
+  public static Op replaceOrInsert(JObject filter, JObject document) {
+    return new Op(new ReplaceOneModel<>(filter, document, new UpdateOptions().upsert(true)), size(filter, document));
+  }
+
+  public static Op deleteOne(JObject filter) {
+    return new Op(new DeleteOneModel<>(filter), JsonCodec.estimateSize(filter));
+  }
+
+  public static Op deleteMany(JObject filter) {
+    return new Op(new DeleteManyModel<>(filter), JsonCodec.estimateSize(filter));
+  }
+
+  private static int size(JObject filter, JObject doc) {
+    return JsonCodec.estimateSize(filter) + JsonCodec.estimateSize(doc);
+  }
+
+  Result run(MongoCollection<?> coll, Stream<Op> ops) {
+    MongoCollection<JObject> json = JsonCodec.jsonCollection(coll);
+    BulkWriteOptions options = new BulkWriteOptions().ordered(ordered);
+    Result result = new Result();
+    int offset = 0;
+    for (Iterator<java.util.List<Op>> chunks = chunks(ops.iterator()); chunks.hasNext(); ) {
+      java.util.List<WriteModel<JObject>> chunk = new ArrayList<>();
+      for (Op op : chunks.next()) {
+        chunk.add(op.model);
+      }
+      try {
+        result.add(json.bulkWrite(chunk, options), offset);
+      } catch (MongoBulkWriteException e) {
+        result.add(e.getWriteResult(), offset);
+        for (BulkWriteError error : e.getWriteErrors()) {
+          result.errors = result.errors.cons(new WriteFailure(offset + error.getIndex(), error.getCode(), error.getMessage()));
+        }
+        if (e.getWriteConcernError() != null) {
+          result.writeConcernErrors = result.writeConcernErrors.cons(e.getWriteConcernError());
+        }
+        if (ordered && !e.getWriteErrors().isEmpty()) {
+          break;
+        }
+      }
+      offset += chunk.size();
+    }
+    return result;
+  }
+
+  /**
+   * Group {@code ops} into chunks of at most {@code maxOps} operations and
+   * {@code maxBytes} bytes. An operation larger than {@code maxBytes} gets
+   * a chunk of its own.
+   */
+  Iterator<java.util.List<Op>> chunks(Iterator<Op> ops) {
+    return new Iterator<java.util.List<Op>>() {
+      private Op pending = null;
+
+      @Override
+      public boolean hasNext() {
+        return pending != null || ops.hasNext();
+      }
+
+      @Override
+      public java.util.List<Op> next() {
+        if (!hasNext()) {
+          throw new java.util.NoSuchElementException();
+        }
+        java.util.List<Op> chunk = new ArrayList<>();
+        long bytes = 0;
+        while (chunk.size() < maxOps && hasNext()) {
+          Op op = pending != null ? pending : ops.next();
+          pending = null;
+          if (!chunk.isEmpty() && bytes + op.size > maxBytes) {
+            pending = op;
+            break;
+          }
+          chunk.add(op);
+          bytes += op.size;
+        }
+        return chunk;
+      }
+    };
+  }
+
+  /**
+   * One write operation and the estimated size of its documents.
+   */
+  public static final class Op {
+    private final WriteModel<JObject> model;
+    private final int size;
+
+    private Op(WriteModel<JObject> model, int size) {
+      this.model = model;
+      this.size = size + OP_OVERHEAD;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return "Op{" + model.getClass().getSimpleName() + ", size=" + size + "}";
+    }
+  }
+
+  /**
+   * The merged results of all chunks.
+   */
+  public static final class Result {
+    private int chunks = 0;
+    private int inserted = 0;
+    private int matched = 0;
+    private int modified = 0;
+    private boolean modifiedAvailable = true;
+    private int deleted = 0;
+    private List<List.P2<Integer, Json>> upserts = List.nil();
+    private List<WriteFailure> errors = List.nil();
+    private List<WriteConcernError> writeConcernErrors = List.nil();
+
+    private Result() {
+    }
+
+    private void add(BulkWriteResult result, int offset) {
+      chunks++;
+      if (!result.wasAcknowledged()) {
+        return;
+      }
+      inserted += result.getInsertedCount();
+      matched += result.getMatchedCount();
+      deleted += result.getDeletedCount();
+      if (result.isModifiedCountAvailable()) {
+        modified += result.getModifiedCount();
+      } else {
+        modifiedAvailable = false;
+      }
+      for (BulkWriteUpsert upsert : result.getUpserts()) {
+        upserts = upserts.cons(List.P2.of(offset + upsert.getIndex(), toJson(upsert.getId())));
+      }
+    }
+
+    private static Json toJson(BsonValue value) {
+      BsonDocumentReader reader = new BsonDocumentReader(new BsonDocument("_id", value));
+      return JsonCodec.INSTANCE.decode(reader, DecoderContext.builder().build()).get("_id").get();
+    }
+
+    /** The number of {@code bulkWrite} calls. */
+    public int getChunks() {
+      return chunks;
+    }
+
+    public int getInsertedCount() {
+      return inserted;
+    }
+
+    public int getMatchedCount() {
+      return matched;
+    }
+
+    /**
+     * The number of modified documents, if all servers reported it.
+     */
+    public java.util.Optional<Integer> getModifiedCount() {
+      return modifiedAvailable ? java.util.Optional.of(modified) : java.util.Optional.empty();
+    }
+
+    public int getDeletedCount() {
+      return deleted;
+    }
+
+    /**
+     * The indexes of the upserts that inserted a document, with the
+     * {@code _id} of the new document, in order of the operations.
+     */
+    public List<List.P2<Integer, Json>> getUpserts() {
+      return upserts.reverse();
+    }
+
+    /** The failed operations, in order of the operations. */
+    public List<WriteFailure> getErrors() {
+      return errors.reverse();
+    }
+
+    public List<WriteConcernError> getWriteConcernErrors() {
+      return writeConcernErrors.reverse();
+    }
+
+    public boolean isOk() {
+      return errors.isEmpty() && writeConcernErrors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return "Result{chunks=" + chunks + ", inserted=" + inserted + ", matched=" + matched
+          + ", modified=" + getModifiedCount().map(String::valueOf).orElse("?") + ", deleted=" + deleted
+          + ", upserts=" + upserts.size() + ", errors=" + getErrors() + "}";
+    }
+  }
+
+  /**
+   * A failed operation.
+   */
+  public static final class WriteFailure {
+    private final int index;
+    private final int code;
+    private final String message;
+
+    WriteFailure(int index, int code, String message) {
+      this.index = index;
+      this.code = code;
+      this.message = message;
+    }
+
+    /** The index of the operation in the whole sequence of operations. */
+    public int getIndex() {
+      return index;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      return "WriteFailure{" + index + ", code=" + code + ", " + message + "}";
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.monjeri;
+
+import com.mongodb.MongoException;
+import org.monjeri.metrics.BulkheadMXBean;
+import org.monjeri.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <p>Limits how many tasks run at the same time, so that slow tasks against
+ * one collection can't take all threads, see
+ * {@link Monjeri#bulkhead(Bulkhead)}.</p>
+ *
+ * <pre>
+ *   Bulkhead.PerKey bulkheads = Bulkhead.perKey(8, Duration.ofMillis(50));
+ *   findOrders.transform(bulkhead1(bulkheads.get(model.orders)));
+ * </pre>
+ *
+ * <p>A run waits up to {@code maxWait} for a free slot and is otherwise
+ * rejected with a {@link FullException}. It registers itself as MBean
+ * {@code org.monjeri:type=Bulkhead,name=<name>}.</p>
+ */
+public final class Bulkhead implements BulkheadMXBean {
+
+  private final String name;
+  private final int maxConcurrent;
+  private final long maxWaitNanos;
+  private final Semaphore slots;
+  private final AtomicLong rejected = new AtomicLong(0);
+
+  private Bulkhead(String name, int maxConcurrent, Duration maxWait) {
+    if (maxConcurrent <= 0) {
+      throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+    }
+    this.name = name;
+    this.maxConcurrent = maxConcurrent;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.slots = new Semaphore(maxConcurrent, true);
+  }
+
+  public static Bulkhead create(String name, int maxConcurrent, Duration maxWait) {
+    Bulkhead bulkhead = new Bulkhead(name, maxConcurrent, maxWait);
+    Metrics.registerMBean(Metrics.JMX_DOMAIN, "Bulkhead", name, bulkhead);
+    return bulkhead;
+  }
+
+  /**
+   * Return bulkheads that are created on demand, one per key, each with the
+   * given limits.
+   */
+  public static PerKey perKey(int maxConcurrent, Duration maxWait) {
+    return new PerKey(maxConcurrent, maxWait);
+  }
+
+  /**
+   * Run {@code body} when there is a free slot.
+   */
+  <A> A run(Supplier<A> body) {
+    boolean acquired;
+    try {
+      acquired = maxWaitNanos <= 0 ? slots.tryAcquire() : slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for bulkhead '" + name + "'", e);
+    }
+    if (!acquired) {
+      rejected.incrementAndGet();
+      throw new FullException(name);
+    }
+    try {
+      return body.get();
+    } finally {
+      slots.release();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  @Override
+  public int getActive() {
+    return maxConcurrent - slots.availablePermits();
+  }
+
+  @Override
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  @Override
+  public String toString() {
+    return "Bulkhead{" + name + ", active=" + getActive() + "/" + maxConcurrent + "}";
+  }
+
+  /**
+   * Bulkheads by key, for example one per collection.
+   */
+  public static final class PerKey {
+    private final int maxConcurrent;
+    private final Duration maxWait;
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private PerKey(int maxConcurrent, Duration maxWait) {
+      this.maxConcurrent = maxConcurrent;
+      this.maxWait = maxWait;
+    }
+
+    public Bulkhead get(String key) {
+      return bulkheads.computeIfAbsent(key, k -> create(k, maxConcurrent, maxWait));
+    }
+
+    public Bulkhead get(org.monjeri.model.Document collection) {
+      return get(collection.name());
+    }
+  }
+
+  /**
+   * Thrown instead of running a task when the bulkhead is full.
+   */
+  public static final class FullException extends MongoException {
+    FullException(String name) {
+      super("Bulkhead '" + name + "' is full");
+    }
+  }
+}
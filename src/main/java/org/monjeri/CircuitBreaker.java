@@ -0,0 +1,298 @@
+package org.monjeri;
+
+import com.mongodb.MongoException;
+import org.monjeri.metrics.CircuitBreakerMXBean;
+import org.monjeri.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * <p>Fails fast while the tasks it guards are failing or slow, see
+ * {@link Monjeri#circuitBreaker(CircuitBreaker)}.</p>
+ *
+ * <pre>
+ *   CircuitBreaker breaker = CircuitBreaker.create("orders")
+ *       .failureRate(0.5)
+ *       .slowCalls(Duration.ofMillis(500), 0.8)
+ *       .openFor(Duration.ofSeconds(10));
+ *   findOrders.transform(circuitBreaker1(breaker));
+ * </pre>
+ *
+ * <p>While <em>closed</em>, the breaker keeps the outcome of the last
+ * {@link #window(int, int)} runs. When at least {@code minRuns} runs have
+ * been recorded and the share of failed or slow runs reaches its
+ * threshold, the breaker <em>opens</em>: runs are rejected with an
+ * {@link OpenException} without calling the task. After
+ * {@link #openFor(Duration)} it is <em>half open</em> and lets
+ * {@code trialRuns} runs through. If they all succeed in time it closes
+ * again, otherwise it opens again.</p>
+ *
+ * <p>A breaker is usually shared by all tasks against one collection or
+ * server. Configure it before it is used. It registers itself as MBean
+ * {@code org.monjeri:type=CircuitBreaker,name=<name>}.</p>
+ */
+public final class CircuitBreaker implements CircuitBreakerMXBean {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final byte FAILED = 1;
+  private static final byte SLOW = 2;
+
+  private final String name;
+  private int minRuns = 10;
+  private double failureRate = 0.5;
+  private long slowNanos = Long.MAX_VALUE;
+  private double slowCallRate = 1.0;
+  private long openNanos = Duration.ofSeconds(10).toNanos();
+  private int trialRuns = 3;
+  private Predicate<? super RuntimeException> recordOn = e -> true;
+
+  // the outcomes of the last runs while closed, as ring buffer
+  private byte[] window = new byte[20];
+  private int next = 0;
+  private int runs = 0;
+  private int failed = 0;
+  private int slow = 0;
+
+  private State state = State.CLOSED;
+  // incremented on every change of state
+  private long generation = 0;
+  private long openUntil = 0;
+  private int trialsLeft = 0;
+  private int trialsSucceeded = 0;
+  private long rejected = 0;
+  private long opened = 0;
+
+  private CircuitBreaker(String name) {
+    this.name = name;
+  }
+
+  public static CircuitBreaker create(String name) {
+    CircuitBreaker breaker = new CircuitBreaker(name);
+    Metrics.registerMBean(Metrics.JMX_DOMAIN, "CircuitBreaker", name, breaker);
+    return breaker;
+  }
+
+  /**
+   * Decide on the last {@code size} runs, and only once there are at least
+   * {@code minRuns} of them. The defaults are 20 and 10.
+   */
+  public synchronized CircuitBreaker window(int size, int minRuns) {
+    if (size <= 0 || minRuns <= 0 || minRuns > size) {
+      throw new IllegalArgumentException("window size and min runs must satisfy 0 < min <= size");
+    }
+    this.window = new byte[size];
+    this.minRuns = minRuns;
+    resetWindow();
+    return this;
+  }
+
+  /**
+   * Open when this share of the runs fails; the default is 0.5.
+   */
+  public synchronized CircuitBreaker failureRate(double rate) {
+    this.failureRate = checkRate(rate);
+    return this;
+  }
+
+  /**
+   * Open when the share {@code rate} of the runs takes longer than
+   * {@code threshold}, even if they succeed. By default runs are never
+   * slow.
+   */
+  public synchronized CircuitBreaker slowCalls(Duration threshold, double rate) {
+    this.slowNanos = threshold.toNanos();
+    this.slowCallRate = checkRate(rate);
+    return this;
+  }
+
+  public synchronized CircuitBreaker openFor(Duration duration) {
+    this.openNanos = duration.toNanos();
+    return this;
+  }
+
+  /**
+   * Set how many runs are let through when half open; the default is 3.
+   */
+  public synchronized CircuitBreaker trialRuns(int trialRuns) {
+    if (trialRuns <= 0) {
+      throw new IllegalArgumentException("trial runs must be positive: " + trialRuns);
+    }
+    this.trialRuns = trialRuns;
+    return this;
+  }
+
+  /**
+   * Count only the exceptions matching {@code recordOn} as failures. By
+   * default all exceptions count.
+   */
+  public synchronized CircuitBreaker recordOn(Predicate<? super RuntimeException> recordOn) {
+    this.recordOn = recordOn;
+    return this;
+  }
+
+  private static double checkRate(double rate) {
+    if (rate <= 0 || rate > 1) {
+      throw new IllegalArgumentException("rate must be in (0, 1]: " + rate);
+    }
+    return rate;
+  }
+
+  /**
+   * Run {@code body} if the breaker allows it.
+   */
+  <A> A run(Supplier<A> body) {
+    long acquired = acquire();
+    long start = System.nanoTime();
+    // errors count as failures, so that every acquired trial is recorded
+    boolean failure = true;
+    try {
+      A a = body.get();
+      failure = false;
+      return a;
+    } catch (RuntimeException e) {
+      failure = recordOn.test(e);
+      throw e;
+    } finally {
+      record(acquired, System.nanoTime() - start, failure);
+    }
+  }
+
+  /**
+   * Let a run start, and return the generation of the state it starts in.
+   */
+  private synchronized long acquire() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openUntil < 0) {
+        rejected++;
+        throw new OpenException(name);
+      }
+      transition(State.HALF_OPEN);
+      trialsLeft = trialRuns;
+      trialsSucceeded = 0;
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialsLeft == 0) {
+        rejected++;
+        throw new OpenException(name);
+      }
+      trialsLeft--;
+    }
+    return generation;
+  }
+
+  private synchronized void record(long acquired, long nanos, boolean failure) {
+    if (acquired != generation) {
+      // the run started in an earlier state, like a closed run that ends
+      // while half open; its outcome says nothing about the current one
+      return;
+    }
+    byte outcome = (byte) ((failure ? FAILED : 0) | (nanos > slowNanos ? SLOW : 0));
+    switch (state) {
+      case HALF_OPEN:
+        if (outcome != 0) {
+          open();
+        } else if (++trialsSucceeded == trialRuns) {
+          transition(State.CLOSED);
+          resetWindow();
+        }
+        break;
+      case CLOSED:
+        add(outcome);
+        if (runs >= minRuns && (failed >= failureRate * runs || slow >= slowCallRate * runs)) {
+          open();
+        }
+        break;
+      default:
+        throw new AssertionError("Unreachable code");
+    }
+  }
+
+  private void add(byte outcome) {
+    if (runs == window.length) {
+      byte old = window[next];
+      failed -= old & FAILED;
+      slow -= (old & SLOW) >> 1;
+    } else {
+      runs++;
+    }
+    window[next] = outcome;
+    failed += outcome & FAILED;
+    slow += (outcome & SLOW) >> 1;
+    next = (next + 1) % window.length;
+  }
+
+  private void transition(State next) {
+    state = next;
+    generation++;
+  }
+
+  private void open() {
+    transition(State.OPEN);
+    openUntil = System.nanoTime() + openNanos;
+    opened++;
+    resetWindow();
+  }
+
+  private void resetWindow() {
+    next = 0;
+    runs = 0;
+    failed = 0;
+    slow = 0;
+  }
+
+  public synchronized State getState() {
+    if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getStateName() {
+    return getState().name();
+  }
+
+  @Override
+  public synchronized double getFailureRate() {
+    return runs == 0 ? 0 : (double) failed / runs;
+  }
+
+  @Override
+  public synchronized double getSlowCallRate() {
+    return runs == 0 ? 0 : (double) slow / runs;
+  }
+
+  @Override
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  @Override
+  public synchronized long getOpened() {
+    return opened;
+  }
+
+  @Override
+  public String toString() {
+    return "CircuitBreaker{" + name + ", " + getState() + "}";
+  }
+
+  /**
+   * Thrown instead of running a task while the breaker is open.
+   */
+  public static final class OpenException extends MongoException {
+    OpenException(String name) {
+      super("Circuit breaker '" + name + "' is open");
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package org.monjeri;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <p>The time left for a task, see {@link MonTask1#withDeadline(Duration)}.</p>
+ *
+ * <pre>
+ *   MonTask1&lt;List&lt;Person&gt;&gt; task = db.andThen(collection(model().person))
+ *       .andThen(query(Json.obj("age", Json.obj("$gte", Json.num(18)))))
+ *       .andThen(decode(decodePerson()))
+ *       .withDeadline(Duration.ofMillis(800));
+ * </pre>
+ *
+ * <p>While a task with a deadline runs, the deadline is the current one of
+ * its thread, and of the workers of parallel tasks like
+ * {@link MonTask1#parSeq(List, java.util.concurrent.Executor)}. Queries,
+ * counts, aggregations and {@code findOneAnd...} operations started by
+ * {@link Monjeri} send the remaining time as {@code maxTimeMS}, so the
+ * server stops them when the caller has given up. An operation that starts
+ * after the deadline fails with an {@link ExceededException} without
+ * contacting the server; retries that would wait beyond it are not
+ * made.</p>
+ *
+ * <p>Nested deadlines don't extend the outer one: the earlier deadline
+ * applies. Asynchronous tasks don't see the deadline.</p>
+ */
+public final class Deadline {
+
+  private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+  private final long expiresAt;
+  private final Duration budget;
+
+  private Deadline(long expiresAt, Duration budget) {
+    this.expiresAt = expiresAt;
+    this.budget = budget;
+  }
+
+  public static Deadline after(Duration budget) {
+    return new Deadline(System.nanoTime() + budget.toNanos(), budget);
+  }
+
+  /**
+   * Return the deadline of the task running in this thread, if any.
+   */
+  public static Optional<Deadline> current() {
+    return Optional.ofNullable(CURRENT.get());
+  }
+
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, remainingNanos()));
+  }
+
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  /**
+   * Throw an {@link ExceededException} if the deadline has passed.
+   */
+  public void check() {
+    if (isExpired()) {
+      throw new ExceededException(budget);
+    }
+  }
+
+  long remainingNanos() {
+    return expiresAt - System.nanoTime();
+  }
+
+  /**
+   * Run {@code body} with this deadline, or the current one if it is
+   * earlier, as current deadline.
+   */
+  <A> A run(Supplier<A> body) {
+    Deadline outer = CURRENT.get();
+    Deadline deadline = outer != null && outer.expiresAt - expiresAt < 0 ? outer : this;
+    deadline.check();
+    CURRENT.set(deadline);
+    try {
+      return body.get();
+    } finally {
+      if (outer == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(outer);
+      }
+    }
+  }
+
+  static <A> A run(Optional<Deadline> deadline, Supplier<A> body) {
+    return deadline.isPresent() ? deadline.get().run(body) : body.get();
+  }
+
+  /**
+   * Return the remaining time in milliseconds, rounded up, as it is sent
+   * as {@code maxTimeMS}.
+   */
+  long maxTimeMillis() {
+    check();
+    return TimeUnit.NANOSECONDS.toMillis(remainingNanos() + 999_999);
+  }
+
+  private long maxTimeMillis(long current) {
+    long millis = maxTimeMillis();
+    return current > 0 && current < millis ? current : millis;
+  }
+
+  void applyTo(FindIterable<?> iterable) {
+    iterable.maxTime(maxTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  void applyTo(AggregateIterable<?> iterable) {
+    iterable.maxTime(maxTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  // the options are copied, as callers may reuse them for other runs
+
+  CountOptions applyTo(CountOptions options) {
+    return new CountOptions()
+        .hint(options.getHint())
+        .hintString(options.getHintString())
+        .limit(options.getLimit())
+        .skip(options.getSkip())
+        .collation(options.getCollation())
+        .maxTime(maxTimeMillis(options.getMaxTime(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+  }
+
+  FindOneAndUpdateOptions applyTo(FindOneAndUpdateOptions options) {
+    return new FindOneAndUpdateOptions()
+        .projection(options.getProjection())
+        .sort(options.getSort())
+        .upsert(options.isUpsert())
+        .returnDocument(options.getReturnDocument())
+        .bypassDocumentValidation(options.getBypassDocumentValidation())
+        .collation(options.getCollation())
+        .maxTime(maxTimeMillis(options.getMaxTime(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+  }
+
+  FindOneAndDeleteOptions applyTo(FindOneAndDeleteOptions options) {
+    return new FindOneAndDeleteOptions()
+        .projection(options.getProjection())
+        .sort(options.getSort())
+        .collation(options.getCollation())
+        .maxTime(maxTimeMillis(options.getMaxTime(TimeUnit.MILLISECONDS)), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline{budget=" + budget + ", remaining=" + remaining() + "}";
+  }
+
+  /**
+   * Thrown when an operation would start after the deadline. The server
+   * reports an operation that runs out of time while running with a
+   * {@link MongoExecutionTimeoutException}, too.
+   */
+  public static final class ExceededException extends MongoExecutionTimeoutException {
+    ExceededException(Duration budget) {
+      // 50 is the server's ExceededTimeLimit
+      super(50, "Deadline of " + budget + " exceeded");
+    }
+  }
+}
@@ -1,7 +1,10 @@
 package org.monjeri;
 
 import org.bson.Document;
+import org.monjeri.model.PathAccess;
 
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -11,6 +14,9 @@ import java.util.function.Function;
  *
  * Additional to the convert method, it provides simple combinator methods
  * to produce higher level converters based on others.
+ *
+ * A decoder may know the paths it reads from a document, see {@link #paths()}.
+ * The combinators keep track of them where possible.
  */
 public interface Decode<A> extends Function<Document, A> {
 
@@ -18,8 +24,41 @@ public interface Decode<A> extends Function<Document, A> {
         return f::apply;
     }
 
+    /**
+     * Create a decoder that reads at most the given {@code paths}. If
+     * {@code paths} is empty, the decoder may read anything.
+     */
+    static <V> Decode<V> withPaths(Optional<List<Path>> paths, Function<Document, V> f) {
+        if (!paths.isPresent()) {
+            return from(f);
+        }
+        return new Decode<V>() {
+            @Override
+            public V apply(Document doc) {
+                return f.apply(doc);
+            }
+
+            @Override
+            public Optional<List<Path>> paths() {
+                return paths;
+            }
+        };
+    }
+
+    static <V> Decode<V> withPaths(List<Path> paths, Function<Document, V> f) {
+        return withPaths(Optional.of(paths), f);
+    }
+
+    /**
+     * Return the paths this decoder reads from a document, if known. An empty
+     * optional means that the decoder may read anything.
+     */
+    default Optional<List<Path>> paths() {
+        return Optional.empty();
+    }
+
     default <B> Decode<B> map(Function<A, B> f) {
-        return from(this.andThen(f));
+        return withPaths(paths(), this.andThen(f));
     }
 
     default <B> Decode<B> flatMap(Function<A, Decode<B>> f) {
@@ -27,21 +66,25 @@ public interface Decode<A> extends Function<Document, A> {
     }
 
     default Decode<A> or(Decode<A> other) {
-        return flatMap(a -> a != null ? unit(a) : other);
+        return withPaths(unionPaths(this, other), flatMap(a -> a != null ? unit(a) : other));
     }
 
     default Decode<A> onError(Decode<A> other) {
-        return doc -> {
+        return withPaths(unionPaths(this, other), doc -> {
             try {
                 return apply(doc);
             } catch (Exception e) {
                 return other.apply(doc);
             }
-        };
+        });
     }
 
     default <B, C> Decode<C> combine(Decode<B> cb, BiFunction<A, B, C> f) {
-        return n -> f.apply(this.apply(n), cb.apply(n));
+        return withPaths(unionPaths(this, cb), n -> f.apply(this.apply(n), cb.apply(n)));
+    }
+
+    static Optional<List<Path>> unionPaths(Decode<?> d1, Decode<?> d2) {
+        return d1.paths().flatMap(p1 -> d2.paths().map(p2 -> p1.append(p2).distinct(Eq.objectEq())));
     }
 
     /** Mongo Java driver has its own function type */
@@ -50,8 +93,35 @@ public interface Decode<A> extends Function<Document, A> {
     }
 
     interface Id extends Decode<Document> {
+        /**
+         * Apply {@code decode} to the document returned by this. If this
+         * returns the document at a known path, the paths of {@code decode}
+         * are prefixed with it.
+         */
         default <A> Decode<A> then(Decode<A> decode) {
-            return this.map(decode);
+            Optional<Path> base = paths().filter(ps -> ps.size() == 1).map(List::head);
+            Optional<List<Path>> paths = decode.paths().isPresent()
+                ? base.flatMap(b -> decode.paths().map(ps -> ps.map(b::concat)))
+                : paths();
+            return withPaths(paths, this.andThen(decode));
+        }
+
+        /**
+         * Create an {@code Id} decoder that returns the document at {@code path}.
+         */
+        static Id at(Path path, Function<Document, Document> f) {
+            Optional<List<Path>> paths = Optional.of(List.of(path));
+            return new Id() {
+                @Override
+                public Document apply(Document doc) {
+                    return f.apply(doc);
+                }
+
+                @Override
+                public Optional<List<Path>> paths() {
+                    return paths;
+                }
+            };
         }
     }
 
@@ -60,6 +130,188 @@ public interface Decode<A> extends Function<Document, A> {
     }
 
     static <A> Decode<A> unit(A a) {
-        return doc -> a;
+        return withPaths(List.nil(), doc -> a);
+    }
+
+    static Record record() {
+        return new Record();
+    }
+
+    /**
+     * <p>A builder for decoders that read many fields of a document.</p>
+     *
+     * <p>Decoders like {@link BaseDecode#string(Path)} walk from the root of
+     * the document to their value. A record instead groups all fields by their
+     * parent path and looks up each embedded document once per document.
+     * Missing embedded documents result in {@code null} values.</p>
+     *
+     * <pre>
+     *   Decode.Record r = Decode.record();
+     *   Decode.Field&lt;String&gt; city = r.field(Path.p("address.city"), Document::getString);
+     *   Decode.Field&lt;String&gt; zip = r.field(Path.p("address.zip"), Document::getString);
+     *   Decode&lt;Address&gt; address = r.build(v -&gt; new Address(v.require(city), v.get(zip)));
+     * </pre>
+     */
+    final class Record {
+        private final Node root = new Node();
+        private int size = 0;
+        private boolean unknownPaths = false;
+        private List<Path> paths = List.nil();
+
+        private Record() {
+        }
+
+        /**
+         * Add a field that is read from its parent document using
+         * {@code conv}, like {@link BaseDecode#path(Path, BiFunction)}.
+         */
+        public <T> Field<T> field(Path path, BiFunction<Document, String, T> conv) {
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("path must not be root");
+            }
+            Node node = root.at(path.dropLast());
+            node.fields.add(new Node.Leaf(path.last(), size, conv));
+            paths = paths.cons(path);
+            return new Field<>(path, size++);
+        }
+
+        public <T> Field<T> field(PathAccess path, BiFunction<Document, String, T> conv) {
+            return field(path.path(), conv);
+        }
+
+        /**
+         * Add a field that is read by applying {@code decode} to the
+         * document at {@code base}. It is {@code null} if there is no
+         * document at {@code base}.
+         */
+        public <T> Field<T> at(Path base, Decode<T> decode) {
+            Node node = root.at(base);
+            node.decoders.add(new Node.Leaf(null, size, (doc, name) -> decode.apply(doc)));
+            if (decode.paths().isPresent()) {
+                paths = decode.paths().get().map(base::concat).append(paths);
+            } else if (base.isEmpty()) {
+                unknownPaths = true;
+            } else {
+                paths = paths.cons(base);
+            }
+            return new Field<>(base, size++);
+        }
+
+        public <A> Decode<A> build(Function<Values, A> f) {
+            Node.Compiled compiled = root.compile();
+            int n = size;
+            Optional<List<Path>> readPaths = unknownPaths
+                ? Optional.empty()
+                : Optional.of(paths.reverse().distinct(Eq.objectEq()));
+            return withPaths(readPaths, doc -> {
+                Object[] values = new Object[n];
+                compiled.read(doc, values);
+                return f.apply(new Values(values));
+            });
+        }
+
+        private static final class Node {
+            private final java.util.Map<String, Node> children = new java.util.LinkedHashMap<>();
+            private final java.util.List<Leaf> fields = new java.util.ArrayList<>();
+            private final java.util.List<Leaf> decoders = new java.util.ArrayList<>();
+
+            Node at(Path path) {
+                Node node = this;
+                for (Path p = path; !p.isEmpty(); p = p.dropFirst()) {
+                    node = node.children.computeIfAbsent(p.first(), name -> new Node());
+                }
+                return node;
+            }
+
+            Compiled compile() {
+                String[] names = children.keySet().toArray(new String[0]);
+                Compiled[] nodes = children.values().stream().map(Node::compile).toArray(Compiled[]::new);
+                return new Compiled(
+                    fields.toArray(new Leaf[0]),
+                    decoders.toArray(new Leaf[0]),
+                    names,
+                    nodes);
+            }
+
+            private static final class Leaf {
+                final String name;
+                final int index;
+                final BiFunction<Document, String, ?> conv;
+
+                Leaf(String name, int index, BiFunction<Document, String, ?> conv) {
+                    this.name = name;
+                    this.index = index;
+                    this.conv = conv;
+                }
+            }
+
+            private static final class Compiled {
+                private final Leaf[] fields;
+                private final Leaf[] decoders;
+                private final String[] names;
+                private final Compiled[] children;
+
+                Compiled(Leaf[] fields, Leaf[] decoders, String[] names, Compiled[] children) {
+                    this.fields = fields;
+                    this.decoders = decoders;
+                    this.names = names;
+                    this.children = children;
+                }
+
+                void read(Document doc, Object[] values) {
+                    for (Leaf leaf : fields) {
+                        values[leaf.index] = leaf.conv.apply(doc, leaf.name);
+                    }
+                    for (Leaf leaf : decoders) {
+                        values[leaf.index] = leaf.conv.apply(doc, null);
+                    }
+                    for (int i = 0; i < names.length; i++) {
+                        Document child = doc.get(names[i], Document.class);
+                        if (child != null) {
+                            children[i].read(child, values);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    final class Field<T> {
+        private final Path path;
+        private final int index;
+
+        private Field(Path path, int index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        public Path path() {
+            return path;
+        }
+    }
+
+    /**
+     * The values of a document decoded by a {@link Record}. Fields that are
+     * missing or {@code null} in the document are {@code null}.
+     */
+    final class Values {
+        private final Object[] values;
+
+        private Values(Object[] values) {
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get(Field<T> field) {
+            return (T) values[field.index];
+        }
+
+        public <T> Optional<T> opt(Field<T> field) {
+            return Optional.ofNullable(get(field));
+        }
+
+        public <T> T require(Field<T> field) {
+            return Objects.requireNonNull(get(field), () -> "Field '" + field.path.render() + "' is missing or null");
+        }
     }
 }
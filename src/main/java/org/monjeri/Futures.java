@@ -0,0 +1,108 @@
+package org.monjeri;
+
+import com.mongodb.async.SingleResultCallback;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Helpers for {@link CompletableFuture}s, used by {@link AsyncMonTask1}.
+ */
+final class Futures {
+
+  private Futures() {
+  }
+
+  static <A> CompletableFuture<A> failed(Throwable e) {
+    CompletableFuture<A> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
+
+  /**
+   * Run {@code task}, returning a failed future if it throws instead of
+   * returning one.
+   */
+  static <A> CompletableFuture<A> run(AsyncMonTask1<A> task, com.mongodb.async.client.MongoClient client) {
+    try {
+      CompletableFuture<A> future = task.run(client);
+      return future != null ? future : failed(new NullPointerException("Task returned no future: " + task));
+    } catch (RuntimeException | Error e) {
+      return failed(e);
+    }
+  }
+
+  /**
+   * Return a future that completes with the result of the callback passed
+   * to {@code call}.
+   */
+  static <A> CompletableFuture<A> callback(Consumer<SingleResultCallback<A>> call) {
+    CompletableFuture<A> future = new CompletableFuture<>();
+    try {
+      call.accept((result, e) -> {
+        if (e != null) {
+          future.completeExceptionally(e);
+        } else {
+          future.complete(result);
+        }
+      });
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Continue with {@code f} if {@code future} fails. {@code f} gets the
+   * original exception, not the {@link CompletionException} around it.
+   */
+  static <A> CompletableFuture<A> recover(CompletableFuture<A> future,
+                                          Function<Throwable, CompletableFuture<A>> f) {
+    return future
+        .handle((a, e) -> e == null ? CompletableFuture.completedFuture(a) : f.apply(unwrap(e)))
+        .thenCompose(Function.identity());
+  }
+
+  /**
+   * Return a future of {@code a}, or of the first of {@code e} and
+   * {@code later} that is not null. {@code later} is added as suppressed
+   * to {@code e} if both are set.
+   */
+  static <A> CompletableFuture<A> outcome(A a, Throwable e, Throwable later) {
+    if (e != null) {
+      Throwable failure = unwrap(e);
+      if (later != null && unwrap(later) != failure) {
+        failure.addSuppressed(unwrap(later));
+      }
+      return failed(failure);
+    }
+    return later != null ? failed(unwrap(later)) : CompletableFuture.completedFuture(a);
+  }
+
+  static Throwable unwrap(Throwable e) {
+    while (e instanceof CompletionException && e.getCause() != null) {
+      e = e.getCause();
+    }
+    return e;
+  }
+
+  /**
+   * Wait for {@code future} and return its result, or throw its exception.
+   */
+  static <A> A join(CompletableFuture<A> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = unwrap(e);
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package org.monjeri;
+
+import java.util.Objects;
+
+/**
+ * A persistent hash array mapped trie. {@link #put(Object, Object)} copies
+ * only the nodes on the path to the key, so both lookups and updates take
+ * {@code O(log32 n)} steps.
+ */
+final class Hamt<K, V> {
+
+  private static final Hamt<?, ?> EMPTY = new Hamt<>(BitmapNode.EMPTY, 0);
+  private static final Object NOT_FOUND = new Object();
+
+  private final Node root;
+  private final int size;
+
+  private Hamt(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> Hamt<K, V> empty() {
+    return (Hamt<K, V>) EMPTY;
+  }
+
+  /**
+   * Create a trie from the first {@code n} keys and values. The keys must be
+   * distinct. The trie is built level by level, without copying any nodes.
+   */
+  static <K, V> Hamt<K, V> of(Object[] keys, Object[] values, int n) {
+    if (n == 0) {
+      return empty();
+    }
+    int[] hashes = new int[n];
+    int[] members = new int[n];
+    for (int i = 0; i < n; i++) {
+      hashes[i] = hash(keys[i]);
+      members[i] = i;
+    }
+    return new Hamt<>(build(0, members, keys, values, hashes), n);
+  }
+
+  private static Node build(int shift, int[] members, Object[] keys, Object[] values, int[] hashes) {
+    int first = hashes[members[0]];
+    boolean collision = members.length > 1;
+    for (int m : members) {
+      collision &= hashes[m] == first;
+    }
+    if (collision) {
+      Object[] array = new Object[2 * members.length];
+      for (int i = 0; i < members.length; i++) {
+        array[2 * i] = keys[members[i]];
+        array[2 * i + 1] = values[members[i]];
+      }
+      return new CollisionNode(first, array);
+    }
+    int[] counts = new int[32];
+    for (int m : members) {
+      counts[(hashes[m] >>> shift) & 31]++;
+    }
+    int[][] groups = new int[32][];
+    int bitmap = 0;
+    for (int b = 0; b < 32; b++) {
+      if (counts[b] > 0) {
+        bitmap |= 1 << b;
+        groups[b] = new int[counts[b]];
+        counts[b] = 0;
+      }
+    }
+    for (int m : members) {
+      int b = (hashes[m] >>> shift) & 31;
+      groups[b][counts[b]++] = m;
+    }
+    Object[] array = new Object[2 * Integer.bitCount(bitmap)];
+    int idx = 0;
+    for (int b = 0; b < 32; b++) {
+      int[] group = groups[b];
+      if (group == null) {
+        continue;
+      }
+      if (group.length == 1) {
+        array[idx] = keys[group[0]];
+        array[idx + 1] = values[group[0]];
+      } else {
+        array[idx + 1] = build(shift + 5, group, keys, values, hashes);
+      }
+      idx += 2;
+    }
+    return new BitmapNode(bitmap, array);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Return the value of {@code key}, or {@code null} if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  V get(K key) {
+    Object value = root.find(0, hash(key), key);
+    return value == NOT_FOUND ? null : (V) value;
+  }
+
+  Hamt<K, V> put(K key, V value) {
+    Objects.requireNonNull(key);
+    boolean[] added = new boolean[1];
+    Node next = root.assoc(0, hash(key), key, value, added);
+    return next == root ? this : new Hamt<>(next, added[0] ? size + 1 : size);
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & 31);
+  }
+
+  private static abstract class Node {
+    abstract Object find(int shift, int hash, Object key);
+
+    abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+  }
+
+  /**
+   * A node with up to 32 slots; a slot is either a key and its value, or
+   * {@code null} and a child node.
+   */
+  private static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+    private final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int idx = index(bit);
+      Object k = array[2 * idx];
+      Object v = array[2 * idx + 1];
+      if (k == null) {
+        return ((Node) v).find(shift + 5, hash, key);
+      }
+      return key.equals(k) ? v : NOT_FOUND;
+    }
+
+    @Override
+    Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int idx = index(bit);
+      if ((bitmap & bit) != 0) {
+        Object k = array[2 * idx];
+        Object v = array[2 * idx + 1];
+        if (k == null) {
+          Node child = ((Node) v).assoc(shift + 5, hash, key, value, added);
+          return child == v ? this : with(2 * idx + 1, child);
+        }
+        if (key.equals(k)) {
+          return v == value ? this : with(2 * idx + 1, value);
+        }
+        added[0] = true;
+        Node child = pair(shift + 5, k, v, hash, key, value);
+        Object[] next = array.clone();
+        next[2 * idx] = null;
+        next[2 * idx + 1] = child;
+        return new BitmapNode(bitmap, next);
+      }
+      added[0] = true;
+      Object[] next = new Object[array.length + 2];
+      System.arraycopy(array, 0, next, 0, 2 * idx);
+      next[2 * idx] = key;
+      next[2 * idx + 1] = value;
+      System.arraycopy(array, 2 * idx, next, 2 * idx + 2, array.length - 2 * idx);
+      return new BitmapNode(bitmap | bit, next);
+    }
+
+    private Node with(int i, Object value) {
+      Object[] next = array.clone();
+      next[i] = value;
+      return new BitmapNode(bitmap, next);
+    }
+
+    private static Node pair(int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+      int h1 = hash(k1);
+      if (h1 == h2) {
+        return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+      }
+      boolean[] ignored = new boolean[1];
+      return EMPTY
+          .assoc(shift, h1, k1, v1, ignored)
+          .assoc(shift, h2, k2, v2, ignored);
+    }
+  }
+
+  /**
+   * A node for keys whose hashes are equal.
+   */
+  private static final class CollisionNode extends Node {
+    private final int hash;
+    private final Object[] array;
+
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int index(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int i = hash == this.hash ? index(key) : -1;
+      return i < 0 ? NOT_FOUND : array[i + 1];
+    }
+
+    @Override
+    Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        return new BitmapNode(bit(this.hash, shift), new Object[]{null, this})
+            .assoc(shift, hash, key, value, added);
+      }
+      int i = index(key);
+      if (i >= 0) {
+        if (array[i + 1] == value) {
+          return this;
+        }
+        Object[] next = array.clone();
+        next[i + 1] = value;
+        return new CollisionNode(hash, next);
+      }
+      added[0] = true;
+      Object[] next = new Object[array.length + 2];
+      System.arraycopy(array, 0, next, 0, array.length);
+      next[array.length] = key;
+      next[array.length + 1] = value;
+      return new CollisionNode(hash, next);
+    }
+  }
+}
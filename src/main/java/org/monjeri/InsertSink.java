@@ -0,0 +1,293 @@
+package org.monjeri;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import org.monjeri.Json.JObject;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * <p>Inserts a stream of documents with one {@code insertMany} per batch,
+ * without collecting the whole stream first, see
+ * {@link Monjeri#insertAll(Stream, InsertSink)}.</p>
+ *
+ * <pre>
+ *   InsertSink.Result result = lines
+ *       .map(Json::parse)
+ *       .collect(InsertSink.create().concurrent(4, executor).collector(coll));
+ * </pre>
+ *
+ * <p>A batch is written when it has {@link #maxDocs(int)} documents or
+ * when the next document would make it larger than about
+ * {@link #maxBytes(int)} bytes. With {@link #concurrent(int, Executor)},
+ * up to that many batches are written at the same time while the next one
+ * is collected; adding a document waits while all of them are in flight.
+ * So at most {@code batches + 1} batches are held in memory. With a
+ * parallel stream each part of the stream has its own batches and limit, so
+ * up to {@code batches} times the number of parts are written at the same
+ * time.</p>
+ *
+ * <p>Documents without {@code _id} get a new {@link org.bson.types.ObjectId}
+ * before they are written. If a batch fails, no further batches are
+ * written and its exception is thrown by the sink, after the batches in
+ * flight are done.</p>
+ */
+public final class InsertSink {
+
+  private int maxDocs = BulkWrite.DEFAULT_MAX_OPS;
+  private int maxBytes = BulkWrite.DEFAULT_MAX_BYTES;
+  private int inFlight = 1;
+  private Executor executor = null;
+  private boolean keepIds = false;
+  private boolean ordered = true;
+
+  private InsertSink() {
+  }
+
+  public static InsertSink create() {
+    return new InsertSink();
+  }
+
+  public InsertSink maxDocs(int maxDocs) {
+    if (maxDocs <= 0) {
+      throw new IllegalArgumentException("maxDocs must be positive: " + maxDocs);
+    }
+    this.maxDocs = maxDocs;
+    return this;
+  }
+
+  public InsertSink maxBytes(int maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * Write up to {@code batches} batches at the same time on
+   * {@code executor}.
+   */
+  public InsertSink concurrent(int batches, Executor executor) {
+    if (batches <= 0) {
+      throw new IllegalArgumentException("batches must be positive: " + batches);
+    }
+    this.inFlight = batches;
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Collect the ids of the inserted documents in the {@link Result}. This
+   * holds one id per document in memory.
+   */
+  public InsertSink keepIds() {
+    this.keepIds = true;
+    return this;
+  }
+
+  /**
+   * Set whether the documents of a batch are inserted in order, stopping
+   * at the first error; the default is {@code true}.
+   */
+  public InsertSink ordered(boolean ordered) {
+    this.ordered = ordered;
+    return this;
+  }
+
+  /**
+   * Return a collector that inserts the documents into {@code coll}. With
+   * a parallel stream, each part of the stream is batched separately and
+   * has its own limit of concurrent batches.
+   */
+  public Collector<JObject, ?, Result> collector(MongoCollection<?> coll) {
+    MongoCollection<JObject> json = JsonCodec.jsonCollection(coll);
+    return Collector.of(
+        () -> new Writer(json),
+        Writer::add,
+        Writer::combine,
+        Writer::finish);
+  }
+
+  public Result insert(MongoCollection<?> coll, Stream<JObject> documents) {
+    return documents.collect(collector(coll));
+  }
+
+  private final class Writer {
+    private final MongoCollection<JObject> coll;
+    private final InsertManyOptions options = new InsertManyOptions().ordered(ordered);
+    private final Semaphore slots = new Semaphore(inFlight);
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final AtomicLong count = new AtomicLong(0);
+    // ids by batch, so that they stay in order with concurrent batches
+    private final Map<Integer, java.util.List<Object>> ids = new ConcurrentSkipListMap<>();
+    private final long start = System.nanoTime();
+
+    private java.util.List<JObject> batch = new ArrayList<>();
+    private long bytes = 0;
+    private int batches = 0;
+    private List<Result> combined = List.nil();
+
+    Writer(MongoCollection<JObject> coll) {
+      this.coll = coll;
+    }
+
+    void add(JObject document) {
+      if (failure.get() != null) {
+        awaitInFlight();
+        checkFailure();
+      }
+      JObject doc = JsonCodec.withId(document);
+      int size = JsonCodec.estimateSize(doc);
+      if (!batch.isEmpty() && (batch.size() >= maxDocs || bytes + size > maxBytes)) {
+        flush();
+      }
+      batch.add(doc);
+      bytes += size;
+    }
+
+    Writer combine(Writer other) {
+      combined = combined.cons(other.finish());
+      return this;
+    }
+
+    Result finish() {
+      if (failure.get() == null) {
+        flush();
+      }
+      awaitInFlight();
+      checkFailure();
+      java.util.List<Object> allIds = new ArrayList<>();
+      ids.values().forEach(allIds::addAll);
+      Result result = new Result(count.get(), batches, Duration.ofNanos(System.nanoTime() - start),
+          List.fromList(allIds));
+      return combined.reverse().foldLeft(result, Result::plus);
+    }
+
+    private void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      java.util.List<JObject> docs = batch;
+      int index = batches++;
+      batch = new ArrayList<>();
+      bytes = 0;
+      if (executor == null) {
+        write(index, docs);
+        return;
+      }
+      acquire(1);
+      try {
+        executor.execute(() -> {
+          try {
+            write(index, docs);
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            slots.release();
+          }
+        });
+      } catch (RuntimeException e) {
+        slots.release();
+        throw e;
+      }
+    }
+
+    private void write(int index, java.util.List<JObject> docs) {
+      coll.insertMany(docs, options);
+      count.addAndGet(docs.size());
+      if (keepIds) {
+        java.util.List<Object> batchIds = new ArrayList<>(docs.size());
+        for (JObject doc : docs) {
+          batchIds.add(JsonCodec.idOf(doc));
+        }
+        ids.put(index, batchIds);
+      }
+    }
+
+    private void awaitInFlight() {
+      acquire(inFlight);
+      slots.release(inFlight);
+    }
+
+    private void acquire(int n) {
+      try {
+        slots.acquire(n);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for inserts", e);
+      }
+    }
+
+    private void checkFailure() {
+      RuntimeException e = failure.get();
+      if (e != null) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * The number of inserted documents and how long it took.
+   */
+  public static final class Result {
+    private final long count;
+    private final int batches;
+    private final Duration elapsed;
+    private final List<Object> ids;
+
+    Result(long count, int batches, Duration elapsed, List<Object> ids) {
+      this.count = count;
+      this.batches = batches;
+      this.elapsed = elapsed;
+      this.ids = ids;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /** The number of {@code insertMany} calls. */
+    public int getBatches() {
+      return batches;
+    }
+
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    /**
+     * The ids of the inserted documents in stream order, if
+     * {@link InsertSink#keepIds()} was set.
+     */
+    public List<Object> getIds() {
+      return ids;
+    }
+
+    public double getDocsPerSecond() {
+      long nanos = elapsed.toNanos();
+      return nanos == 0 ? 0 : count * 1e9 / nanos;
+    }
+
+    Result plus(Result other) {
+      return new Result(count + other.count, batches + other.batches,
+          elapsed.compareTo(other.elapsed) >= 0 ? elapsed : other.elapsed,
+          ids.append(other.ids));
+    }
+
+    @Override
+    public String toString() {
+      return "Result{count=" + count + ", batches=" + batches + ", elapsed=" + elapsed
+          + ", docs/s=" + Math.round(getDocsPerSecond()) + "}";
+    }
+  }
+}
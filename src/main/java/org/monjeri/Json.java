@@ -1,16 +1,20 @@
 package org.monjeri;
 
 import com.mongodb.DBRef;
-import jdk.nashorn.internal.scripts.JO;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 import org.monjeri.model.PathAccess;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
@@ -54,6 +58,12 @@ public abstract class Json {
     if (obj instanceof Long) {
       return num((long) obj);
     }
+    if (obj instanceof Double) {
+      return num((double) obj);
+    }
+    if (obj instanceof Decimal128) {
+      return decimal128(((Decimal128) obj).bigDecimalValue());
+    }
     if (obj instanceof String) {
       return str((String) obj);
     }
@@ -61,6 +71,30 @@ public abstract class Json {
   }
 
 
+  /**
+   * Parse json text. Integral numbers become {@code int} or {@code long}
+   * numbers (or {@link BigDecimal}s, if too large), other numbers become
+   * {@code double}s. The strict mode forms of object ids, regular
+   * expressions and db-refs, as printed by {@link JsonPrinter}, are
+   * converted to the corresponding json values.
+   *
+   * @throws IllegalArgumentException if {@code json} is not valid json
+   */
+  public static Json parse(CharSequence json) {
+    return JsonParser.parse(json);
+  }
+
+  public static Json parse(Reader json) throws IOException {
+    return JsonParser.parse(json);
+  }
+
+  /**
+   * Parse UTF-8 encoded json text from the remaining bytes of {@code json}.
+   */
+  public static Json parse(ByteBuffer json) {
+    return JsonParser.parse(json);
+  }
+
   public static JNull Null() {
     return JNull.INSTANCE;
   }
@@ -77,16 +111,27 @@ public abstract class Json {
   }
 
   public static JNumber num(BigDecimal num) {
-    return new JNumber(Objects.requireNonNull(num));
+    return new JNumber(JNumber.Kind.DECIMAL, 0, 0, Objects.requireNonNull(num));
   }
   public static JNumber num(int num) {
-    return new JNumber(new BigDecimal(num));
+    return new JNumber(JNumber.Kind.INT, num, 0, null);
+  }
+  public static JNumber num(long num) {
+    return new JNumber(JNumber.Kind.LONG, num, 0, null);
   }
   public static JNumber num(double num) {
-    return new JNumber(new BigDecimal(num, MathContext.DECIMAL128));
+    return new JNumber(JNumber.Kind.DOUBLE, 0, num, null);
   }
   public static JNumber num(String num) {
-    return new JNumber(new BigDecimal(num));
+    return num(new BigDecimal(num));
+  }
+
+  /**
+   * Create a number that is stored as BSON {@code Decimal128}, which keeps
+   * {@code num} exact. Requires MongoDB 3.4 or later.
+   */
+  public static JNumber decimal128(BigDecimal num) {
+    return new JNumber(JNumber.Kind.DECIMAL128, 0, 0, Objects.requireNonNull(num));
   }
 
   public static JString str(String value) {
@@ -250,10 +295,27 @@ public abstract class Json {
     }
   }
 
+  /**
+   * A number. Numbers created from {@code int}, {@code long} and
+   * {@code double} keep their primitive value and are stored as the
+   * corresponding BSON type. Numbers created from a {@link BigDecimal} are
+   * stored as integer if they are integral, and as string otherwise, unless
+   * created by {@link Json#decimal128(BigDecimal)}.
+   */
   public final static class JNumber extends Json {
-    private final BigDecimal value;
+    public enum Kind {
+      INT, LONG, DOUBLE, DECIMAL, DECIMAL128
+    }
 
-    private JNumber(BigDecimal value) {
+    private final Kind kind;
+    private final long longValue;
+    private final double doubleValue;
+    private BigDecimal value;
+
+    private JNumber(Kind kind, long longValue, double doubleValue, BigDecimal value) {
+      this.kind = kind;
+      this.longValue = longValue;
+      this.doubleValue = doubleValue;
       this.value = value;
     }
 
@@ -262,10 +324,68 @@ public abstract class Json {
       return Type.NUMBER;
     }
 
+    public Kind kind() {
+      return kind;
+    }
+
+    /**
+     * Return the value of an {@code INT} or {@code LONG} number.
+     */
+    public long longValue() {
+      if (kind != Kind.INT && kind != Kind.LONG) {
+        throw new IllegalStateException("Not an integer number: " + kind);
+      }
+      return longValue;
+    }
+
+    /**
+     * Return the value of a {@code DOUBLE} number.
+     */
+    public double doubleValue() {
+      if (kind != Kind.DOUBLE) {
+        throw new IllegalStateException("Not a double number: " + kind);
+      }
+      return doubleValue;
+    }
+
     @Override
     public Optional<BigDecimal> asNumber() {
+      if (value == null) {
+        value = kind == Kind.DOUBLE
+            ? new BigDecimal(doubleValue, MathContext.DECIMAL128)
+            : BigDecimal.valueOf(longValue);
+      }
       return Optional.of(value);
     }
+
+    /**
+     * Return the value as it is stored in a {@link Document}.
+     */
+    Object toObject() {
+      switch (kind) {
+        case INT:
+          return (int) longValue;
+        case LONG:
+          return longValue;
+        case DOUBLE:
+          return doubleValue;
+        case DECIMAL128:
+          return new Decimal128(value);
+        case DECIMAL:
+          if (value.signum() == 0 || value.scale() <= 0 || value.stripTrailingZeros().scale() <= 0) {
+            long val = value.longValueExact();
+            if (val > Integer.MAX_VALUE || val < Integer.MIN_VALUE) {
+              return val;
+            } else {
+              return (int) val;
+            }
+          } else {
+            return value.toPlainString();
+          }
+        default:
+          throw new AssertionError("Unreachable code");
+      }
+    }
   }
 
   public final static class JString extends Json {
@@ -293,6 +413,41 @@ public abstract class Json {
   public final static class JArray extends Json implements Iterable<Json> {
     private final List<Json> value;
 
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    /**
+     * A mutable builder for a {@link JArray}, that collects values without
+     * copying. A builder can only be built once.
+     */
+    public static final class Builder {
+      private java.util.ArrayList<Json> values = new java.util.ArrayList<>();
+
+      private Builder() {
+      }
+
+      public Builder add(Json json) {
+        if (values == null) {
+          throw new IllegalStateException("Builder has already been built");
+        }
+        values.add(Objects.requireNonNull(json));
+        return this;
+      }
+
+      public JArray build() {
+        if (values == null) {
+          throw new IllegalStateException("Builder has already been built");
+        }
+        List<Json> result = List.nil();
+        for (int i = values.size() - 1; i >= 0; i--) {
+          result = result.cons(values.get(i));
+        }
+        values = null;
+        return new JArray(result);
+      }
+    }
+
     @SuppressWarnings("unchecked")
     private JArray(List<? extends Json> value) {
       this.value = (List<Json>) value;
@@ -314,14 +469,29 @@ public abstract class Json {
     }
   }
 
-  public final static class JObject extends Json implements Iterable<JObject.Entry> {
-    private static final JObject EMPTY = new JObject(List.nil());
-    private final List<Entry> values;
+  /**
+   * An object. Entries keep their insertion order; putting an entry with an
+   * existing name removes the old entry and appends the new one.
+   *
+   * The entries are indexed by name in a {@link Hamt}, so {@link #get(String)}
+   * and {@link #put(Entry)} don't depend on the number of entries. Replaced
+   * entries stay in the insertion order until there are more of them than
+   * live ones.
+   */
+  public final static class JObject extends Json implements Iterable<JObject.Entry>, Bson {
+    private static final JObject EMPTY = new JObject(Hamt.empty(), List.nil(), 0);
+
+    private final Hamt<String, Entry> index;
+    // all entries ever put, latest first, including replaced ones
+    private final List<Entry> order;
+    private final int replaced;
 
-    private Map<String, Json> map = null;
+    private List<Entry> values = null;
 
-    private JObject(List<Entry> values) {
-      this.values = values;
+    private JObject(Hamt<String, Entry> index, List<Entry> order, int replaced) {
+      this.index = index;
+      this.order = order;
+      this.replaced = replaced;
     }
 
     @Override
@@ -336,7 +506,7 @@ public abstract class Json {
 
     @Override
     public Iterator<JObject.Entry> iterator() {
-      return values.iterator();
+      return getValues().iterator();
     }
 
 
@@ -345,38 +515,75 @@ public abstract class Json {
     }
 
     public static JObject of(Entry... entries) {
-      List<Entry> es = List.of(entries);
-      return new JObject(es.distinct(Eq.objectEq()));
+      Builder builder = new Builder(entries.length);
+      for (Entry e : entries) {
+        builder.put(e);
+      }
+      return builder.build();
     }
 
     public static JObject of(String name, Json value) {
       return of(entry(name, value));
     }
 
+    /**
+     * Create an object from entries in order.
+     */
+    static JObject ofDistinct(List<Entry> entries) {
+      Builder builder = builder();
+      entries.foreach(builder::put);
+      return builder.build();
+    }
+
+    public static Builder builder() {
+      return new Builder(16);
+    }
+
+    public static Builder builder(int expectedSize) {
+      return new Builder(expectedSize);
+    }
+
     public static JObject byId(Object id) {
       return of("_id", Json.tryOf(id));
     }
 
     public Optional<Json> get(String name) {
-      return Optional.ofNullable(makeMap().get(name));
+      Entry e = index.get(name);
+      return e == null ? Optional.empty() : Optional.of(e.value);
+    }
+
+    public int size() {
+      return index.size();
     }
 
     public List<Entry> getValues() {
+      if (values == null) {
+        values = order.foldLeft(List.nil(), (r, e) -> isLive(e) ? r.cons(e) : r);
+      }
       return values;
     }
 
-    private Map<String, Json> makeMap() {
-      if (map == null) {
-        map = new LinkedHashMap<>();
-        values.foreach(e -> map.put(e.name, e.value));
-      }
-      return map;
+    private boolean isLive(Entry e) {
+      return index.get(e.name) == e;
     }
 
     public JObject put(Entry entry) {
-      return new JObject(values
-          .filter(e -> e.notName(entry.name))
-          .append(List.of(entry)));
+      Entry old = index.get(entry.name);
+      if (old == entry) {
+        if (order.head() == entry) {
+          return this;
+        }
+        // the order must not contain the same instance twice
+        entry = new Entry(entry.name, entry.value);
+      }
+      Hamt<String, Entry> nextIndex = index.put(entry.name, entry);
+      List<Entry> nextOrder = order.cons(entry);
+      int nextReplaced = old == null ? replaced : replaced + 1;
+      if (nextReplaced > nextIndex.size()) {
+        JObject compacted = new JObject(nextIndex, nextOrder, nextReplaced);
+        return new JObject(nextIndex, compacted.getValues().reverse(), 0);
+      }
+      return new JObject(nextIndex, nextOrder, nextReplaced);
     }
 
     public JObject put(String name, Json value) {
@@ -403,27 +610,24 @@ public abstract class Json {
       return (Document) toObject(this);
     }
 
-    private static Object toObject(Json json) {
+    /**
+     * Encodes this object using {@link JsonCodec}, ignoring the given registry.
+     */
+    @Override
+    public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry codecRegistry) {
+      return JsonCodec.toBsonDocument(this);
+    }
+
+    static Object toObject(Json json) {
       return json.fold(
           n -> null,
           b -> b,
-          bd -> {
-            if (bd.signum() == 0 || bd.scale() <= 0 || bd.stripTrailingZeros().scale() <= 0) {
-              long val = bd.longValueExact();
-              if (val > Integer.MAX_VALUE) {
-                return val;
-              } else {
-                return (int) val;
-              }
-            } else {
-              return bd.toPlainString();
-            }
-          },
+          bd -> ((JNumber) json).toObject(),
           str -> str,
           a -> a.map(JObject::toObject).toJava(),
           o -> {
             Document doc = new Document();
-            o.values.foreach(e ->
+            o.getValues().foreach(e ->
                 Optional.ofNullable(toObject(e.value))
                     .ifPresent(v -> doc.put(e.name, v)));
             return doc;
@@ -433,6 +637,117 @@ public abstract class Json {
           ref -> ref.toStrictMode().toDocument());
     }
 
+    /**
+     * A mutable builder for a {@link JObject}, that collects entries without
+     * copying. Like {@link JObject#put(Entry)}, putting an existing name
+     * replaces the entry and moves it to the end. A builder can only be built
+     * once.
+     */
+    public static final class Builder {
+      // below this size, names are compared linearly
+      private static final int INDEX_THRESHOLD = 8;
+
+      private java.util.Map<String, Integer> positions = null;
+      private Entry[] entries;
+      private int length = 0;
+      private int replaced = 0;
+      private boolean built = false;
+
+      private Builder(int expectedSize) {
+        this.entries = new Entry[Math.max(4, expectedSize)];
+      }
+
+      public Builder put(Entry entry) {
+        if (built) {
+          throw new IllegalStateException("Builder has already been built");
+        }
+        int old = position(entry.name);
+        if (old >= 0) {
+          entries[old] = null;
+          replaced++;
+        }
+        if (length == entries.length) {
+          entries = java.util.Arrays.copyOf(entries, length * 2);
+        }
+        entries[length++] = entry;
+        if (positions != null) {
+          positions.put(entry.name, length - 1);
+        }
+        return this;
+      }
+
+      private int position(String name) {
+        if (positions == null && length >= INDEX_THRESHOLD) {
+          positions = new java.util.HashMap<>(length * 4);
+          for (int i = 0; i < length; i++) {
+            if (entries[i] != null) {
+              positions.put(entries[i].name, i);
+            }
+          }
+        }
+        if (positions != null) {
+          Integer i = positions.get(name);
+          return i == null ? -1 : i;
+        }
+        for (int i = 0; i < length; i++) {
+          if (entries[i] != null && entries[i].isName(name)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+
+      public Builder put(String name, Json value) {
+        return put(entry(name, value));
+      }
+
+      public Builder putPath(Path path, Json value) {
+        return put(ofPath(path, value));
+      }
+
+      public Builder putName(Path path, Json value) {
+        return put(ofName(path, value));
+      }
+
+      public Builder putPath(PathAccess path, Json value) {
+        return put(ofPath(path, value));
+      }
+
+      public Builder putName(PathAccess path, Json value) {
+        return put(ofName(path, value));
+      }
+
+      public Builder putAll(JObject obj) {
+        obj.getValues().foreach(this::put);
+        return this;
+      }
+
+      public JObject build() {
+        if (built) {
+          throw new IllegalStateException("Builder has already been built");
+        }
+        built = true;
+        int n = length - replaced;
+        if (n == 0) {
+          return EMPTY;
+        }
+        String[] names = new String[n];
+        Entry[] live = new Entry[n];
+        List<Entry> order = List.nil();
+        int i = 0;
+        for (int j = 0; j < length; j++) {
+          Entry e = entries[j];
+          if (e != null) {
+            names[i] = e.name;
+            live[i++] = e;
+            order = order.cons(e);
+          }
+        }
+        entries = null;
+        return new JObject(Hamt.of(names, live, n), order, 0);
+      }
+    }
+
     public static final class Entry {
       public final String name;
       public final Json value;
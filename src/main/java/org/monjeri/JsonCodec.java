@@ -0,0 +1,300 @@
+package org.monjeri;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonReader;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.monjeri.Json.JObject;
+
+import static org.monjeri.Json.JObject.entry;
+
+/**
+ * A codec that writes {@link JObject}s directly to a {@link BsonWriter} and
+ * reads them from a {@link BsonReader}, without creating an intermediate
+ * {@link org.bson.Document}.
+ *
+ * The encoding is the same as {@link JObject#toDocument()}: {@code null}
+ * values of objects are omitted, numbers are written as described in
+ * {@link Json.JNumber}, and regular expressions and db-refs are written in
+ * their strict mode form.
+ */
+public final class JsonCodec implements Codec<JObject> {
+
+  public static final JsonCodec INSTANCE = new JsonCodec();
+
+  private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+  private JsonCodec() {
+  }
+
+  /**
+   * Return a registry that uses this codec for {@link JObject} and
+   * {@code base} for everything else.
+   */
+  public static CodecRegistry registry(CodecRegistry base) {
+    return CodecRegistries.fromRegistries(CodecRegistries.fromProviders(provider()), base);
+  }
+
+  public static CodecProvider provider() {
+    return new CodecProvider() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        return clazz == JObject.class ? (Codec<T>) INSTANCE : null;
+      }
+    };
+  }
+
+  /**
+   * Return a view of {@code coll} that reads and writes {@link JObject}s.
+   */
+  public static MongoCollection<JObject> jsonCollection(MongoCollection<?> coll) {
+    return coll.withDocumentClass(JObject.class)
+        .withCodecRegistry(registry(coll.getCodecRegistry()));
+  }
+
+  /**
+   * Return a view of the asynchronous {@code coll} that reads and writes
+   * {@link JObject}s.
+   */
+  public static com.mongodb.async.client.MongoCollection<JObject> jsonCollection(
+      com.mongodb.async.client.MongoCollection<?> coll) {
+    return coll.withDocumentClass(JObject.class)
+        .withCodecRegistry(registry(coll.getCodecRegistry()));
+  }
+
+  public static BsonDocument toBsonDocument(JObject json) {
+    BsonDocument doc = new BsonDocument();
+    INSTANCE.encode(new BsonDocumentWriter(doc), json, ENCODER_CONTEXT);
+    return doc;
+  }
+
+  /**
+   * Return {@code json} with a new {@link ObjectId} as {@code _id}, if it
+   * doesn't have one.
+   */
+  static JObject withId(JObject json) {
+    return json.get("_id").filter(id -> !id.isNull()).isPresent()
+        ? json
+        : json.put("_id", Json.id(new ObjectId()));
+  }
+
+  /**
+   * Return the {@code _id} of {@code json} as it is stored in the database.
+   */
+  static Object idOf(JObject json) {
+    return json.get("_id").map(JObject::toObject).orElse(null);
+  }
+
+  /**
+   * Return about the number of bytes {@code json} takes when encoded by this
+   * codec. Names and strings are counted in UTF-8 bytes.
+   */
+  static int estimateSize(JObject json) {
+    // length, terminating zero
+    int size = 5;
+    for (JObject.Entry e : json) {
+      if (!e.value.isNull()) {
+        // type, name, terminating zero of name
+        size += 2 + utf8Length(e.name) + estimateValueSize(e.value);
+      }
+    }
+    return size;
+  }
+
+  private static int estimateValueSize(Json json) {
+    switch (json.type()) {
+      case NULL:
+        return 0;
+      case BOOL:
+        return 1;
+      case NUMBER:
+        Json.JNumber num = (Json.JNumber) json;
+        return num.kind() == Json.JNumber.Kind.INT ? 4 : num.kind() == Json.JNumber.Kind.DECIMAL128 ? 16 : 8;
+      case STRING:
+        return 5 + utf8Length(((Json.JString) json).getValue());
+      case ARRAY:
+        int size = 5;
+        int index = 0;
+        for (Json el : (Json.JArray) json) {
+          size += 2 + Integer.toString(index++).length() + estimateValueSize(el);
+        }
+        return size;
+      case OBJECT:
+        return estimateSize((JObject) json);
+      case OBJECT_ID:
+        return 12;
+      case REGEX:
+        return estimateSize(((Json.JRegex) json).toStrictMode());
+      case DBREF:
+        return estimateSize(((Json.JDBRef) json).toStrictMode());
+      default:
+        throw new AssertionError("Unreachable code");
+    }
+  }
+
+  static int utf8Length(String s) {
+    int length = s.length();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= 0x800) {
+        // three bytes, or four for a surrogate pair of two chars
+        length += Character.isSurrogate(c) ? 1 : 2;
+      } else if (c >= 0x80) {
+        length += 1;
+      }
+    }
+    return length;
+  }
+
+  @Override
+  public Class<JObject> getEncoderClass() {
+    return JObject.class;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, JObject value, EncoderContext encoderContext) {
+    boolean idFirst = encoderContext.isEncodingCollectibleDocument();
+    writer.writeStartDocument();
+    if (idFirst) {
+      value.get("_id").filter(id -> !id.isNull()).ifPresent(id -> {
+        writer.writeName("_id");
+        writeValue(writer, id);
+      });
+    }
+    for (JObject.Entry e : value) {
+      if (!e.value.isNull() && !(idFirst && e.isName("_id"))) {
+        writer.writeName(e.name);
+        writeValue(writer, e.value);
+      }
+    }
+    writer.writeEndDocument();
+  }
+
+  private void writeValue(BsonWriter writer, Json json) {
+    switch (json.type()) {
+      case NULL:
+        writer.writeNull();
+        break;
+      case BOOL:
+        writer.writeBoolean(((Json.JBool) json).isValue());
+        break;
+      case NUMBER:
+        writeNumber(writer, (Json.JNumber) json);
+        break;
+      case STRING:
+        writer.writeString(((Json.JString) json).getValue());
+        break;
+      case ARRAY:
+        writer.writeStartArray();
+        for (Json el : (Json.JArray) json) {
+          writeValue(writer, el);
+        }
+        writer.writeEndArray();
+        break;
+      case OBJECT:
+        encode(writer, (JObject) json, ENCODER_CONTEXT);
+        break;
+      case OBJECT_ID:
+        writer.writeObjectId(((Json.JObjectId) json).getId());
+        break;
+      case REGEX:
+        encode(writer, ((Json.JRegex) json).toStrictMode(), ENCODER_CONTEXT);
+        break;
+      case DBREF:
+        encode(writer, ((Json.JDBRef) json).toStrictMode(), ENCODER_CONTEXT);
+        break;
+      default:
+        throw new AssertionError("Unreachable code");
+    }
+  }
+
+  private void writeNumber(BsonWriter writer, Json.JNumber num) {
+    switch (num.kind()) {
+      case INT:
+        writer.writeInt32((int) num.longValue());
+        break;
+      case LONG:
+        writer.writeInt64(num.longValue());
+        break;
+      case DOUBLE:
+        writer.writeDouble(num.doubleValue());
+        break;
+      default:
+        Object value = num.toObject();
+        if (value instanceof Integer) {
+          writer.writeInt32((Integer) value);
+        } else if (value instanceof Long) {
+          writer.writeInt64((Long) value);
+        } else if (value instanceof Decimal128) {
+          writer.writeDecimal128((Decimal128) value);
+        } else {
+          writer.writeString((String) value);
+        }
+    }
+  }
+
+  @Override
+  public JObject decode(BsonReader reader, DecoderContext decoderContext) {
+    List<JObject.Entry> entries = List.nil();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      entries = entries.cons(entry(name, readValue(reader, decoderContext)));
+    }
+    reader.readEndDocument();
+    return JObject.ofDistinct(entries.reverse());
+  }
+
+  Json readValue(BsonReader reader, DecoderContext decoderContext) {
+    BsonType type = reader.getCurrentBsonType();
+    switch (type) {
+      case NULL:
+        reader.readNull();
+        return Json.Null();
+      case UNDEFINED:
+        reader.readUndefined();
+        return Json.Null();
+      case BOOLEAN:
+        return Json.of(reader.readBoolean());
+      case INT32:
+        return Json.num(reader.readInt32());
+      case INT64:
+        return Json.num(reader.readInt64());
+      case DOUBLE:
+        return Json.num(reader.readDouble());
+      case DECIMAL128:
+        return Json.decimal128(reader.readDecimal128().bigDecimalValue());
+      case STRING:
+        return Json.str(reader.readString());
+      case ARRAY:
+        List<Json> values = List.nil();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+          values = values.cons(readValue(reader, decoderContext));
+        }
+        reader.readEndArray();
+        return Json.array(values.reverse());
+      case DOCUMENT:
+        return decode(reader, decoderContext);
+      case OBJECT_ID:
+        return Json.id(reader.readObjectId());
+      case REGULAR_EXPRESSION:
+        BsonRegularExpression regex = reader.readRegularExpression();
+        return Json.regex(regex.getPattern(), regex.getOptions());
+      default:
+        throw new IllegalArgumentException("Cannot create json value from bson type: " + type);
+    }
+  }
+}
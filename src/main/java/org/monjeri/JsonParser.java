@@ -0,0 +1,472 @@
+package org.monjeri;
+
+import org.bson.types.ObjectId;
+import org.monjeri.Json.JObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>A single pass json parser, see {@link Json#parse(CharSequence)}.</p>
+ *
+ * <p>Input is read in chunks into a char buffer. Strings that lie within the
+ * buffer are created without copying them into a {@link StringBuilder}
+ * first, and object names are shared within one parse.</p>
+ *
+ * <p>Numbers must follow the grammar of RFC 8259 and lie within the range
+ * of a {@code double}. Numbers that are not small integers are kept exact as
+ * {@link BigDecimal}. Objects and arrays can be nested up to
+ * {@value #MAX_DEPTH} levels.</p>
+ */
+abstract class JsonParser {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int NAME_CACHE_SIZE = 256;
+  private static final int MAX_CACHED_NAME = 32;
+  // deeper nesting is rejected rather than overflowing the stack
+  static final int MAX_DEPTH = 1000;
+
+  private final char[] buf = new char[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
+  // number of chars before buf[0], for error messages
+  private long offset = 0;
+  private int depth = 0;
+
+  private final StringBuilder scratch = new StringBuilder();
+  private final String[] names = new String[NAME_CACHE_SIZE];
+
+  /**
+   * Read more chars into {@code buf} starting at {@code from}, returning the
+   * number of chars read, or -1 at the end of input.
+   */
+  abstract int fill(char[] buf, int from) throws IOException;
+
+  static Json parse(CharSequence input) {
+    JsonParser parser = new JsonParser() {
+      private int next = 0;
+
+      @Override
+      int fill(char[] buf, int from) {
+        int n = Math.min(buf.length - from, input.length() - next);
+        if (n <= 0) {
+          return -1;
+        }
+        if (input instanceof String) {
+          ((String) input).getChars(next, next + n, buf, from);
+        } else {
+          for (int i = 0; i < n; i++) {
+            buf[from + i] = input.charAt(next + i);
+          }
+        }
+        next += n;
+        return n;
+      }
+    };
+    try {
+      return parser.parseDocument();
+    } catch (IOException e) {
+      throw new AssertionError("Unreachable code", e);
+    }
+  }
+
+  static Json parse(Reader input) throws IOException {
+    JsonParser parser = new JsonParser() {
+      @Override
+      int fill(char[] buf, int from) throws IOException {
+        int n;
+        do {
+          n = input.read(buf, from, buf.length - from);
+        } while (n == 0);
+        return n;
+      }
+    };
+    return parser.parseDocument();
+  }
+
+  static Json parse(ByteBuffer input) {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    JsonParser parser = new JsonParser() {
+      private boolean flushed = false;
+
+      @Override
+      int fill(char[] buf, int from) throws IOException {
+        if (flushed) {
+          return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(buf, from, buf.length - from);
+        CoderResult result = decoder.decode(input, out, true);
+        if (result.isError()) {
+          result.throwException();
+        }
+        if (result.isUnderflow()) {
+          decoder.flush(out);
+          flushed = true;
+        }
+        int n = out.position() - from;
+        return n == 0 && flushed ? -1 : n;
+      }
+    };
+    try {
+      return parser.parseDocument();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid UTF-8 input", e);
+    }
+  }
+
+  private Json parseDocument() throws IOException {
+    Json json = parseValue();
+    if (skipWhitespace() >= 0) {
+      throw error("Unexpected content after json value");
+    }
+    return json;
+  }
+
+  // ---- reading
+
+  private boolean ensure() throws IOException {
+    if (pos < limit) {
+      return true;
+    }
+    offset += limit;
+    pos = 0;
+    limit = 0;
+    int n = fill(buf, 0);
+    if (n > 0) {
+      limit = n;
+    }
+    return n > 0;
+  }
+
+  private int skipWhitespace() throws IOException {
+    while (ensure()) {
+      char c = buf[pos];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+      pos++;
+    }
+    return -1;
+  }
+
+  private char next() throws IOException {
+    if (!ensure()) {
+      throw error("Unexpected end of input");
+    }
+    return buf[pos++];
+  }
+
+  private void expect(char expected) throws IOException {
+    if (skipWhitespace() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+    pos++;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + (offset + pos));
+  }
+
+  // ---- values
+
+  private Json parseValue() throws IOException {
+    int c = skipWhitespace();
+    switch (c) {
+      case '{': {
+        pos++;
+        nest();
+        Json obj = parseObject();
+        depth--;
+        return obj;
+      }
+      case '[': {
+        pos++;
+        nest();
+        Json array = parseArray();
+        depth--;
+        return array;
+      }
+      case '"':
+        pos++;
+        return Json.str(parseString(false));
+      case 't':
+        literal("true");
+        return Json.True();
+      case 'f':
+        literal("false");
+        return Json.False();
+      case 'n':
+        literal("null");
+        return Json.Null();
+      case -1:
+        throw error("Unexpected end of input");
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return parseNumber();
+        }
+        throw error("Unexpected character '" + (char) c + "'");
+    }
+  }
+
+  private void nest() {
+    if (++depth > MAX_DEPTH) {
+      throw error("Nesting deeper than " + MAX_DEPTH);
+    }
+  }
+
+  private void literal(String word) throws IOException {
+    for (int i = 0; i < word.length(); i++) {
+      if (next() != word.charAt(i)) {
+        pos--;
+        throw error("Expected '" + word + "'");
+      }
+    }
+  }
+
+  private Json parseArray() throws IOException {
+    Json.JArray.Builder array = Json.JArray.builder();
+    if (skipWhitespace() == ']') {
+      pos++;
+      return array.build();
+    }
+    while (true) {
+      array.add(parseValue());
+      int c = skipWhitespace();
+      pos++;
+      if (c == ']') {
+        return array.build();
+      }
+      if (c != ',') {
+        pos--;
+        throw error("Expected ',' or ']'");
+      }
+    }
+  }
+
+  private Json parseObject() throws IOException {
+    JObject.Builder obj = JObject.builder();
+    boolean special = false;
+    if (skipWhitespace() == '}') {
+      pos++;
+      return obj.build();
+    }
+    while (true) {
+      expect('"');
+      String name = parseString(true);
+      special |= name.startsWith("$");
+      expect(':');
+      obj.put(name, parseValue());
+      int c = skipWhitespace();
+      pos++;
+      if (c == '}') {
+        JObject result = obj.build();
+        return special ? fromStrictMode(result) : result;
+      }
+      if (c != ',') {
+        pos--;
+        throw error("Expected ',' or '}'");
+      }
+    }
+  }
+
+  /**
+   * Convert the strict mode forms written by {@link JsonPrinter} back to
+   * their json values.
+   */
+  private static Json fromStrictMode(JObject obj) {
+    int size = obj.size();
+    java.util.Optional<String> oid = obj.get("$oid").flatMap(Json::asString);
+    if (size == 1 && oid.isPresent() && ObjectId.isValid(oid.get())) {
+      return Json.id(new ObjectId(oid.get()));
+    }
+    java.util.Optional<String> regex = obj.get("$regex").flatMap(Json::asString);
+    java.util.Optional<String> options = obj.get("$options").flatMap(Json::asString);
+    if (regex.isPresent() && (size == 1 || (size == 2 && options.isPresent()))) {
+      return Json.regex(regex.get(), options.orElse(""));
+    }
+    java.util.Optional<String> ref = obj.get("$ref").flatMap(Json::asString);
+    java.util.Optional<Json> id = obj.get("$id");
+    if (size == 2 && ref.isPresent() && id.isPresent()) {
+      Object value = id.get().asString()
+          .filter(ObjectId::isValid)
+          .<Object>map(ObjectId::new)
+          .orElseGet(() -> JObject.toObject(id.get()));
+      return Json.dbref(ref.get(), value);
+    }
+    return obj;
+  }
+
+  private String parseString(boolean name) throws IOException {
+    // fast path: the string lies within the buffer and has no escapes
+    int start = pos;
+    int hash = 0;
+    int i = start;
+    for (; i < limit; i++) {
+      char c = buf[i];
+      if (c == '"') {
+        pos = i + 1;
+        return name ? name(start, i - start, hash) : new String(buf, start, i - start);
+      }
+      if (c == '\\' || c < 0x20) {
+        break;
+      }
+      hash = 31 * hash + c;
+    }
+    scratch.setLength(0);
+    scratch.append(buf, start, i - start);
+    pos = i;
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return scratch.toString();
+      }
+      if (c == '\\') {
+        scratch.append(escape());
+      } else if (c < 0x20) {
+        pos--;
+        throw error("Unescaped control character in string");
+      } else {
+        scratch.append(c);
+      }
+    }
+  }
+
+  private char escape() throws IOException {
+    char c = next();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(next(), 16);
+          if (digit < 0) {
+            pos--;
+            throw error("Invalid unicode escape");
+          }
+          value = value * 16 + digit;
+        }
+        return (char) value;
+      default:
+        pos--;
+        throw error("Invalid escape character '" + c + "'");
+    }
+  }
+
+  /**
+   * Return the name in {@code buf}, reusing a previously created string if
+   * possible.
+   */
+  private String name(int start, int length, int hash) {
+    if (length > MAX_CACHED_NAME) {
+      return new String(buf, start, length);
+    }
+    int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+    String cached = names[slot];
+    if (cached != null && cached.length() == length) {
+      boolean same = true;
+      for (int i = 0; i < length && same; i++) {
+        same = cached.charAt(i) == buf[start + i];
+      }
+      if (same) {
+        return cached;
+      }
+    }
+    return names[slot] = new String(buf, start, length);
+  }
+
+  /**
+   * Parse a number as RFC 8259 defines it: an optional minus, an integer
+   * part without leading zeros, and optional fraction and exponent, each
+   * with at least one digit.
+   */
+  private Json parseNumber() throws IOException {
+    scratch.setLength(0);
+    boolean negative = false;
+    if (buf[pos] == '-') {
+      negative = true;
+      scratch.append('-');
+      pos++;
+    }
+    long value = 0;
+    int digits = 0;
+    while (ensure() && buf[pos] >= '0' && buf[pos] <= '9') {
+      if (digits == 1 && value == 0) {
+        throw invalidNumber();
+      }
+      value = value * 10 + (buf[pos] - '0');
+      digits++;
+      scratch.append(buf[pos++]);
+    }
+    if (digits == 0) {
+      throw invalidNumber();
+    }
+    boolean integral = true;
+    if (ensure() && buf[pos] == '.') {
+      integral = false;
+      scratch.append(buf[pos++]);
+      requireDigits();
+    }
+    if (ensure() && (buf[pos] == 'e' || buf[pos] == 'E')) {
+      integral = false;
+      scratch.append(buf[pos++]);
+      if (ensure() && (buf[pos] == '+' || buf[pos] == '-')) {
+        scratch.append(buf[pos++]);
+      }
+      requireDigits();
+    }
+    if (ensure() && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E' || buf[pos] == '+' || buf[pos] == '-')) {
+      scratch.append(buf[pos]);
+      throw invalidNumber();
+    }
+    try {
+      if (integral && digits <= 18) {
+        long n = negative ? -value : value;
+        return n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE ? Json.num((int) n) : Json.num(n);
+      }
+      BigDecimal number = new BigDecimal(scratch.toString());
+      // keep the number exact, but only within the range of a double
+      if (Double.isInfinite(number.doubleValue())) {
+        throw invalidNumber();
+      }
+      return Json.num(number);
+    } catch (NumberFormatException | ArithmeticException e) {
+      throw invalidNumber();
+    }
+  }
+
+  private void requireDigits() throws IOException {
+    int start = scratch.length();
+    while (ensure() && buf[pos] >= '0' && buf[pos] <= '9') {
+      scratch.append(buf[pos++]);
+    }
+    if (scratch.length() == start) {
+      throw invalidNumber();
+    }
+  }
+
+  private IllegalArgumentException invalidNumber() {
+    return error("Invalid number '" + scratch + "'");
+  }
+}
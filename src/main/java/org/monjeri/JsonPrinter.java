@@ -2,67 +2,275 @@ package org.monjeri;
 
 import org.monjeri.Json.JObject;
 
-import java.math.BigDecimal;
-import java.util.function.Function;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
-import static org.monjeri.Util.stringAppend;
+/**
+ * <p>Prints json to an {@link Appendable} or {@link OutputStream}, without
+ * creating the whole output as string first.</p>
+ *
+ * <pre>
+ *   JsonPrinter.SPACES2.print(json, response.getOutputStream());
+ * </pre>
+ *
+ * <p>{@code null} values of arrays and objects are omitted. Strings are
+ * escaped as required by RFC 7159. Doubles that are NaN or infinite have
+ * no json form and are printed as {@code null}.</p>
+ */
+public final class JsonPrinter {
 
-class JsonPrinter {
+  public static final JsonPrinter NO_SPACES = new JsonPrinter(0);
+  public static final JsonPrinter SPACES2 = new JsonPrinter(2);
+  public static final JsonPrinter SPACES4 = new JsonPrinter(4);
 
-  public static String noSpaces(Json json) {
-    return render(json, 0, 0);
+  private static final int BUFFER_SIZE = 8192;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final int indent;
+  private volatile String[] newlines = new String[0];
+
+  private JsonPrinter(int indent) {
+    this.indent = indent;
   }
 
-  public static String spaces2(Json json) {
-    return render(json, 2, 0);
+  /**
+   * Return a printer that indents each level by {@code indent} spaces, or
+   * prints everything on one line if {@code indent} is 0.
+   */
+  public static JsonPrinter indent(int indent) {
+    switch (indent) {
+      case 0:
+        return NO_SPACES;
+      case 2:
+        return SPACES2;
+      case 4:
+        return SPACES4;
+      default:
+        if (indent < 0) {
+          throw new IllegalArgumentException("indent must not be negative: " + indent);
+        }
+        return new JsonPrinter(indent);
+    }
   }
 
-  public static String spaces4(Json json) {
-    return render(json, 4, 0);
+  static String noSpaces(Json json) {
+    return NO_SPACES.render(json);
   }
 
-  private static String render(Json json, int ns, int level) {
-    final String spc2 = ns > 0 ? "\n" + spaces((level + 1) * ns) : "";
-    final String spc1 = ns > 0 ? "\n" + spaces(level * ns) : "";
-    return json.fold(
-        n -> "null",
-        Object::toString,
-        BigDecimal::toString,
-        s -> "\"" + s + "\"",
-        a -> "[" + spc2 + a.filter(e -> !e.isNull())
-            .map(j -> render(j, ns, level + 1))
-            .intersperse("," + spc2)
-            .foldLeft("", stringAppend()) + spc1 + "]",
-        o -> "{" + spc2 + o.getValues()
-            .filter(e -> !e.value.isNull())
-            .map(entryString(j -> render(j, ns, level + 1)))
-            .intersperse("," + spc2)
-            .foldLeft("", stringAppend()) + spc1 + "}",
-        id -> render(id.toStrictMode(), ns, level),
-        regex -> render(regex.toStrictMode(), ns, level),
-        dbref -> render(dbref.toStrictMode(), ns, level));
+  static String spaces2(Json json) {
+    return SPACES2.render(json);
   }
 
-  private static Function<JObject.Entry, String> entryString(Function<Json, String> f) {
-    return e -> "\"" + e.name + "\": " + f.apply(e.value);
+  static String spaces4(Json json) {
+    return SPACES4.render(json);
   }
 
-  private static String spaces(int n) {
-    switch (n) {
-      case 0:
-        return "";
-      case 2:
-        return "  ";
-      case 4:
-        return "    ";
-      case 6:
-        return "      ";
+  public String render(Json json) {
+    StringBuilder out = new StringBuilder();
+    try {
+      write(json, out, 0);
+    } catch (IOException e) {
+      throw new AssertionError("Unreachable code", e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Print {@code json} to {@code out}. Output is collected in a buffer and
+   * appended in chunks, so {@code out} needn't be buffered.
+   */
+  public void print(Json json, Appendable out) throws IOException {
+    if (out instanceof StringBuilder) {
+      write(json, out, 0);
+      return;
+    }
+    StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+    write(json, new Appendable() {
+      @Override
+      public Appendable append(CharSequence csq) throws IOException {
+        buffer.append(csq);
+        return flushIfFull();
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        buffer.append(csq, start, end);
+        return flushIfFull();
+      }
+
+      @Override
+      public Appendable append(char c) throws IOException {
+        buffer.append(c);
+        return flushIfFull();
+      }
+
+      private Appendable flushIfFull() throws IOException {
+        if (buffer.length() >= BUFFER_SIZE) {
+          out.append(buffer);
+          buffer.setLength(0);
+        }
+        return this;
+      }
+    }, 0);
+    out.append(buffer);
+  }
+
+  /**
+   * Print {@code json} to {@code out} as UTF-8. The stream is flushed, but
+   * not closed.
+   */
+  public void print(Json json, OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    print(json, writer);
+    writer.flush();
+  }
+
+  /**
+   * Like {@link #print(Json, Appendable)}, but throws an
+   * {@link UncheckedIOException}.
+   */
+  public void printUnchecked(Json json, Appendable out) {
+    try {
+      print(json, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void write(Json json, Appendable out, int level) throws IOException {
+    switch (json.type()) {
+      case NULL:
+        out.append("null");
+        break;
+      case BOOL:
+        out.append(((Json.JBool) json).isValue() ? "true" : "false");
+        break;
+      case NUMBER:
+        Json.JNumber num = (Json.JNumber) json;
+        if (num.kind() == Json.JNumber.Kind.INT || num.kind() == Json.JNumber.Kind.LONG) {
+          out.append(Long.toString(num.longValue()));
+        } else if (num.kind() == Json.JNumber.Kind.DOUBLE
+            && (Double.isNaN(num.doubleValue()) || Double.isInfinite(num.doubleValue()))) {
+          out.append("null");
+        } else {
+          out.append(num.asNumber().get().toString());
+        }
+        break;
+      case STRING:
+        writeString(((Json.JString) json).getValue(), out);
+        break;
+      case ARRAY:
+        out.append('[').append(newline(level + 1));
+        boolean first = true;
+        for (Json el : (Json.JArray) json) {
+          if (!el.isNull()) {
+            if (!first) {
+              out.append(',').append(newline(level + 1));
+            }
+            first = false;
+            write(el, out, level + 1);
+          }
+        }
+        out.append(newline(level)).append(']');
+        break;
+      case OBJECT:
+        writeObject((JObject) json, out, level);
+        break;
+      case OBJECT_ID:
+        writeObject(((Json.JObjectId) json).toStrictMode(), out, level);
+        break;
+      case REGEX:
+        writeObject(((Json.JRegex) json).toStrictMode(), out, level);
+        break;
+      case DBREF:
+        writeObject(((Json.JDBRef) json).toStrictMode(), out, level);
+        break;
       default:
-        StringBuilder str = new StringBuilder();
-        for (int i=0; i<n; i++) {
-          str.append(" ");
+        throw new AssertionError("Unreachable code");
+    }
+  }
+
+  private void writeObject(JObject obj, Appendable out, int level) throws IOException {
+    out.append('{').append(newline(level + 1));
+    boolean first = true;
+    for (JObject.Entry e : obj) {
+      if (!e.value.isNull()) {
+        if (!first) {
+          out.append(',').append(newline(level + 1));
         }
-        return str.toString();
+        first = false;
+        writeString(e.name, out);
+        out.append(": ");
+        write(e.value, out, level + 1);
+      }
+    }
+    out.append(newline(level)).append('}');
+  }
+
+  private static void writeString(String s, Appendable out) throws IOException {
+    out.append('"');
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\') {
+        continue;
+      }
+      out.append(s, start, i);
+      start = i + 1;
+      switch (c) {
+        case '"':
+          out.append("\\\"");
+          break;
+        case '\\':
+          out.append("\\\\");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\b':
+          out.append("\\b");
+          break;
+        case '\f':
+          out.append("\\f");
+          break;
+        default:
+          out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+      }
+    }
+    out.append(s, start, s.length()).append('"');
+  }
+
+  /**
+   * Return a newline followed by the indentation of {@code level}, or an
+   * empty string if this prints on one line.
+   */
+  private String newline(int level) {
+    if (indent == 0) {
+      return "";
+    }
+    String[] cached = newlines;
+    if (level < cached.length) {
+      return cached[level];
+    }
+    String[] next = new String[Math.max(level + 1, cached.length * 2)];
+    StringBuilder str = new StringBuilder("\n");
+    for (int i = 0; i < next.length; i++) {
+      next[i] = str.toString();
+      for (int j = 0; j < indent; j++) {
+        str.append(' ');
+      }
     }
+    newlines = next;
+    return next[level];
   }
 }
@@ -1,7 +1,12 @@
 package org.monjeri;
 
 import com.mongodb.MongoClient;
+import org.monjeri.metrics.CurrentTask;
+import org.monjeri.metrics.Metrics;
+import org.monjeri.metrics.MetricsRegistry;
+import org.monjeri.metrics.TaskRecorder;
 
+import java.time.Duration;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -38,6 +43,43 @@ public interface MonTask<A, B> {
     return f.apply(this);
   }
 
+  /**
+   * Record the duration and outcome of each run under {@code name} in
+   * {@link Metrics#getRegistry()}. The duration covers only the run: if the
+   * task returns a lazy result, like a {@link Sized} or a stream of one,
+   * reading the result is not included. The commands sent while reading it
+   * are still attributed to the task in
+   * {@link org.monjeri.metrics.CommandMetrics}.
+   */
+  default MonTask<A, B> named(String name) {
+    return named(name, Metrics.getRegistry());
+  }
+
+  default MonTask<A, B> named(String name, MetricsRegistry registry) {
+    TaskRecorder recorder = registry.recorder(name);
+    return (a, client) -> {
+      recorder.started();
+      String outer = CurrentTask.enter(name);
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        B b = run(a, client);
+        failed = false;
+        return b;
+      } finally {
+        recorder.finished(System.nanoTime() - start, failed);
+        CurrentTask.exit(outer);
+      }
+    };
+  }
+
+  /**
+   * Give each run of the task {@code budget} time, see {@link Deadline}.
+   */
+  default MonTask<A, B> withDeadline(Duration budget) {
+    return (a, client) -> Deadline.after(budget).run(() -> run(a, client));
+  }
+
   default MonTask<A, B> onError(Function<? super RuntimeException, ? extends MonTask<A, B>> f) {
     return (a, client) -> {
       try {
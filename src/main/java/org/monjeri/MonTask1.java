@@ -1,7 +1,15 @@
 package org.monjeri;
 
 import com.mongodb.MongoClient;
-
+import org.monjeri.metrics.CurrentTask;
+import org.monjeri.metrics.Metrics;
+import org.monjeri.metrics.MetricsRegistry;
+import org.monjeri.metrics.TaskRecorder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -55,6 +63,43 @@ public interface MonTask1<A> {
     return f.apply(this);
   }
 
+  /**
+   * Record the duration and outcome of each run under {@code name} in
+   * {@link Metrics#getRegistry()}. The duration covers only the run: if the
+   * task returns a lazy result, like a {@link Sized} or a stream of one,
+   * reading the result is not included. The commands sent while reading it
+   * are still attributed to the task in
+   * {@link org.monjeri.metrics.CommandMetrics}.
+   */
+  default MonTask1<A> named(String name) {
+    return named(name, Metrics.getRegistry());
+  }
+
+  default MonTask1<A> named(String name, MetricsRegistry registry) {
+    TaskRecorder recorder = registry.recorder(name);
+    return client -> {
+      recorder.started();
+      String outer = CurrentTask.enter(name);
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        A a = run(client);
+        failed = false;
+        return a;
+      } finally {
+        recorder.finished(System.nanoTime() - start, failed);
+        CurrentTask.exit(outer);
+      }
+    };
+  }
+
+  /**
+   * Give each run of the task {@code budget} time, see {@link Deadline}.
+   */
+  default MonTask1<A> withDeadline(Duration budget) {
+    return client -> Deadline.after(budget).run(() -> run(client));
+  }
+
   default MonTask1<A> onError(Function<RuntimeException, MonTask1<A>> f) {
     return client -> {
       try {
@@ -91,6 +136,48 @@ public interface MonTask1<A> {
     return tasks.foldLeft(zero, (listTask, t) -> listTask.flatMap(l -> t.map(l::nullSafeCons)));
   }
 
+  /**
+   * Like {@link #seq(List)}, but run the tasks concurrently, one of them in
+   * the calling thread and the others on {@code executor}. The results are
+   * in the order of {@code tasks}; {@code null} values are not collected.
+   * If a task fails, the tasks that haven't started yet are skipped and
+   * the failure is thrown once the running ones are done.
+   */
+  static <A> MonTask1<List<A>> parSeq(List<MonTask1<A>> tasks, Executor executor) {
+    return parTraverse(tasks, Function.identity(), Integer.MAX_VALUE, executor);
+  }
+
+  /**
+   * Run {@code f} for each of {@code values} with at most
+   * {@code parallelism} tasks at a time, otherwise like
+   * {@link #parSeq(List, Executor)}.
+   */
+  @SuppressWarnings("unchecked")
+  static <A, B> MonTask1<List<B>> parTraverse(List<A> values, Function<A, MonTask1<B>> f, int parallelism,
+                                              Executor executor) {
+    return client -> {
+      java.util.List<MonTask1<B>> tasks = values.map(f).toJava();
+      Object[] results = Parallel.run(tasks, parallelism, executor, client);
+      List<B> result = List.nil();
+      for (int i = results.length - 1; i >= 0; i--) {
+        result = result.nullSafeCons((B) results[i]);
+      }
+      return result;
+    };
+  }
+
+  /**
+   * Run {@code ta} and {@code tb} concurrently and combine their results
+   * with {@code f}.
+   */
+  @SuppressWarnings("unchecked")
+  static <A, B, C> MonTask1<C> parZip(MonTask1<A> ta, MonTask1<B> tb, BiFunction<A, B, C> f, Executor executor) {
+    return client -> {
+      Object[] results = Parallel.run(Arrays.asList(ta, tb), 2, executor, client);
+      return f.apply((A) results[0], (B) results[1]);
+    };
+  }
+
   static MonTask1<Void> runAll(List<MonTask1<?>> tasks) {
     return client -> {
       tasks.foreach(t -> t.run(client));
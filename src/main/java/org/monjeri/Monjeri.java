@@ -1,11 +1,9 @@
 package org.monjeri;
 
-import com.mongodb.MongoClient;
 import com.mongodb.MongoException;
-import com.mongodb.client.FindIterable;
+import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.DeleteOptions;
 import com.mongodb.client.model.FindOneAndDeleteOptions;
@@ -25,7 +23,6 @@ import org.monjeri.Json.JObject;
 import java.time.Duration;
 import java.util.Iterator;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -63,6 +60,26 @@ public interface Monjeri {
     return db -> db.getCollection(coll.name());
   }
 
+  /**
+   * Select a collection that reads and writes {@link JObject}s using
+   * {@link JsonCodec}.
+   */
+  default Function<MongoDatabase, MongoCollection<JObject>> jsonCollection(String name) {
+    return db -> JsonCodec.jsonCollection(db.getCollection(name));
+  }
+
+  default Function<MongoDatabase, MongoCollection<JObject>> jsonCollection(org.monjeri.model.Document coll) {
+    return jsonCollection(coll.name());
+  }
+
+  /**
+   * Apply a task for {@code Document} collections to a {@link JObject}
+   * collection.
+   */
+  default <B> Function<MongoCollection<JObject>, B> onJson(Function<MongoCollection<Document>, B> task) {
+    return coll -> task.apply(coll.withDocumentClass(Document.class));
+  }
+
   default MonTask<MongoCollection<Document>, Void> drop() {
     return (coll, client) -> {
       coll.drop();
@@ -71,7 +88,7 @@ public interface Monjeri {
   }
 
   default Function<MongoCollection<Document>, Long> count(JObject filter, CountOptions options) {
-    return coll -> coll.count(filter.toDocument(), options);
+    return coll -> coll.count(filter, Deadline.current().map(d -> d.applyTo(options)).orElse(options));
   }
 
   default Function<MongoCollection<Document>, Long> count(JObject filter) {
@@ -79,7 +96,7 @@ public interface Monjeri {
   }
 
   default Function<MongoCollection<Document>, String> createIndex(JObject keys, IndexOptions options) {
-    return coll -> coll.createIndex(keys.toDocument(), options);
+    return coll -> coll.createIndex(keys, options);
   }
 
   default Function<MongoCollection<Document>, String> createIndex(IndexModel model) {
@@ -91,15 +108,16 @@ public interface Monjeri {
   }
 
 
+  /**
+   * Return the result of a task together with how long it took. For
+   * statistics over many runs use {@link MonTask#named(String)}.
+   */
   default <A, B> Function<MonTask<A, B>, MonTask<A, List.P2<B, Duration>>> timed() {
-    AtomicLong time = new AtomicLong(0);
-    MonTask<A, B> start = MonTask.defer(() -> {
-      time.set(System.nanoTime());
-      return null;
-    });
-    return task -> start.flatMap(ign -> task)
-        .thenDo((ign, cl) -> time.addAndGet(-System.nanoTime()))
-        .map(b -> List.P2.of(b, Duration.ofNanos(-time.get())));
+    return task -> (a, client) -> {
+      long start = System.nanoTime();
+      B b = task.run(a, client);
+      return List.P2.of(b, Duration.ofNanos(System.nanoTime() - start));
+    };
   }
 
   default <A> Function<MonTask1<A>, MonTask1<List.P2<A, Duration>>> timed1() {
@@ -111,27 +129,63 @@ public interface Monjeri {
 
 
   default Function<MongoCollection<Document>, Sized<Document>> query(JObject query) {
-    return a -> {
-      long size = a.count(query.toDocument());
-      FindIterable<Document> iterable = a.find(query.toDocument());
-      return new Sized<>(iterable, size);
-    };
+    return query(query, Sized.Count.EXACT);
+  }
+
+  /**
+   * Run a query whose result size is determined according to {@code count}.
+   * Use {@link Sized.Count#LAZY} or {@link Sized.Count#ESTIMATED} to avoid
+   * the count command if the size is never asked for.
+   */
+  default Function<MongoCollection<Document>, Sized<Document>> query(JObject query, Sized.Count count) {
+    return a -> Sized.query(a, query, count);
+  }
+
+  /**
+   * Run a query on a {@link JObject} collection, see {@link #jsonCollection(String)}.
+   */
+  default Function<MongoCollection<JObject>, Sized<JObject>> queryJson(JObject query, Sized.Count count) {
+    return a -> Sized.query(a, query, count);
+  }
+
+  default Function<MongoCollection<JObject>, Sized<JObject>> queryJson(JObject query) {
+    return queryJson(query, Sized.Count.EXACT);
   }
 
   default <A> Function<Sized<A>, Sized<A>> batchSize(int n) {
-    return a -> a.set(iter -> iter.batchSize(n));
+    return a -> a.batchSize(n);
+  }
+
+  /**
+   * Read results in a background thread, see {@link Sized#prefetch(int)}.
+   * Close the resulting stream to release the cursor early.
+   */
+  default <A> Function<Sized<A>, Sized<A>> prefetch(int batches) {
+    return a -> a.prefetch(batches);
   }
 
   default <A> Function<Sized<A>, Sized<A>> project(JObject projection) {
-    return a -> a.set(iter -> iter.projection(projection.toDocument()));
+    return a -> a.set(iter -> iter.projection(projection));
+  }
+
+  /**
+   * Add a projection of the paths read by {@code decode}. Nothing is changed
+   * if these paths are not known.
+   */
+  default <A> Function<Sized<A>, Sized<A>> project(Decode<?> decode) {
+    return a -> decode.paths().map(ps -> a.set(iter -> iter.projection(Util.projection(ps)))).orElse(a);
+  }
+
+  default <A> Function<Sized<A>, Sized<A>> project(BsonDecode<?> decode) {
+    return a -> decode.paths().map(ps -> a.set(iter -> iter.projection(Util.projection(ps)))).orElse(a);
   }
 
   default <A> Function<Sized<A>, Sized<A>> limit(int n) {
-    return a -> a.set(iter -> iter.limit(n));
+    return a -> a.limit(n);
   }
 
   default <A> Function<Sized<A>, Sized<A>> sort(JObject sort) {
-    return a -> a.set(iter -> iter.sort(sort.toDocument()));
+    return a -> a.set(iter -> iter.sort(sort));
   }
 
   default <A, B> Function<Sized<A>, Stream<List<B>>> grouped(int n, Function<A, B> f) {
@@ -157,21 +211,96 @@ public interface Monjeri {
     };
   }
 
+  default <A> Function<Sized<A>, Stream<A>> stream() {
+    return a -> Util.makeStream(a, a);
+  }
+
+  /**
+   * Decode the query results. Decoding is a step of the returned stream, so
+   * it runs in parallel if the stream is made parallel.
+   */
   default <A> Function<Sized<Document>, Stream<A>> decode(Decode<A> decode) {
-    return a -> Util.makeStream(a.size(), a.getDelegate().map(decode.mapper()));
+    return a -> Util.makeStream(a, a).map(decode);
+  }
+
+  /**
+   * Like {@link #decode(Decode)}, but first sets the projection to the paths
+   * read by {@code decode}, see {@link #project(Decode)}.
+   */
+  default <A> Function<Sized<Document>, Stream<A>> decodeProjected(Decode<A> decode) {
+    return this.<Document>project(decode).andThen(decode(decode));
+  }
+
+  /**
+   * Decode the query results directly from BSON. If the query has not been
+   * created by {@link #query(JObject)}, the results are read into a
+   * {@code Document} first.
+   */
+  default <A> Function<Sized<Document>, Stream<A>> decode(BsonDecode<A> decode) {
+    return a -> a.decodeWith(decode)
+        .map(s -> Util.makeStream(s, s))
+        .orElseGet(() -> Util.makeStream(a, a.getDelegate().map(decode::apply)));
+  }
+
+  default <A> Function<Sized<Document>, Stream<A>> decodeProjected(BsonDecode<A> decode) {
+    return this.<Document>project(decode).andThen(decode(decode));
+  }
+
+  /**
+   * Read the page of documents matching {@code filter} in the order of
+   * {@code sort} that starts after {@code token}, or the first page if there
+   * is no token. See {@link Page}.
+   */
+  default Function<MongoCollection<Document>, Page<Document>> page(JObject filter, JObject sort, int pageSize,
+                                                                   Optional<String> token) {
+    return coll -> Page.read(coll, filter, sort, pageSize, token);
+  }
+
+  /**
+   * Stream all pages of documents matching {@code filter}, see
+   * {@link #page(JObject, JObject, int, Optional)}. A page is read when the
+   * stream gets to it.
+   */
+  default MonTaskS<MongoCollection<Document>, Page<Document>> paginate(JObject filter, JObject sort, int pageSize) {
+    return paginate(filter, sort, pageSize, Optional.empty());
+  }
+
+  default MonTaskS<MongoCollection<Document>, Page<Document>> paginate(JObject filter, JObject sort, int pageSize,
+                                                                      Optional<String> token) {
+    return (coll, client) -> Page.pages(coll, filter, sort, pageSize, token);
+  }
+
+  /**
+   * Split the documents matching {@code filter} into ranges of {@code _id}s
+   * that can be read concurrently, see {@link ParallelScan}.
+   */
+  default Function<MongoCollection<Document>, ParallelScan> parallelScan(JObject filter, int partitions) {
+    return coll -> ParallelScan.split(coll, filter, partitions);
   }
 
   default <A> Function<MongoCollection<Document>, Stream<A>> aggregate(List<JObject> pipeline, Decode<A> decode) {
     return a -> {
-      MongoIterable<A> iter = a.aggregate(pipeline.map(JObject::toDocument).toJava())
-          .allowDiskUse(false)
-          .map(decode.mapper());
+      AggregateIterable<Document> iter = a.aggregate(pipeline.toJava())
+          .allowDiskUse(false);
+      Deadline.current().ifPresent(d -> d.applyTo(iter));
+      return Util.makeStream(Optional.empty(), iter).map(decode);
+    };
+  }
+
+  /**
+   * Run an aggregation and decode the results directly from BSON.
+   */
+  default <A> Function<MongoCollection<Document>, Stream<A>> aggregate(List<JObject> pipeline, BsonDecode<A> decode) {
+    return a -> {
+      AggregateIterable<A> iter = decode.collection(a).aggregate(pipeline.toJava())
+          .allowDiskUse(false);
+      Deadline.current().ifPresent(d -> d.applyTo(iter));
       return Util.makeStream(Optional.empty(), iter);
     };
   }
 
   default Function<MongoCollection<Document>, UpdateResult> updateMany(JObject filter, JObject update, UpdateOptions options) {
-    return coll -> coll.updateMany(filter.toDocument(), update.toDocument(), options);
+    return coll -> coll.updateMany(filter, update, options);
   }
 
   default Function<MongoCollection<Document>, UpdateResult> updateMany(JObject filter, JObject update) {
@@ -179,7 +308,7 @@ public interface Monjeri {
   }
 
   default Function<MongoCollection<Document>, UpdateResult> updateOne(JObject filter, JObject update, UpdateOptions options) {
-    return coll -> coll.updateOne(filter.toDocument(), update.toDocument(), options);
+    return coll -> coll.updateOne(filter, update, options);
   }
 
   default Function<MongoCollection<Document>, UpdateResult> updateOne(JObject filter, JObject update) {
@@ -187,7 +316,8 @@ public interface Monjeri {
   }
 
   default <A> Function<MongoCollection<Document>, Optional<A>> findOneAndUpdate(JObject filter, JObject update, FindOneAndUpdateOptions options, Decode<A> decode) {
-    return coll -> Optional.ofNullable(coll.findOneAndUpdate(filter.toDocument(), update.toDocument(), options)).map(decode);
+    return coll -> Optional.ofNullable(coll.findOneAndUpdate(filter, update,
+        Deadline.current().map(d -> d.applyTo(options)).orElse(options))).map(decode);
   }
 
   default <A> Function<MongoCollection<Document>, Optional<A>> findOneAndUpdate(JObject filter, JObject update, Decode<A> decode) {
@@ -195,18 +325,23 @@ public interface Monjeri {
   }
 
   default Function<MongoCollection<Document>, Document> findOneAndDelete(JObject filter, FindOneAndDeleteOptions options) {
-    return coll -> coll.findOneAndDelete(filter.toDocument(), options);
+    return coll -> coll.findOneAndDelete(filter, Deadline.current().map(d -> d.applyTo(options)).orElse(options));
   }
 
   default Function<MongoCollection<Document>, Document> findOneAndDelete(JObject filter) {
-    return coll -> coll.findOneAndDelete(filter.toDocument(), new FindOneAndDeleteOptions());
+    return findOneAndDelete(filter, new FindOneAndDeleteOptions());
   }
 
+  /**
+   * Insert the document and return its {@code _id}. A new {@link ObjectId} is
+   * used if the document doesn't have one. The document is written using
+   * {@link JsonCodec}.
+   */
   default Function<MongoCollection<Document>, Object> insert(JObject document, InsertOneOptions options) {
     return coll -> {
-      Document doc = document.toDocument();
-      coll.insertOne(doc, options);
-      return doc.get("_id");
+      JObject doc = JsonCodec.withId(document);
+      JsonCodec.jsonCollection(coll).insertOne(doc, options);
+      return JsonCodec.idOf(doc);
     };
   }
 
@@ -216,9 +351,9 @@ public interface Monjeri {
 
   default Function<MongoCollection<Document>, List<Object>> insertMany(List<JObject> documents, InsertManyOptions options) {
     return coll -> {
-      java.util.List<Document> mutable = documents.map(JObject::toDocument).toJava();
-      coll.insertMany(mutable, options);
-      return List.fromList(mutable, doc -> doc.get("_id"));
+      java.util.List<JObject> docs = documents.map(JsonCodec::withId).toJava();
+      JsonCodec.jsonCollection(coll).insertMany(docs, options);
+      return List.fromList(docs, JsonCodec::idOf);
     };
   }
 
@@ -226,8 +361,20 @@ public interface Monjeri {
     return insertMany(documents, new InsertManyOptions());
   }
 
+  /**
+   * Insert {@code documents} in batches while the stream is read, see
+   * {@link InsertSink}.
+   */
+  default Function<MongoCollection<Document>, InsertSink.Result> insertAll(Stream<JObject> documents, InsertSink sink) {
+    return coll -> sink.insert(coll, documents);
+  }
+
+  default Function<MongoCollection<Document>, InsertSink.Result> insertAll(Stream<JObject> documents) {
+    return insertAll(documents, InsertSink.create());
+  }
+
   default Function<MongoCollection<Document>, DeleteResult> deleteMany(JObject query, DeleteOptions options) {
-    return coll -> coll.deleteMany(query.toDocument(), options);
+    return coll -> coll.deleteMany(query, options);
   }
 
   default Function<MongoCollection<Document>, DeleteResult> deleteMany(JObject query) {
@@ -235,57 +382,64 @@ public interface Monjeri {
   }
 
   default Function<MongoCollection<Document>, DeleteResult> deleteOne(JObject query, DeleteOptions options) {
-    return coll -> coll.deleteOne(query.toDocument(), options);
+    return coll -> coll.deleteOne(query, options);
   }
 
   default Function<MongoCollection<Document>, DeleteResult> deleteOne(JObject query) {
-    return coll -> coll.deleteOne(query.toDocument(), new DeleteOptions());
+    return coll -> coll.deleteOne(query, new DeleteOptions());
   }
 
   default Function<MongoCollection<Document>, UpdateResult> replaceOne(JObject query, JObject doc, UpdateOptions options) {
-    return coll -> coll.replaceOne(query.toDocument(), doc.toDocument(), options);
+    return coll -> JsonCodec.jsonCollection(coll).replaceOne(query, doc, options);
   }
 
   default Function<MongoCollection<Document>, UpdateResult> replaceOne(JObject query, JObject doc) {
-    return coll -> coll.replaceOne(query.toDocument(), doc.toDocument(), new UpdateOptions());
+    return coll -> JsonCodec.jsonCollection(coll).replaceOne(query, doc, new UpdateOptions());
   }
 
+  /**
+   * Run {@code ops} in as few {@code bulkWrite} calls as {@code bulk}
+   * allows. Failed operations are reported in the result, see
+   * {@link BulkWrite}.
+   */
+  default Function<MongoCollection<Document>, BulkWrite.Result> bulkWrite(Stream<BulkWrite.Op> ops, BulkWrite bulk) {
+    return coll -> bulk.run(coll, ops);
+  }
+
+  default Function<MongoCollection<Document>, BulkWrite.Result> bulkWrite(List<BulkWrite.Op> ops, BulkWrite bulk) {
+    return coll -> bulk.run(coll, ops.toJava().stream());
+  }
+
+  default Function<MongoCollection<Document>, BulkWrite.Result> bulkWrite(List<BulkWrite.Op> ops) {
+    return bulkWrite(ops, BulkWrite.ordered());
+  }
+
+  /**
+   * Retry the task as {@code policy} says, see {@link RetryPolicy}.
+   */
+  default <A, B> Function<MonTask<A, B>, MonTask<A, B>> retry(RetryPolicy policy) {
+    return intask -> (a, client) -> policy.run(() -> intask.run(a, client));
+  }
+
+  /**
+   * Retry the task on failures of type {@code when}, at most {@code max}
+   * runs in total, with the backoff and budget of
+   * {@link RetryPolicy#DEFAULT}.
+   */
   default <A, B> Function<MonTask<A, B>, MonTask<A, B>> retry(int max, Class<? extends RuntimeException> when) {
-    if (max <= 0) {
-      throw new IllegalArgumentException("max must be greater than 0");
-    }
-    return intask -> (a, client) -> {
-      RuntimeException first = null;
-      for (int i=0; i<max; i++) {
-        try {
-          return intask.run(a, client);
-        } catch (RuntimeException e) {
-          if (when.isInstance(e)) {
-            if (first == null) {
-              first = e;
-            }
-          } else {
-            throw e;
-          }
-        }
-      }
-      if (first != null) {
-        throw first;
-      } else {
-        throw new AssertionError("unreachable code");
-      }
-    };
+    return retry(RetryPolicy.DEFAULT.maxAttempts(max).retryOn(when));
   }
 
   default <A, B> Function<MonTask<A, B>, MonTask<A, B>> retry(int max) {
     return retry(max, MongoException.class);
   }
 
+  default <A> Function<MonTask1<A>, MonTask1<A>> retry1(RetryPolicy policy) {
+    return intask -> client -> policy.run(() -> intask.run(client));
+  }
+
   default <A> Function<MonTask1<A>, MonTask1<A>> retry1(int max, Class<? extends RuntimeException> when) {
-    return intask -> client -> {
-      MonTask<MongoClient, A> task = (c1, c2) -> intask.run(c1);
-      return this.<MongoClient, A>retry(max, when).apply(task).run(client, client);
-    };
+    return retry1(RetryPolicy.DEFAULT.maxAttempts(max).retryOn(when));
   }
 
   default <A> Function<MonTask1<A>, MonTask1<A>> retry1(int max) {
@@ -293,6 +447,30 @@ public interface Monjeri {
   }
 
 
+  /**
+   * Run the task only while {@code breaker} is closed, and record its
+   * outcome in {@code breaker}, see {@link CircuitBreaker}.
+   */
+  default <A, B> Function<MonTask<A, B>, MonTask<A, B>> circuitBreaker(CircuitBreaker breaker) {
+    return intask -> (a, client) -> breaker.run(() -> intask.run(a, client));
+  }
+
+  default <A> Function<MonTask1<A>, MonTask1<A>> circuitBreaker1(CircuitBreaker breaker) {
+    return intask -> client -> breaker.run(() -> intask.run(client));
+  }
+
+  /**
+   * Run the task only when {@code bulkhead} has a free slot, see
+   * {@link Bulkhead}.
+   */
+  default <A, B> Function<MonTask<A, B>, MonTask<A, B>> bulkhead(Bulkhead bulkhead) {
+    return intask -> (a, client) -> bulkhead.run(() -> intask.run(a, client));
+  }
+
+  default <A> Function<MonTask1<A>, MonTask1<A>> bulkhead1(Bulkhead bulkhead) {
+    return intask -> client -> bulkhead.run(() -> intask.run(client));
+  }
+
   default <A> Function<Json.JDBRef, A> resolve1(MongoDatabase db, Decode<A> decode) {
     throw new UnsupportedOperationException();
   }
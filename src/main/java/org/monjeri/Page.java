@@ -0,0 +1,233 @@
+package org.monjeri;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+import org.monjeri.Json.JObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>One page of a keyset pagination, see
+ * {@link Monjeri#page(JObject, JObject, int, Optional)}.</p>
+ *
+ * <p>Instead of skipping the documents of previous pages, the query for the
+ * next page starts after the sort key values of the last document of this
+ * one. This only needs an index on the sort keys, regardless of how deep the
+ * page is. {@code _id} is added as last sort key, so that the order is
+ * total.</p>
+ *
+ * <p>The token for the next page is an url-safe string. It contains the sort
+ * key values of the last document and the sort keys themselves, and can be
+ * used only with the same sort.</p>
+ */
+public final class Page<A> {
+
+  private final List<A> items;
+  private final Optional<String> next;
+
+  private Page(List<A> items, Optional<String> next) {
+    this.items = items;
+    this.next = next;
+  }
+
+  public List<A> getItems() {
+    return items;
+  }
+
+  /**
+   * Return the token of the next page, or empty if this is the last page.
+   */
+  public Optional<String> getNext() {
+    return next;
+  }
+
+  public <B> Page<B> map(Function<? super A, ? extends B> f) {
+    return new Page<>(items.map(f::apply), next);
+  }
+
+  @Override
+  public String toString() {
+    return "Page{" + items + ", next=" + next.orElse("-") + "}";
+  }
+
+  /**
+   * Read the page starting after {@code token}, or the first page.
+   */
+  static Page<Document> read(MongoCollection<Document> coll, JObject filter, JObject sort, int pageSize,
+                             Optional<String> token) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("page size must be positive: " + pageSize);
+    }
+    Keys keys = Keys.of(sort);
+    Bson query = query(filter, keys, token);
+    java.util.List<Document> docs = new ArrayList<>(pageSize);
+    // read one more, to know whether there is a next page
+    FindIterable<Document> find = coll.find(query).sort(keys.sort).limit(pageSize + 1);
+    Deadline.current().ifPresent(d -> d.applyTo(find));
+    find.into(docs);
+    boolean more = docs.size() > pageSize;
+    if (more) {
+      docs.remove(pageSize);
+    }
+    Optional<String> next = more
+        ? Optional.of(encodeToken(keys, keys.valuesOf(docs.get(docs.size() - 1))))
+        : Optional.empty();
+    return new Page<>(List.fromList(docs), next);
+  }
+
+  /**
+   * Return the query for the page of {@code filter} starting after
+   * {@code token}.
+   */
+  static Bson query(JObject filter, Keys keys, Optional<String> token) {
+    // a JObject inside a Document would be encoded as an array
+    BsonDocument query = JsonCodec.toBsonDocument(filter);
+    return token
+        .map(t -> (Bson) new Document("$and", Arrays.asList(query, keys.after(decodeToken(t, keys)))))
+        .orElse(query);
+  }
+
+  /**
+   * Return the pages starting after {@code token}. Each page is read when
+   * the stream gets to it.
+   */
+  static Stream<Page<Document>> pages(MongoCollection<Document> coll, JObject filter, JObject sort, int pageSize,
+                                      Optional<String> token) {
+    Iterator<Page<Document>> iterator = new Iterator<Page<Document>>() {
+      private Optional<String> next = token;
+      private boolean done = false;
+
+      @Override
+      public boolean hasNext() {
+        return !done;
+      }
+
+      @Override
+      public Page<Document> next() {
+        if (done) {
+          throw new java.util.NoSuchElementException();
+        }
+        Page<Document> page = read(coll, filter, sort, pageSize, next);
+        next = page.getNext();
+        done = !next.isPresent();
+        return page;
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  static String encodeToken(Keys keys, java.util.List<Object> values) {
+    Document token = new Document("k", keys.names).append("v", values);
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    new DocumentCodec().encode(new BsonBinaryWriter(buffer), token, EncoderContext.builder().build());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+  }
+
+  @SuppressWarnings("unchecked")
+  static java.util.List<Object> decodeToken(String token, Keys keys) {
+    Document doc;
+    try {
+      ByteBuffer bytes = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+      doc = new DocumentCodec().decode(new BsonBinaryReader(bytes), DecoderContext.builder().build());
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid page token: " + token, e);
+    }
+    if (!keys.names.equals(doc.get("k"))) {
+      throw new IllegalArgumentException("Page token is for a different sort: " + doc.get("k"));
+    }
+    return (java.util.List<Object>) doc.get("v");
+  }
+
+  /**
+   * The sort keys, with {@code _id} as last one.
+   */
+  static final class Keys {
+    final java.util.List<String> names;
+    final java.util.List<Path> paths;
+    final java.util.List<Boolean> ascending;
+    final Document sort;
+
+    private Keys(java.util.List<String> names, java.util.List<Boolean> ascending) {
+      this.names = names;
+      this.ascending = ascending;
+      this.paths = new ArrayList<>();
+      this.sort = new Document();
+      for (int i = 0; i < names.size(); i++) {
+        paths.add(Path.parse(names.get(i)));
+        sort.append(names.get(i), ascending.get(i) ? 1 : -1);
+      }
+    }
+
+    static Keys of(JObject sort) {
+      java.util.List<String> names = new ArrayList<>();
+      java.util.List<Boolean> ascending = new ArrayList<>();
+      for (JObject.Entry e : sort) {
+        int direction = e.value.asNumber()
+            .map(n -> n.signum())
+            .filter(n -> n != 0)
+            .orElseThrow(() -> new IllegalArgumentException("Sort direction must be 1 or -1: " + e.name));
+        names.add(e.name);
+        ascending.add(direction > 0);
+      }
+      if (!names.contains("_id")) {
+        names.add("_id");
+        ascending.add(ascending.isEmpty() || ascending.get(ascending.size() - 1));
+      }
+      return new Keys(names, ascending);
+    }
+
+    java.util.List<Object> valuesOf(Document doc) {
+      java.util.List<Object> values = new ArrayList<>();
+      for (Path path : paths) {
+        Object value = doc;
+        for (Path p = path; !p.isEmpty() && value instanceof Document; p = p.dropFirst()) {
+          value = ((Document) value).get(p.first());
+        }
+        values.add(Objects.requireNonNull(value, () -> "Sort key '" + path.render() + "' is missing in result"));
+      }
+      return values;
+    }
+
+    /**
+     * Return the filter for documents after {@code values} in sort order:
+     * the first key is after, or the first is equal and the second is
+     * after, and so on.
+     */
+    Document after(java.util.List<Object> values) {
+      if (values.size() != names.size()) {
+        throw new IllegalArgumentException("Page token does not match the sort keys");
+      }
+      java.util.List<Document> or = new ArrayList<>();
+      for (int i = 0; i < names.size(); i++) {
+        Document clause = new Document();
+        for (int j = 0; j < i; j++) {
+          clause.append(names.get(j), values.get(j));
+        }
+        clause.append(names.get(i), new Document(ascending.get(i) ? "$gt" : "$lt", values.get(i)));
+        or.add(clause);
+      }
+      return new Document("$or", or);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.monjeri;
+
+import com.mongodb.MongoClient;
+import org.monjeri.metrics.CurrentTask;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Runs independent tasks concurrently, see
+ * {@link MonTask1#parSeq(List, Executor)}.</p>
+ *
+ * <p>Up to {@code parallelism} workers take the next task that hasn't been
+ * started yet; one of them is the calling thread. So the tasks make
+ * progress even if the executor is busy, and nested parallel tasks on the
+ * same executor can't deadlock. After the first failure, no more tasks
+ * are started; the calling thread waits for the running ones and then
+ * throws the failure.</p>
+ */
+final class Parallel {
+
+  private Parallel() {
+  }
+
+  /**
+   * Run {@code tasks} and return their results in the order of the
+   * tasks.
+   */
+  static Object[] run(java.util.List<? extends MonTask1<?>> tasks, int parallelism, Executor executor,
+                      MongoClient client) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+    }
+    int n = tasks.size();
+    Object[] results = new Object[n];
+    AtomicInteger next = new AtomicInteger(0);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    CountDownLatch finished = new CountDownLatch(n);
+    Optional<Deadline> deadline = Deadline.current();
+    String task = CurrentTask.get().orElse(null);
+    Runnable worker = () -> {
+      for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+        try {
+          if (failure.get() == null) {
+            MonTask1<?> t = tasks.get(i);
+            String outer = CurrentTask.enter(task);
+            try {
+              results[i] = Deadline.run(deadline, () -> t.run(client));
+            } finally {
+              CurrentTask.exit(outer);
+            }
+          }
+        } catch (RuntimeException | Error e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          finished.countDown();
+        }
+      }
+    };
+    for (int w = 1; w < Math.min(parallelism, n); w++) {
+      try {
+        executor.execute(worker);
+      } catch (RejectedExecutionException e) {
+        // the other workers take over
+        break;
+      }
+    }
+    worker.run();
+    try {
+      finished.await();
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for tasks", e);
+    }
+    Throwable e = failure.get();
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return results;
+  }
+}
@@ -0,0 +1,464 @@
+package org.monjeri;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Scans a collection with several concurrent queries, each reading one
+ * range of {@code _id}s. The ranges are computed from a {@code $sample} of
+ * the collection's ids.</p>
+ *
+ * <pre>
+ *   ParallelScan scan = ParallelScan.split(coll, Json.obj(), 8);
+ *   scan.run(executor, decodePerson(), person -&gt; index(person));
+ *   if (!scan.isDone()) {
+ *     // runs only the partitions that failed, from where they stopped
+ *     scan.run(executor, decodePerson(), person -&gt; index(person));
+ *   }
+ * </pre>
+ *
+ * <p>Each partition is read in {@code _id} order and remembers the last id
+ * it has delivered. A partition that fails with a {@link MongoException} is
+ * retried from there up to {@link #retries(int)} times; after that it stays
+ * failed until the next call of {@code run} or {@code stream}. Failures of
+ * the decoder or the sink are not retried.</p>
+ *
+ * <p>Range queries on {@code _id} only match values of the same BSON type,
+ * so all {@code _id}s of the collection must have the same type.</p>
+ */
+public final class ParallelScan {
+
+  // number of sampled ids per partition
+  private static final int OVERSAMPLING = 20;
+  // how long a producer waits for space in the queue before it checks
+  // whether the consumer is gone
+  private static final long OFFER_TIMEOUT_MS = 100;
+
+  private static final Object END = new Object();
+
+  private final MongoCollection<Document> collection;
+  private final BsonDocument filter;
+  private final java.util.List<Partition> partitions;
+  private int retries = 2;
+  private int batchSize = 0;
+
+  private ParallelScan(MongoCollection<Document> collection, BsonDocument filter,
+                       java.util.List<Partition> partitions) {
+    this.collection = collection;
+    this.filter = filter;
+    this.partitions = partitions;
+  }
+
+  /**
+   * Split the documents of {@code collection} matching {@code filter} into
+   * up to {@code partitions} ranges of about equal size.
+   */
+  public static ParallelScan split(MongoCollection<Document> collection, Json.JObject filter, int partitions) {
+    if (partitions <= 0) {
+      throw new IllegalArgumentException("partitions must be positive: " + partitions);
+    }
+    BsonDocument query = JsonCodec.toBsonDocument(filter);
+    java.util.List<Object> sample = new ArrayList<>();
+    if (partitions > 1) {
+      for (Document doc : collection.aggregate(samplePipeline(query, partitions * OVERSAMPLING))) {
+        sample.add(doc.get("_id"));
+      }
+    }
+    return new ParallelScan(collection, query, ranges(splitPoints(sample, partitions)));
+  }
+
+  /**
+   * Return the pipeline that samples {@code size} ids of the documents
+   * matching {@code filter}, in order.
+   */
+  static java.util.List<Bson> samplePipeline(BsonDocument filter, int size) {
+    return Arrays.asList(
+        new Document("$match", filter),
+        new Document("$sample", new Document("size", size)),
+        new Document("$project", new Document("_id", 1)),
+        new Document("$sort", new Document("_id", 1)));
+  }
+
+  /**
+   * Pick up to {@code partitions - 1} distinct split points from the sorted
+   * {@code sample}.
+   */
+  static java.util.List<Object> splitPoints(java.util.List<Object> sample, int partitions) {
+    java.util.List<Object> points = new ArrayList<>();
+    for (int i = 1; i < partitions && !sample.isEmpty(); i++) {
+      Object point = sample.get(i * sample.size() / partitions);
+      if (points.isEmpty() || !points.get(points.size() - 1).equals(point)) {
+        points.add(point);
+      }
+    }
+    return points;
+  }
+
+  static java.util.List<Partition> ranges(java.util.List<Object> points) {
+    java.util.List<Partition> result = new ArrayList<>();
+    for (int i = 0; i <= points.size(); i++) {
+      result.add(new Partition(i,
+          i == 0 ? null : points.get(i - 1),
+          i == points.size() ? null : points.get(i)));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Set how often a failed partition is retried within one run.
+   */
+  public ParallelScan retries(int retries) {
+    this.retries = Math.max(0, retries);
+    return this;
+  }
+
+  public ParallelScan batchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  public java.util.List<Partition> partitions() {
+    return partitions;
+  }
+
+  /**
+   * Return whether all partitions have been read completely.
+   */
+  public boolean isDone() {
+    return partitions.stream().allMatch(Partition::isDone);
+  }
+
+  /**
+   * Read all unfinished partitions concurrently on {@code executor} and pass
+   * each decoded document to {@code sink}. The sink is called from several
+   * threads. Blocks until all partitions are done or have failed; returns
+   * the partitions that failed.
+   */
+  public <A> java.util.List<Partition> run(Executor executor, Decode<A> decode, Consumer<? super A> sink)
+      throws InterruptedException {
+    java.util.List<Partition> pending = pending();
+    CountDownLatch latch = new CountDownLatch(pending.size());
+    for (Partition p : pending) {
+      executor.execute(() -> {
+        try {
+          read(p, decode, sink, () -> false);
+        } finally {
+          latch.countDown();
+        }
+      });
+    }
+    latch.await();
+    return failed();
+  }
+
+  /**
+   * Read all unfinished partitions concurrently on {@code executor} and
+   * merge their results into one stream. Results of different partitions
+   * are interleaved. If a partition fails, the stream throws a
+   * {@link ScanException} after the other partitions are done. Closing the
+   * stream stops all partitions. A stream that is dropped without being
+   * closed, like after {@code findFirst}, stops them when it is garbage
+   * collected. Stopped partitions are continued by the next {@code run} or
+   * {@code stream}.
+   */
+  public <A> Stream<A> stream(Executor executor, Decode<A> decode) {
+    java.util.List<Producer<A>> producers = new ArrayList<>();
+    for (Partition p : pending()) {
+      producers.add((sink, stopped) -> read(p, decode, sink, stopped));
+    }
+    return merge(executor, producers, Math.max(1024, 2 * batchSize), () -> {
+      java.util.List<Partition> failed = failed();
+      if (!failed.isEmpty()) {
+        throw new ScanException(failed);
+      }
+    });
+  }
+
+  /**
+   * Run {@code producers} concurrently on {@code executor} and merge their
+   * results into one stream, keeping up to {@code capacity} results ready.
+   * {@code atEnd} runs when all results are read and may throw. The
+   * producers stop when the stream is closed, read to the end, or garbage
+   * collected.
+   */
+  static <A> Stream<A> merge(Executor executor, java.util.List<? extends Producer<? extends A>> producers,
+                             int capacity, Runnable atEnd) {
+    Merge merge = new Merge(new ArrayBlockingQueue<>(capacity), producers.size());
+    MergeIterator<A> iterator = new MergeIterator<>(merge, atEnd);
+    WeakReference<MergeIterator<A>> consumer = new WeakReference<>(iterator);
+    BooleanSupplier stopped = () -> merge.closed || consumer.get() == null;
+    if (producers.isEmpty()) {
+      merge.queue.add(END);
+    }
+    for (Producer<? extends A> p : producers) {
+      executor.execute(() -> {
+        try {
+          p.produce(a -> put(merge, a, stopped), stopped);
+        } finally {
+          if (merge.running.decrementAndGet() == 0) {
+            put(merge, END, stopped);
+          }
+        }
+      });
+    }
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+        .onClose(merge::close);
+  }
+
+  /**
+   * Put {@code item} into the queue, waiting for space as long as the
+   * consumer is there. Stops the merge if it is gone.
+   */
+  private static void put(Merge merge, Object item, BooleanSupplier stopped) {
+    try {
+      while (!merge.queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        if (stopped.getAsBoolean()) {
+          merge.close();
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      merge.close();
+    }
+  }
+
+  private java.util.List<Partition> pending() {
+    java.util.List<Partition> pending = new ArrayList<>();
+    for (Partition p : partitions) {
+      if (!p.isDone()) {
+        p.failure = null;
+        pending.add(p);
+      }
+    }
+    return pending;
+  }
+
+  private java.util.List<Partition> failed() {
+    java.util.List<Partition> failed = new ArrayList<>();
+    for (Partition p : partitions) {
+      if (p.getFailure().isPresent()) {
+        failed.add(p);
+      }
+    }
+    return failed;
+  }
+
+  private <A> void read(Partition p, Decode<A> decode, Consumer<? super A> sink, BooleanSupplier closed) {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        com.mongodb.client.FindIterable<Document> find = collection.find(p.filter(filter))
+            .sort(new Document("_id", 1));
+        if (batchSize != 0) {
+          find.batchSize(batchSize);
+        }
+        try (MongoCursor<Document> cursor = find.iterator()) {
+          while (!closed.getAsBoolean() && cursor.hasNext()) {
+            Document doc = cursor.next();
+            sink.accept(decode.apply(doc));
+            p.lastId = doc.get("_id");
+            p.count++;
+          }
+        }
+        p.done = !closed.getAsBoolean();
+        return;
+      } catch (MongoException e) {
+        if (attempt >= retries || closed.getAsBoolean()) {
+          p.failure = e;
+          return;
+        }
+      } catch (RuntimeException e) {
+        // decode and sink failures would happen again on a retry
+        p.failure = e;
+        return;
+      }
+    }
+  }
+
+  /**
+   * One source of a merged stream, see {@link #merge}. Passes its results
+   * to {@code sink} until {@code stopped} is true.
+   */
+  @FunctionalInterface
+  interface Producer<A> {
+    void produce(Consumer<? super A> sink, BooleanSupplier stopped);
+  }
+
+  /**
+   * The state shared with the producers. It must not refer to the
+   * {@link MergeIterator}, so that an abandoned one can be collected.
+   */
+  private static final class Merge {
+    final BlockingQueue<Object> queue;
+    final AtomicInteger running;
+    volatile boolean closed = false;
+
+    Merge(BlockingQueue<Object> queue, int producers) {
+      this.queue = queue;
+      this.running = new AtomicInteger(producers);
+    }
+
+    void close() {
+      closed = true;
+      // make room, so that a waiting producer notices
+      queue.clear();
+    }
+  }
+
+  private static final class MergeIterator<A> implements Iterator<A> {
+    private final Merge merge;
+    private final Runnable atEnd;
+    private Object next = null;
+
+    MergeIterator(Merge merge, Runnable atEnd) {
+      this.merge = merge;
+      this.atEnd = atEnd;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        try {
+          next = merge.queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          merge.close();
+          throw new IllegalStateException("Interrupted while waiting for results", e);
+        }
+      }
+      if (next == END) {
+        merge.closed = true;
+        atEnd.run();
+        return false;
+      }
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public A next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Object result = next;
+      next = null;
+      return (A) result;
+    }
+  }
+
+  /**
+   * A range of {@code _id}s and the progress of reading it.
+   */
+  public static final class Partition {
+    private final int index;
+    private final Object lower;
+    private final Object upper;
+
+    private volatile Object lastId = null;
+    private volatile long count = 0;
+    private volatile boolean done = false;
+    private volatile RuntimeException failure = null;
+
+    private Partition(int index, Object lower, Object upper) {
+      this.index = index;
+      this.lower = lower;
+      this.upper = upper;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    /** The smallest {@code _id} of this partition, if bounded. */
+    public Optional<Object> getLower() {
+      return Optional.ofNullable(lower);
+    }
+
+    /** The {@code _id} after this partition, if bounded. */
+    public Optional<Object> getUpper() {
+      return Optional.ofNullable(upper);
+    }
+
+    /** The last {@code _id} that has been delivered. */
+    public Optional<Object> getLastId() {
+      return Optional.ofNullable(lastId);
+    }
+
+    /** The number of documents delivered so far. */
+    public long getCount() {
+      return count;
+    }
+
+    public boolean isDone() {
+      return done;
+    }
+
+    public Optional<RuntimeException> getFailure() {
+      return Optional.ofNullable(failure);
+    }
+
+    /**
+     * Return the query for the rest of this partition.
+     */
+    Bson filter(BsonDocument base) {
+      Document range = new Document();
+      Object last = lastId;
+      if (last != null) {
+        range.append("$gt", last);
+      } else if (lower != null) {
+        range.append("$gte", lower);
+      }
+      if (upper != null) {
+        range.append("$lt", upper);
+      }
+      Document ids = range.isEmpty() ? new Document() : new Document("_id", range);
+      return new Document("$and", Arrays.asList(base, ids));
+    }
+
+    @Override
+    public String toString() {
+      return "Partition{" + index + ", count=" + count + ", done=" + done
+          + (failure != null ? ", failure=" + failure : "") + "}";
+    }
+  }
+
+  /**
+   * Thrown by a stream of a {@link ParallelScan}, if some partitions failed.
+   */
+  public static final class ScanException extends MongoException {
+    private final java.util.List<Partition> failed;
+
+    ScanException(java.util.List<Partition> failed) {
+      super("Partitions failed: " + failed, failed.get(0).failure);
+      this.failed = failed;
+    }
+
+    public java.util.List<Partition> getFailed() {
+      return failed;
+    }
+  }
+}
@@ -54,6 +54,13 @@ public final class Path {
         return new Path(segments.reverse().cons(segment).reverse());
     }
 
+    /**
+     * Return the path of this followed by all segments of {@code other}.
+     */
+    public Path concat(Path other) {
+        return new Path(segments.append(other.segments));
+    }
+
     public String first() {
         requireNonEmpty();
         return segments.head();
@@ -0,0 +1,179 @@
+package org.monjeri;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>An iterator that reads from another iterator in a background thread.
+ * The background thread keeps up to {@code batches} batches of
+ * {@code batchSize} elements ready, and waits while the queue is full.</p>
+ *
+ * <p>The source is closed by the background thread, when it is exhausted,
+ * when {@link #close()} is called, or when this iterator is garbage
+ * collected without being closed.</p>
+ */
+final class Prefetch<A> implements Iterator<A>, AutoCloseable {
+
+  private static final AtomicInteger THREADS = new AtomicInteger(0);
+  private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+      0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "monjeri-prefetch-" + THREADS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+
+  // how long the fetcher waits for space in the queue before it checks
+  // whether the consumer is gone
+  private static final long OFFER_TIMEOUT_MS = 500;
+
+  private static final Object END = new Object();
+
+  private final State state;
+  private Iterator<?> current = emptyIterator();
+  private boolean done = false;
+
+  private Prefetch(State state) {
+    this.state = state;
+  }
+
+  static <A> Prefetch<A> start(Iterator<A> source, int batchSize, int batches) {
+    if (batchSize <= 0 || batches <= 0) {
+      throw new IllegalArgumentException("batch size and number of batches must be positive");
+    }
+    State state = new State(new ArrayBlockingQueue<>(batches));
+    Prefetch<A> prefetch = new Prefetch<>(state);
+    WeakReference<Prefetch<A>> consumer = new WeakReference<>(prefetch);
+    EXECUTOR.execute(() -> fetch(source, batchSize, state, consumer));
+    return prefetch;
+  }
+
+  private static void fetch(Iterator<?> source, int batchSize, State state, WeakReference<?> consumer) {
+    try {
+      while (!state.closed && source.hasNext()) {
+        java.util.List<Object> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && source.hasNext()) {
+          batch.add(source.next());
+        }
+        if (!offer(state, batch, consumer)) {
+          return;
+        }
+      }
+      offer(state, END, consumer);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException | Error e) {
+      try {
+        offer(state, new Failure(e), consumer);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    } finally {
+      closeSource(source);
+    }
+  }
+
+  /**
+   * Put {@code item} into the queue, waiting for space as long as the
+   * consumer is there. Returns false if the consumer is gone.
+   */
+  private static boolean offer(State state, Object item, WeakReference<?> consumer) throws InterruptedException {
+    while (!state.queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      if (state.closed || consumer.get() == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void closeSource(Iterator<?> source) {
+    if (source instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) source).close();
+      } catch (Exception ignored) {
+        // nothing left to do with the source
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!done && !current.hasNext()) {
+      Object next;
+      try {
+        next = state.queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new IllegalStateException("Interrupted while waiting for results", e);
+      }
+      if (next == END) {
+        done = true;
+      } else if (next instanceof Failure) {
+        done = true;
+        Throwable cause = ((Failure) next).cause;
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw (RuntimeException) cause;
+      } else {
+        current = ((java.util.List<?>) next).iterator();
+      }
+    }
+    return !done;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public A next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return (A) current.next();
+  }
+
+  /**
+   * Stop fetching. The source is closed by the background thread.
+   */
+  @Override
+  public void close() {
+    state.closed = true;
+    done = true;
+    current = emptyIterator();
+    // make room, so that a waiting fetcher notices
+    state.queue.clear();
+  }
+
+  private static Iterator<?> emptyIterator() {
+    return java.util.Collections.emptyIterator();
+  }
+
+  /**
+   * The state shared with the background thread. It must not refer to the
+   * {@link Prefetch}, so that an abandoned one can be collected.
+   */
+  private static final class State {
+    final BlockingQueue<Object> queue;
+    volatile boolean closed = false;
+
+    State(BlockingQueue<Object> queue) {
+      this.queue = queue;
+    }
+  }
+
+  private static final class Failure {
+    final Throwable cause;
+
+    Failure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+}
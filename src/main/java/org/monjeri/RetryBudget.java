@@ -0,0 +1,92 @@
+package org.monjeri;
+
+/**
+ * <p>A token bucket that limits how many retries are added to the load,
+ * shared by all tasks that use it, see {@link RetryPolicy#budget(RetryBudget)}.</p>
+ *
+ * <p>Each retry takes one token. Each successful run adds
+ * {@code ratio} tokens, and {@code minPerSecond} tokens are added per
+ * second, up to {@code maxTokens}. So in the long run retries are at most
+ * {@code ratio} times the successful runs plus {@code minPerSecond} per
+ * second, regardless of how many tasks fail at the same time.</p>
+ */
+public final class RetryBudget {
+
+  private static final RetryBudget SHARED = new RetryBudget(100, 0.1, 1);
+  private static final RetryBudget UNLIMITED = new RetryBudget(0, 0, 0);
+
+  private final double maxTokens;
+  private final double ratio;
+  private final double minPerSecond;
+
+  private double tokens;
+  private long refilled = System.nanoTime();
+
+  public RetryBudget(int maxTokens, double ratio, double minPerSecond) {
+    if (maxTokens < 0 || ratio < 0 || minPerSecond < 0) {
+      throw new IllegalArgumentException("retry budget settings must not be negative");
+    }
+    this.maxTokens = maxTokens;
+    this.ratio = ratio;
+    this.minPerSecond = minPerSecond;
+    this.tokens = maxTokens;
+  }
+
+  /**
+   * The budget of the process, used by {@link RetryPolicy#DEFAULT}: 100
+   * tokens, 0.1 tokens per success and 1 token per second.
+   */
+  public static RetryBudget shared() {
+    return SHARED;
+  }
+
+  /**
+   * Return a budget that never runs out.
+   */
+  public static RetryBudget unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Take a token for a retry. Returns false if there is none left.
+   */
+  public boolean tryAcquire() {
+    if (this == UNLIMITED) {
+      return true;
+    }
+    synchronized (this) {
+      refill();
+      if (tokens < 1) {
+        return false;
+      }
+      tokens -= 1;
+      return true;
+    }
+  }
+
+  public void onSuccess() {
+    if (this == UNLIMITED) {
+      return;
+    }
+    synchronized (this) {
+      tokens = Math.min(maxTokens, tokens + ratio);
+    }
+  }
+
+  public synchronized double getTokens() {
+    refill();
+    return tokens;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(maxTokens, tokens + (now - refilled) / 1e9 * minPerSecond);
+    refilled = now;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RetryBudget{tokens=%.1f/%.0f, ratio=%s, minPerSecond=%s}", getTokens(), maxTokens, ratio,
+        minPerSecond);
+  }
+}
@@ -0,0 +1,222 @@
+package org.monjeri;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoSocketOpenException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.MongoWriteException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * <p>When and how often to retry a failed task, see
+ * {@link Monjeri#retry(RetryPolicy)}.</p>
+ *
+ * <pre>
+ *   RetryPolicy reads = RetryPolicy.DEFAULT.idempotent().maxAttempts(5);
+ *   findUser.transform(retry1(reads));
+ * </pre>
+ *
+ * <p>Between attempts the policy waits with exponential backoff and full
+ * jitter: before retry {@code n} it sleeps a random time between 0 and
+ * {@code min(maxDelay, baseDelay * 2^n)}. It gives up when the attempts
+ * are used up, when the next attempt would start after
+ * {@link #maxElapsed(Duration)}, or when the {@link RetryBudget} has no
+ * tokens left. It then throws the first failure. A failure that is not
+ * retried is thrown as it is.</p>
+ *
+ * <p>By default only failures where the operation surely didn't run are
+ * retried, see {@link #isNotExecuted(RuntimeException)}. Operations that
+ * can safely run twice, like reads, {@code $set} updates and inserts with
+ * {@code _id}, can use {@link #idempotent()} to also retry failures that
+ * happened while the operation might have been running.</p>
+ *
+ * <p>Policies are immutable; each setter returns a new policy.</p>
+ */
+public final class RetryPolicy {
+
+  public static final RetryPolicy DEFAULT = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(5),
+      Duration.ofSeconds(30), RetryPolicy::isNotExecuted, RetryBudget.shared());
+
+  // not master, not master and slaveOk=false, not master or secondary
+  private static final int[] NOT_PRIMARY_CODES = {10107, 13435, 13436};
+  // host unreachable, host not found, network timeout, shutdown in progress,
+  // primary stepped down, socket exception, interrupted at shutdown,
+  // interrupted due to replication state change; NOT_PRIMARY_CODES are
+  // transient too, see isTransient
+  private static final int[] TRANSIENT_CODES = {6, 7, 89, 91, 189, 9001, 11600, 11602};
+
+  private final int maxAttempts;
+  private final Duration baseDelay;
+  private final Duration maxDelay;
+  private final Duration maxElapsed;
+  private final Predicate<? super RuntimeException> retryOn;
+  private final RetryBudget budget;
+
+  private RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, Duration maxElapsed,
+                      Predicate<? super RuntimeException> retryOn, RetryBudget budget) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.maxElapsed = maxElapsed;
+    this.retryOn = retryOn;
+    this.budget = budget;
+  }
+
+  /**
+   * Set how often the task is run at most, including the first run.
+   */
+  public RetryPolicy maxAttempts(int maxAttempts) {
+    if (maxAttempts <= 0) {
+      throw new IllegalArgumentException("max must be greater than 0");
+    }
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, maxElapsed, retryOn, budget);
+  }
+
+  public RetryPolicy backoff(Duration baseDelay, Duration maxDelay) {
+    if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0) {
+      throw new IllegalArgumentException("delays must satisfy 0 <= base <= max: " + baseDelay + ", " + maxDelay);
+    }
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, maxElapsed, retryOn, budget);
+  }
+
+  /**
+   * Set the time after the first attempt, after which no retry is started.
+   */
+  public RetryPolicy maxElapsed(Duration maxElapsed) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, maxElapsed, retryOn, budget);
+  }
+
+  public RetryPolicy retryOn(Predicate<? super RuntimeException> retryOn) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, maxElapsed, retryOn, budget);
+  }
+
+  public RetryPolicy retryOn(Class<? extends RuntimeException> retryOn) {
+    return retryOn(retryOn::isInstance);
+  }
+
+  /**
+   * Retry all transient failures, see {@link #isTransient(RuntimeException)}.
+   * Use this only for operations that can safely run twice.
+   */
+  public RetryPolicy idempotent() {
+    return retryOn(RetryPolicy::isTransient);
+  }
+
+  public RetryPolicy budget(RetryBudget budget) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, maxElapsed, retryOn, budget);
+  }
+
+  /**
+   * Return whether {@code e} means that the operation was rejected before
+   * it ran: no server could be selected or connected to, or the server is
+   * no longer primary.
+   */
+  public static boolean isNotExecuted(RuntimeException e) {
+    return e instanceof MongoTimeoutException
+        || e instanceof MongoSocketOpenException
+        || e instanceof MongoNotPrimaryException
+        || hasCode(e, NOT_PRIMARY_CODES);
+  }
+
+  /**
+   * Return whether {@code e} is a failure that may go away when the task is
+   * retried, like a network error or a primary election. The operation may
+   * or may not have been applied.
+   */
+  public static boolean isTransient(RuntimeException e) {
+    return isNotExecuted(e)
+        || e instanceof MongoSocketException
+        || e instanceof MongoNodeIsRecoveringException
+        || hasCode(e, TRANSIENT_CODES);
+  }
+
+  private static boolean hasCode(RuntimeException e, int[] codes) {
+    int code;
+    if (e instanceof MongoCommandException) {
+      code = ((MongoCommandException) e).getErrorCode();
+    } else if (e instanceof MongoWriteConcernException) {
+      code = ((MongoWriteConcernException) e).getWriteConcernError().getCode();
+    } else if (e instanceof MongoWriteException) {
+      code = ((MongoWriteException) e).getError().getCode();
+    } else if (e instanceof MongoException) {
+      code = ((MongoException) e).getCode();
+    } else {
+      return false;
+    }
+    for (int c : codes) {
+      if (c == code) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return a random delay before retry {@code retry}, starting at 0.
+   */
+  long delayNanos(int retry) {
+    long base = baseDelay.toNanos();
+    long max = maxDelay.toNanos();
+    long cap = retry < 63 && base <= max >> retry ? base << retry : max;
+    return cap == 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  /**
+   * Run {@code body} until it succeeds or this policy gives up.
+   */
+  <A> A run(Supplier<A> body) {
+    long start = System.nanoTime();
+    RuntimeException first = null;
+    for (int attempt = 0; ; attempt++) {
+      try {
+        A a = body.get();
+        budget.onSuccess();
+        return a;
+      } catch (RuntimeException e) {
+        if (!retryOn.test(e)) {
+          throw e;
+        }
+        if (first == null) {
+          first = e;
+        }
+        if (attempt + 1 >= maxAttempts) {
+          throw first;
+        }
+        long delay = delayNanos(attempt);
+        if (System.nanoTime() - start + delay > maxElapsed.toNanos() || pastDeadline(delay) || !budget.tryAcquire()) {
+          throw first;
+        }
+        sleep(delay, first);
+      }
+    }
+  }
+
+  private static boolean pastDeadline(long delay) {
+    return Deadline.current().map(d -> d.remainingNanos() <= delay).orElse(false);
+  }
+
+  private static void sleep(long nanos, RuntimeException failure) {
+    try {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IllegalStateException interrupted = new IllegalStateException("Interrupted while waiting to retry", e);
+      interrupted.addSuppressed(failure);
+      throw interrupted;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RetryPolicy{maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay + ", maxDelay=" + maxDelay
+        + ", maxElapsed=" + maxElapsed + ", budget=" + budget + "}";
+  }
+}
@@ -1,40 +1,288 @@
 package org.monjeri;
 
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.monjeri.Json.JObject;
+import org.monjeri.metrics.CurrentTask;
 
 import java.util.Iterator;
 import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.Supplier;
 
 public final class Sized<A> implements Iterable<A> {
 
+  /**
+   * How the size of a query result is determined.
+   */
+  public enum Count {
+    /**
+     * Run an exact count before the query. Streams of the result report
+     * this count as their size ({@link java.util.Spliterator#SIZED}). If
+     * documents are inserted or deleted between the count and the read, the
+     * number of results differs, and sized operations like
+     * {@code Stream.toArray()} fail with an {@link IllegalStateException}.
+     */
+    EXACT,
+    /**
+     * Run an exact count only when the size is asked for. Since the count
+     * may run well after the query, streams use it only as an estimate.
+     */
+    LAZY,
+    /**
+     * Use the collection's document count when the size is asked for. This
+     * is cheap, but only an upper bound if the query has a filter.
+     */
+    ESTIMATED
+  }
+
+  private static final int DEFAULT_BATCH_SIZE = 1024;
+
   private final FindIterable<A> iterable;
-  private final long size;
+  private final Supplier<Long> counter;
+  private final boolean exact;
+  // whether streams may report the size as their exact number of elements
+  private final boolean stable;
+  private Long size;
+  private int limit = 0;
+  private int batchSize = 0;
+  private int prefetch = 0;
+
+  // the query this was created from, if known; allows to re-run it
+  // with a different document class
+  private MongoCollection<?> collection = null;
+  private Bson filter = null;
+  private List<Consumer<FindIterable<A>>> setters = List.nil();
+  // the named task that ran the query; the commands of the cursor are
+  // attributed to it
+  private Optional<String> task = Optional.empty();
 
   public Sized(FindIterable<A> iterable, long size) {
     this.iterable = iterable;
+    this.counter = null;
+    this.exact = size >= 0;
+    this.stable = size >= 0;
     this.size = size;
   }
 
+  private Sized(FindIterable<A> iterable, Supplier<Long> counter, boolean exact) {
+    this.iterable = iterable;
+    this.counter = counter;
+    this.exact = exact;
+    this.stable = false;
+    this.size = null;
+  }
+
+  /**
+   * Create a {@code Sized} whose exact size is obtained from {@code counter}
+   * on first request.
+   */
+  public static <A> Sized<A> lazy(FindIterable<A> iterable, Supplier<Long> counter) {
+    return new Sized<>(iterable, counter, true);
+  }
+
+  /**
+   * Create a {@code Sized} whose size is obtained from {@code counter} on
+   * first request, but is not guaranteed to be exact.
+   */
+  public static <A> Sized<A> estimated(FindIterable<A> iterable, Supplier<Long> counter) {
+    return new Sized<>(iterable, counter, false);
+  }
+
+  /**
+   * Run {@code query} on {@code coll}, determining the size according to
+   * {@code count}.
+   */
+  static <A> Sized<A> query(MongoCollection<A> coll, JObject query, Count count) {
+    BsonDocument filter = JsonCodec.toBsonDocument(query);
+    // a lazy count may run after the task, but still within its deadline
+    // and attributed to it
+    Optional<Deadline> deadline = Deadline.current();
+    Optional<String> task = CurrentTask.get();
+    Supplier<CountOptions> options = () -> deadline.map(d -> d.applyTo(new CountOptions())).orElseGet(CountOptions::new);
+    Sized<A> sized;
+    switch (count) {
+      case EXACT:
+        long size = coll.count(filter, options.get());
+        sized = new Sized<>(coll.find(filter), size);
+        break;
+      case LAZY:
+        sized = lazy(coll.find(filter), () -> CurrentTask.run(task, () -> coll.count(filter, options.get())));
+        break;
+      case ESTIMATED:
+        sized = estimated(coll.find(filter),
+            () -> CurrentTask.run(task, () -> coll.count(new BsonDocument(), options.get())));
+        break;
+      default:
+        throw new AssertionError("Unreachable code");
+    }
+    sized.collection = coll;
+    sized.filter = filter;
+    sized.task = task;
+    deadline.ifPresent(d -> sized.set(d::applyTo));
+    return sized;
+  }
+
+  /**
+   * Re-create the query with {@code decode} as document decoder. All settings
+   * made via {@link #set(Consumer)} are applied to the new query. This is
+   * only possible if this has been created by {@link Monjeri#query(JObject)}.
+   */
+  @SuppressWarnings("unchecked")
+  <B> Optional<Sized<B>> decodeWith(BsonDecode<B> decode) {
+    if (collection == null) {
+      return Optional.empty();
+    }
+    FindIterable<B> find = decode.collection(collection).find(filter);
+    Sized<B> next = stable ? new Sized<>(find, size) : new Sized<>(find, counter, exact);
+    next.size = size;
+    next.limit = limit;
+    next.batchSize = batchSize;
+    next.prefetch = prefetch;
+    next.task = task;
+    setters.reverse().foreach(setter -> ((Consumer) setter).accept(next.iterable));
+    return Optional.of(next);
+  }
+
+  /**
+   * Open a cursor on the query. If the query has been run by a named task,
+   * the cursor's commands are attributed to that task, even when it is read
+   * after the task has returned.
+   */
   @Override
   public Iterator<A> iterator() {
-    return iterable.iterator();
+    if (!task.isPresent()) {
+      return iterable.iterator();
+    }
+    return new TaskCursor<>(task, CurrentTask.run(task, iterable::iterator));
   }
 
   /**
-   * Configure the {@link FindIterable} and return {@code this}.
+   * Configure the {@link FindIterable} and return {@code this}. The
+   * {@code setter} should only change settings of the query, as it may be
+   * applied again to a re-created query.
    */
   public Sized<A> set(Consumer<FindIterable<A>> setter) {
     setter.accept(iterable);
+    setters = setters.cons(setter);
+    return this;
+  }
+
+  /**
+   * Set a limit on the {@link FindIterable} and cap the size accordingly.
+   */
+  public Sized<A> limit(int n) {
+    this.limit = Math.abs(n);
+    return set(iter -> iter.limit(n));
+  }
+
+  /**
+   * Set the batch size of the cursor. This is also the number of elements a
+   * parallel stream processes in one task, see
+   * {@link Util#makeStream(Sized, Iterable)}.
+   */
+  public Sized<A> batchSize(int n) {
+    this.batchSize = Math.abs(n);
+    return set(iter -> iter.batchSize(n));
+  }
+
+  /**
+   * Return the batch size set by {@link #batchSize(int)}, or 1024 if it
+   * is not set or 0.
+   */
+  public int getBatchSize() {
+    return batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Read results in a background thread when streamed, keeping up to
+   * {@code batches} batches of {@link #getBatchSize()} results ready. The
+   * cursor is closed when the stream is closed. Pass 0 to turn it off.
+   */
+  public Sized<A> prefetch(int batches) {
+    if (batches < 0) {
+      throw new IllegalArgumentException("number of batches must not be negative: " + batches);
+    }
+    this.prefetch = batches;
     return this;
   }
 
+  public int getPrefetch() {
+    return prefetch;
+  }
+
   public FindIterable<A> getDelegate() {
     return iterable;
   }
 
+  /**
+   * Return the number of elements. Depending on how this was created, this
+   * may run a count command on first access.
+   */
   public Optional<Long> size() {
-    return Optional.of(size).filter(n -> n >= 0);
+    if (size == null) {
+      size = counter.get();
+    }
+    return Optional.of(size)
+        .filter(n -> n >= 0)
+        .map(n -> limit > 0 ? Math.min(n, limit) : n);
+  }
+
+  /**
+   * Return whether the size has been determined already, i.e. whether
+   * {@link #size()} returns without running a count.
+   */
+  public boolean isKnown() {
+    return size != null;
+  }
+
+  /**
+   * Return whether {@link #size()} is the exact number of elements.
+   */
+  public boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * Return whether the size was given or counted before the query, so that
+   * streams report it as their exact size, see {@link Count#EXACT}.
+   */
+  public boolean isStable() {
+    return stable;
+  }
+
+  /**
+   * A cursor that sends its getMores as the task that opened it.
+   */
+  private static final class TaskCursor<A> implements Iterator<A>, AutoCloseable {
+    private final Optional<String> task;
+    private final MongoCursor<A> cursor;
+
+    TaskCursor(Optional<String> task, MongoCursor<A> cursor) {
+      this.task = task;
+      this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return CurrentTask.run(task, cursor::hasNext);
+    }
+
+    @Override
+    public A next() {
+      return CurrentTask.run(task, cursor::next);
+    }
+
+    @Override
+    public void close() {
+      CurrentTask.run(task, () -> {
+        cursor.close();
+        return null;
+      });
+    }
   }
 }
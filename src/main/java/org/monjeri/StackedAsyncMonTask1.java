@@ -0,0 +1,43 @@
+package org.monjeri;
+
+import com.mongodb.async.client.MongoClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A stack friendly AsyncMonTask1.
+ *
+ * @see StackedMonTask class documenation, its the same here
+ */
+@SuppressWarnings("unchecked")
+final class StackedAsyncMonTask1<A> implements AsyncMonTask1<A> {
+
+  private final AsyncMonTask1<Object> start;
+  private final List<Function<Object, AsyncMonTask1<Object>>> mappings;
+  private volatile Function<Object, AsyncMonTask1<Object>>[] steps = null;
+
+  public StackedAsyncMonTask1(AsyncMonTask1<Object> start, List<Function<Object, AsyncMonTask1<Object>>> mappings) {
+    this.start = start;
+    this.mappings = mappings;
+  }
+
+  @Override
+  public CompletableFuture<A> run(MongoClient client) {
+    Function<Object, AsyncMonTask1<Object>>[] fs = steps;
+    if (fs == null) {
+      steps = fs = StackedMonTask.compile(mappings);
+    }
+    CompletableFuture<Object> a = Futures.run(start, client);
+    for (Function<Object, AsyncMonTask1<Object>> f : fs) {
+      a = a.thenCompose(x -> Futures.run(f.apply(x), client));
+    }
+    return (CompletableFuture<A>) a;
+  }
+
+  @Override
+  public <B> AsyncMonTask1<B> flatMap(Function<A, AsyncMonTask1<B>> f) {
+    Function<Object, AsyncMonTask1<Object>> ff = (Function) f;
+    return new StackedAsyncMonTask1<>(start, mappings.cons(ff));
+  }
+}
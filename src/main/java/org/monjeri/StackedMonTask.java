@@ -19,12 +19,18 @@ import java.util.function.Function;
  *
  * <p>Thus, this implementation collects all the transformations and applies
  * them all at once. This sacrifices type safety, though.</p>
+ *
+ * <p>{@code flatMap} only conses the transformation onto a list shared with
+ * this task, so composing is cheap. The first run copies the list once into
+ * an array in the order of application; following runs apply that array in
+ * a loop without allocating.</p>
  */
 @SuppressWarnings("unchecked")
 final class StackedMonTask<A, B> implements MonTask<A, B> {
 
   private final MonTask<Object, Object> start;
   private final List<Function<Object, MonTask<Object, Object>>> mappings;
+  private volatile Function<Object, MonTask<Object, Object>>[] steps = null;
 
   public StackedMonTask(MonTask<Object, Object> start, List<Function<Object, MonTask<Object, Object>>> mappings) {
     this.start = start;
@@ -33,8 +39,28 @@ final class StackedMonTask<A, B> implements MonTask<A, B> {
 
   @Override
   public Object run(Object a, MongoClient client) {
+    Function<Object, MonTask<Object, Object>>[] fs = steps;
+    if (fs == null) {
+      steps = fs = compile(mappings);
+    }
     Object b = start.run(a, client);
-    return mappings.foldRight(b, (f, r) -> f.apply(r).run(a, client));
+    for (Function<Object, MonTask<Object, Object>> f : fs) {
+      b = f.apply(b).run(a, client);
+    }
+    return b;
+  }
+
+  /**
+   * Return the functions of {@code mappings}, which is in reverse order, as
+   * an array in the order they are applied.
+   */
+  static <F> F[] compile(List<F> mappings) {
+    F[] result = (F[]) new Function[mappings.size()];
+    int i = result.length;
+    for (List<F> rest = mappings; rest.nonEmpty(); rest = rest.tail()) {
+      result[--i] = rest.head();
+    }
+    return result;
   }
 
   @Override
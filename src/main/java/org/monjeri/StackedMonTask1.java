@@ -14,6 +14,7 @@ final class StackedMonTask1<A> implements MonTask1<A> {
 
   private final MonTask1<Object> start;
   private final List<Function<Object, MonTask1<Object>>> mappings;
+  private volatile Function<Object, MonTask1<Object>>[] steps = null;
 
   public StackedMonTask1(MonTask1<Object> start, List<Function<Object, MonTask1<Object>>> mappings) {
     this.start = start;
@@ -22,8 +23,15 @@ final class StackedMonTask1<A> implements MonTask1<A> {
 
   @Override
   public A run(MongoClient client) {
+    Function<Object, MonTask1<Object>>[] fs = steps;
+    if (fs == null) {
+      steps = fs = StackedMonTask.compile(mappings);
+    }
     Object a = start.run(client);
-    return (A) mappings.foldRight(a, (f, r) -> f.apply(r).run(client));
+    for (Function<Object, MonTask1<Object>> f : fs) {
+      a = f.apply(a).run(client);
+    }
+    return (A) a;
   }
 
   @Override
@@ -5,6 +5,7 @@ import java.util.Optional;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
@@ -29,16 +30,52 @@ public final class Util {
     if (size.isPresent()) {
       return StreamSupport.stream(
           Spliterators.spliterator(iterable.iterator(), size.get(),
-              Spliterator.IMMUTABLE & Spliterator.NONNULL & Spliterator.SIZED),
+              Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.SIZED),
           false);
     } else {
       return StreamSupport.stream(
           Spliterators.spliteratorUnknownSize(iterable.iterator(),
-              Spliterator.IMMUTABLE & Spliterator.NONNULL),
+              Spliterator.IMMUTABLE | Spliterator.NONNULL),
           false);
     }
   }
 
+  /**
+   * Create a stream from {@code iterable} that takes its size from
+   * {@code sized}. The stream is only {@link Spliterator#SIZED} if the size
+   * was given or counted before the query, see {@link Sized#isStable()}.
+   * Otherwise a size that is already known is only an estimate, and a lazily
+   * counted {@link Sized} doesn't run a count unless {@link Sized#size()} is
+   * called before, because stream pipelines ask for the size on every
+   * terminal operation.
+   *
+   * The stream is sequential, but can be split: a parallel stream takes
+   * results from the cursor in batches of {@link Sized#getBatchSize()}
+   * elements and processes each batch in its own task.
+   *
+   * If {@link Sized#getPrefetch()} is set, results are read in a background
+   * thread, see {@link Sized#prefetch(int)}.
+   */
+  public static <A> Stream<A> makeStream(Sized<?> sized, Iterable<A> iterable) {
+    if (sized.getPrefetch() > 0) {
+      Prefetch<A> prefetch = Prefetch.start(iterable.iterator(), sized.getBatchSize(), sized.getPrefetch());
+      return StreamSupport.stream(new SizedSpliterator<>(sized, prefetch), false)
+          .onClose(prefetch::close);
+    }
+    return StreamSupport.stream(new SizedSpliterator<>(sized, iterable.iterator()), false);
+  }
+
+  /**
+   * Create a projection that includes the given paths. Paths that are
+   * contained in another one are dropped, since MongoDB rejects them.
+   */
+  public static Json.JObject projection(List<Path> paths) {
+    List<Path> distinct = paths.distinct(Eq.objectEq());
+    return distinct
+        .filter(p -> !distinct.exists(q -> !q.equals(p) && p.startsWith(q)))
+        .foldLeft(Json.obj(), (obj, p) -> obj.put(Json.JObject.ofPath(p, Json.num(1))));
+  }
+
   public static <A> Stream<A> concat(List<Stream<A>> streams) {
     return streams.foldLeft(Stream.empty(), Stream::concat);
   }
@@ -84,6 +121,65 @@ public final class Util {
   }
 
 
+  private static final class SizedSpliterator<A> implements Spliterator<A> {
+    private final Sized<?> sized;
+    private final Iterator<A> iterator;
+    private final int characteristics;
+    private long consumed = 0;
+
+    SizedSpliterator(Sized<?> sized, Iterator<A> iterator) {
+      this.sized = sized;
+      this.iterator = iterator;
+      this.characteristics = Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL
+          | (sized.isStable() ? Spliterator.SIZED : 0);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super A> action) {
+      if (iterator.hasNext()) {
+        consumed++;
+        action.accept(iterator.next());
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super A> action) {
+      while (iterator.hasNext()) {
+        consumed++;
+        action.accept(iterator.next());
+      }
+    }
+
+    @Override
+    public Spliterator<A> trySplit() {
+      if (!iterator.hasNext()) {
+        return null;
+      }
+      int n = sized.getBatchSize();
+      Object[] batch = new Object[n];
+      int i = 0;
+      do {
+        batch[i++] = iterator.next();
+      } while (i < n && iterator.hasNext());
+      consumed += i;
+      return Spliterators.spliterator(batch, 0, i, Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL);
+    }
+
+    @Override
+    public long estimateSize() {
+      return sized.isKnown()
+          ? sized.size().map(n -> Math.max(0, n - consumed)).orElse(Long.MAX_VALUE)
+          : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+      return characteristics;
+    }
+  }
+
   static void checkLockname(String lockname) {
     if (!lockname.matches("[a-zA-Z0-9_]+")) {
       throw new IllegalArgumentException("Lock names must be alphanumeric.");
@@ -0,0 +1,17 @@
+package org.monjeri.metrics;
+
+/**
+ * The JMX view of a {@link org.monjeri.Bulkhead}.
+ */
+public interface BulkheadMXBean {
+
+  String getName();
+
+  int getMaxConcurrent();
+
+  /** The number of runs executing now. */
+  int getActive();
+
+  /** The number of runs rejected because the bulkhead was full. */
+  long getRejected();
+}
@@ -0,0 +1,24 @@
+package org.monjeri.metrics;
+
+/**
+ * The JMX view of a {@link org.monjeri.CircuitBreaker}.
+ */
+public interface CircuitBreakerMXBean {
+
+  String getName();
+
+  /** CLOSED, OPEN or HALF_OPEN. */
+  String getStateName();
+
+  /** The share of failed runs in the current window, between 0 and 1. */
+  double getFailureRate();
+
+  /** The share of slow runs in the current window, between 0 and 1. */
+  double getSlowCallRate();
+
+  /** The number of runs rejected because the breaker was open. */
+  long getRejected();
+
+  /** How often the breaker has opened. */
+  long getOpened();
+}
@@ -0,0 +1,22 @@
+package org.monjeri.metrics;
+
+import java.util.Collection;
+
+/**
+ * <p>Sends command statistics to a monitoring system, see
+ * {@link CommandMetrics#exportEvery(java.time.Duration,
+ * java.util.concurrent.ScheduledExecutorService)}.</p>
+ *
+ * <p>Exporters can be passed explicitly, or provided through
+ * {@link java.util.ServiceLoader} by naming the implementation in
+ * {@code META-INF/services/org.monjeri.metrics.CommandExporter}.</p>
+ */
+public interface CommandExporter {
+
+  /**
+   * Export the statistics. They are cumulative since the
+   * {@link CommandMetrics} was created; exporters that report rates keep
+   * the previous values themselves.
+   */
+  void export(Collection<CommandStats> commands);
+}
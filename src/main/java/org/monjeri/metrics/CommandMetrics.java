@@ -0,0 +1,264 @@
+package org.monjeri.metrics;
+
+import com.mongodb.MongoClientOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.ByteBuf;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.OutputBuffer;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Collects statistics of the commands the driver sends, per named task,
+ * namespace and command.</p>
+ *
+ * <pre>
+ *   CommandMetrics commands = CommandMetrics.withJmx(Metrics.JMX_DOMAIN);
+ *   MongoClient client = new MongoClient(address,
+ *       commands.apply(MongoClientOptions.builder()).build());
+ * </pre>
+ *
+ * <p>A command belongs to the task that was {@code named} and running in
+ * the thread that sent it; commands outside of named tasks have the empty
+ * string as task. A {@link org.monjeri.Sized} query result keeps the task
+ * that ran the query, so its count and cursor commands are attributed to
+ * that task even when it is read after the task has returned; other lazy
+ * results are attributed to the thread's task at the time they are read.
+ * The {@code getMore}s on a cursor are counted for the command that opened
+ * it, in addition to being commands of their own.
+ * Reply sizes are measured by encoding the reply without copying it.</p>
+ *
+ * <p>Commands of the asynchronous driver are attributed to a task only if
+ * they are sent from the thread that runs it.</p>
+ */
+public final class CommandMetrics implements CommandListener {
+
+  private final ConcurrentMap<Key, CommandStats> commands = new ConcurrentHashMap<>();
+  private final CursorTracker<CommandStats> cursors = new CursorTracker<>();
+  private final String jmxDomain;
+
+  private CommandMetrics(String jmxDomain) {
+    this.jmxDomain = jmxDomain;
+  }
+
+  public static CommandMetrics create() {
+    return new CommandMetrics(null);
+  }
+
+  /**
+   * Return metrics that register each {@link CommandStats} with the
+   * platform MBean server as {@code <domain>:type=Command,name=<key>}.
+   */
+  public static CommandMetrics withJmx(String domain) {
+    return new CommandMetrics(domain);
+  }
+
+  /**
+   * Add this as command listener to {@code options}.
+   */
+  public MongoClientOptions.Builder apply(MongoClientOptions.Builder options) {
+    return options.addCommandListener(this);
+  }
+
+  public Collection<CommandStats> getAll() {
+    return Collections.unmodifiableCollection(commands.values());
+  }
+
+  /**
+   * Return the statistics of the commands sent by the task {@code name}.
+   */
+  public Collection<CommandStats> getTask(String name) {
+    Collection<CommandStats> result = new ArrayList<>();
+    for (CommandStats stats : commands.values()) {
+      if (stats.getTask().equals(name)) {
+        result.add(stats);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Pass the statistics to {@code exporter} every {@code period} on
+   * {@code scheduler}. A failing export doesn't stop the following ones.
+   */
+  public ScheduledFuture<?> exportEvery(Duration period, ScheduledExecutorService scheduler,
+                                        CommandExporter exporter) {
+    long nanos = period.toNanos();
+    return scheduler.scheduleAtFixedRate(() -> {
+      try {
+        exporter.export(getAll());
+      } catch (RuntimeException e) {
+        // the next export may succeed
+      }
+    }, nanos, nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Export to all {@link CommandExporter}s provided through
+   * {@link ServiceLoader}.
+   */
+  public ScheduledFuture<?> exportEvery(Duration period, ScheduledExecutorService scheduler) {
+    java.util.List<CommandExporter> exporters = new ArrayList<>();
+    ServiceLoader.load(CommandExporter.class).forEach(exporters::add);
+    return exportEvery(period, scheduler, all -> exporters.forEach(e -> e.export(all)));
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    String name = event.getCommandName();
+    String task = CurrentTask.get().orElse("");
+    Key key = new Key(task, namespace(event.getDatabaseName(), name, event.getCommand()), name);
+    cursors.started(event, commands.computeIfAbsent(key, this::newStats));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    CursorTracker.Command<CommandStats> c = cursors.succeeded(event);
+    if (c == null) {
+      return;
+    }
+    int bytes = sizeOf(event.getResponse());
+    c.stats.succeeded(event.getElapsedTime(TimeUnit.NANOSECONDS), bytes);
+    if (c.openedBy != null) {
+      c.openedBy.getMore(bytes);
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    CursorTracker.Command<CommandStats> c = cursors.failed(event);
+    if (c != null) {
+      c.stats.failed(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  private CommandStats newStats(Key key) {
+    CommandStats stats = new CommandStats(key.task, key.namespace, key.command);
+    if (jmxDomain != null) {
+      Metrics.registerMBean(jmxDomain, "Command", key.toString(), stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Return the namespace a command works on: the database, followed by the
+   * collection for commands that have one. Most commands name the
+   * collection as their value, getMore has it in {@code collection}.
+   */
+  static String namespace(String database, String name, BsonDocument command) {
+    BsonValue collection = command.get(name.equals("getMore") ? "collection" : name);
+    return collection != null && collection.isString() ? database + "." + collection.asString().getValue() : database;
+  }
+
+  static int sizeOf(BsonDocument document) {
+    if (document instanceof RawBsonDocument) {
+      return ((RawBsonDocument) document).getByteBuffer().remaining();
+    }
+    CountingOutput output = new CountingOutput();
+    new BsonDocumentCodec().encode(new BsonBinaryWriter(output), document, EncoderContext.builder().build());
+    return output.getSize();
+  }
+
+  private static final class Key {
+    final String task;
+    final String namespace;
+    final String command;
+
+    Key(String task, String namespace, String command) {
+      this.task = task;
+      this.namespace = namespace;
+      this.command = command;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return task.equals(other.task) && namespace.equals(other.namespace) && command.equals(other.command);
+    }
+
+    @Override
+    public int hashCode() {
+      return (task.hashCode() * 31 + namespace.hashCode()) * 31 + command.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return (task.isEmpty() ? "" : task + "/") + namespace + "." + command;
+    }
+  }
+
+  /**
+   * An output that only counts the bytes written to it.
+   */
+  private static final class CountingOutput extends OutputBuffer {
+    private int position = 0;
+    private int size = 0;
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) {
+      move(length);
+    }
+
+    @Override
+    public void writeByte(int value) {
+      move(1);
+    }
+
+    @Override
+    protected void write(int position, int value) {
+      // back-patched lengths don't change the size
+    }
+
+    private void move(int n) {
+      position += n;
+      size = Math.max(size, position);
+    }
+
+    @Override
+    public int getPosition() {
+      return position;
+    }
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public void truncateToPosition(int newPosition) {
+      position = newPosition;
+      size = newPosition;
+    }
+
+    @Override
+    public java.util.List<ByteBuf> getByteBuffers() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public int pipe(OutputStream out) {
+      return 0;
+    }
+  }
+}
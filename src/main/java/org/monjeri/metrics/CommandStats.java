@@ -0,0 +1,111 @@
+package org.monjeri.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The commands of one name on one namespace that were sent by one task:
+ * a latency histogram, the number of failures, the size of the replies
+ * and the number of {@code getMore}s on the cursors they opened.
+ */
+public final class CommandStats implements CommandStatsMXBean {
+
+  private final String task;
+  private final String namespace;
+  private final String command;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder getMores = new LongAdder();
+  private final LongAdder replyBytes = new LongAdder();
+
+  CommandStats(String task, String namespace, String command) {
+    this.task = task;
+    this.namespace = namespace;
+    this.command = command;
+  }
+
+  void succeeded(long nanos, int bytes) {
+    latency.record(nanos);
+    replyBytes.add(bytes);
+  }
+
+  void failed(long nanos) {
+    latency.record(nanos);
+    errors.increment();
+  }
+
+  void getMore(int bytes) {
+    getMores.increment();
+    replyBytes.add(bytes);
+  }
+
+  /**
+   * The name of the named task that sent the commands, or the empty string
+   * for commands outside of named tasks.
+   */
+  @Override
+  public String getTask() {
+    return task;
+  }
+
+  /** The database, and the collection if the command has one. */
+  @Override
+  public String getNamespace() {
+    return namespace;
+  }
+
+  @Override
+  public String getCommand() {
+    return command;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public long getGetMores() {
+    return getMores.sum();
+  }
+
+  /** The size of the replies, including those of the getMores. */
+  @Override
+  public long getReplyBytes() {
+    return replyBytes.sum();
+  }
+
+  @Override
+  public double getMeanMillis() {
+    return latency.snapshot().getMeanNanos() / 1e6;
+  }
+
+  @Override
+  public double getP50Millis() {
+    return latency.snapshot().getPercentileNanos(50) / 1e6;
+  }
+
+  @Override
+  public double getP99Millis() {
+    return latency.snapshot().getPercentileNanos(99) / 1e6;
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return latency.snapshot().getMaxNanos() / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return (task.isEmpty() ? "" : task + "/") + namespace + "." + command + "{" + latency.snapshot()
+        + ", errors=" + getErrors() + ", getMores=" + getGetMores() + ", replyBytes=" + getReplyBytes() + "}";
+  }
+}
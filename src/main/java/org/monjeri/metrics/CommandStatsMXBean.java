@@ -0,0 +1,29 @@
+package org.monjeri.metrics;
+
+/**
+ * The JMX view of a {@link CommandStats}. Durations are in milliseconds.
+ */
+public interface CommandStatsMXBean {
+
+  String getTask();
+
+  String getNamespace();
+
+  String getCommand();
+
+  long getCount();
+
+  long getErrors();
+
+  long getGetMores();
+
+  long getReplyBytes();
+
+  double getMeanMillis();
+
+  double getP50Millis();
+
+  double getP99Millis();
+
+  double getMaxMillis();
+}
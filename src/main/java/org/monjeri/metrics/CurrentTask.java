@@ -0,0 +1,55 @@
+package org.monjeri.metrics;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The name of the named task running in the current thread, see
+ * {@link org.monjeri.MonTask1#named(String)}. {@link CommandMetrics} uses
+ * it to attribute driver commands to tasks.
+ */
+public final class CurrentTask {
+
+  private static final ThreadLocal<String> NAME = new ThreadLocal<>();
+
+  private CurrentTask() {
+  }
+
+  public static Optional<String> get() {
+    return Optional.ofNullable(NAME.get());
+  }
+
+  /**
+   * Make {@code name} the current task and return the previous one, which
+   * must be passed to {@link #exit(String)} when the task is done.
+   */
+  public static String enter(String name) {
+    String previous = NAME.get();
+    NAME.set(name);
+    return previous;
+  }
+
+  public static void exit(String previous) {
+    if (previous == null) {
+      NAME.remove();
+    } else {
+      NAME.set(previous);
+    }
+  }
+
+  /**
+   * Run {@code f} with {@code name} as the current task, if present, for
+   * work a task leaves to be done later, like reading a cursor.
+   */
+  public static <A> A run(Optional<String> name, Supplier<A> f) {
+    if (!name.isPresent()) {
+      return f.get();
+    }
+    String previous = enter(name.get());
+    try {
+      return f.get();
+    } finally {
+      exit(previous);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.monjeri.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Matches the events of a command listener to the statistics
+ * {@code S} of their commands, and the getMores of a cursor to the
+ * statistics of the command that opened it. Shared by
+ * {@link CommandMetrics} and {@link QueryShapes}.</p>
+ *
+ * <p>A cursor is tracked from the reply that opens it until a getMore
+ * returns no cursor id, a getMore fails, or it is killed.</p>
+ */
+final class CursorTracker<S> {
+
+  // open cursors that are tracked; more are not
+  static final int MAX_CURSORS = 10_000;
+
+  private final ConcurrentMap<Integer, Command<S>> pending = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, S> cursors = new ConcurrentHashMap<>();
+
+  /**
+   * Track a started command with {@code stats}, which may be null for
+   * commands that have no statistics of their own.
+   */
+  void started(CommandStartedEvent event, S stats) {
+    String name = event.getCommandName();
+    BsonDocument command = event.getCommand();
+    long getMoreOf = 0;
+    S openedBy = null;
+    if (name.equals("getMore")) {
+      BsonValue id = command.get("getMore");
+      getMoreOf = id != null && id.isInt64() ? id.asInt64().getValue() : 0;
+      openedBy = getMoreOf != 0 ? cursors.get(getMoreOf) : null;
+    } else if (name.equals("killCursors")) {
+      BsonValue ids = command.get("cursors");
+      if (ids instanceof BsonArray) {
+        for (BsonValue id : (BsonArray) ids) {
+          if (id.isInt64()) {
+            cursors.remove(id.asInt64().getValue());
+          }
+        }
+      }
+    }
+    if (stats != null || openedBy != null) {
+      pending.put(event.getRequestId(), new Command<>(stats, openedBy, getMoreOf));
+    }
+  }
+
+  /**
+   * Return the tracked command that succeeded, or null.
+   */
+  Command<S> succeeded(CommandSucceededEvent event) {
+    Command<S> c = pending.remove(event.getRequestId());
+    if (c == null) {
+      return null;
+    }
+    long cursorId = cursorId(event.getResponse());
+    if (c.getMoreOf != 0) {
+      if (cursorId == 0) {
+        cursors.remove(c.getMoreOf);
+      }
+    } else if (cursorId != 0 && c.stats != null && cursors.size() < MAX_CURSORS) {
+      cursors.put(cursorId, c.stats);
+    }
+    return c;
+  }
+
+  /**
+   * Return the tracked command that failed, or null.
+   */
+  Command<S> failed(CommandFailedEvent event) {
+    Command<S> c = pending.remove(event.getRequestId());
+    if (c != null && c.getMoreOf != 0) {
+      // the cursor is most likely gone
+      cursors.remove(c.getMoreOf);
+    }
+    return c;
+  }
+
+  void clear() {
+    cursors.clear();
+  }
+
+  /**
+   * Return the id of the cursor of a find, aggregate or getMore reply, or 0
+   * if the reply has no open cursor.
+   */
+  static long cursorId(BsonDocument response) {
+    BsonValue cursor = response.get("cursor");
+    if (cursor == null || !cursor.isDocument()) {
+      return 0;
+    }
+    BsonValue id = cursor.asDocument().get("id");
+    return id != null && id.isInt64() ? id.asInt64().getValue() : 0;
+  }
+
+  /**
+   * A command that has been sent.
+   */
+  static final class Command<S> {
+    /** The statistics of the command itself, or null. */
+    final S stats;
+    /** For a getMore, the statistics of the command that opened the cursor, or null. */
+    final S openedBy;
+    final long getMoreOf;
+
+    Command(S stats, S openedBy, long getMoreOf) {
+      this.stats = stats;
+      this.openedBy = openedBy;
+      this.getMoreOf = getMoreOf;
+    }
+  }
+}
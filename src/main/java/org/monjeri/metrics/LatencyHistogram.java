@@ -0,0 +1,139 @@
+package org.monjeri.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of durations in nanoseconds.</p>
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split
+ * into {@value #SUB_BUCKETS} buckets of equal width, so a percentile is
+ * off by at most 1/{@value #SUB_BUCKETS} of its value. Recording is an
+ * atomic increment of one bucket, a {@link LongAdder} and a
+ * {@link LongAccumulator}.</p>
+ */
+public final class LatencyHistogram {
+
+  static final int SUB_BUCKETS = 16;
+  private static final int SUB_BITS = 4;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder total = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(value));
+    total.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public void record(Duration duration) {
+    record(duration.toNanos());
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Return the smallest value of {@code bucket}.
+   */
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+  }
+
+  /**
+   * Return the current counts. Concurrent records may or may not be
+   * included.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      n += copy[i];
+    }
+    return new Snapshot(copy, n, sum.sum(), max.get());
+  }
+
+  public long getCount() {
+    return total.sum();
+  }
+
+  /**
+   * The counts of a {@link LatencyHistogram} at one point in time.
+   */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMaxNanos() {
+      return max;
+    }
+
+    public double getMeanNanos() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Return the value below which {@code percentile} percent of the values
+     * lie, e.g. {@code getPercentileNanos(99)}, or 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+      }
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          // the middle of the bucket, but never more than the maximum
+          long lower = lowerBound(i);
+          long upper = i + 1 < counts.length ? lowerBound(i + 1) : Long.MAX_VALUE;
+          return Math.min(max, lower + (upper - lower) / 2);
+        }
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms", count,
+          getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(99) / 1e6, max / 1e6);
+    }
+  }
+}
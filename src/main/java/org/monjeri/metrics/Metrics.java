@@ -0,0 +1,61 @@
+package org.monjeri.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the registry used by tasks that are named without a registry, and
+ * registers MBeans.
+ */
+public final class Metrics {
+
+  public static final String JMX_DOMAIN = "org.monjeri";
+
+  private static volatile MetricsRegistry registry = load();
+
+  private Metrics() {
+  }
+
+  private static MetricsRegistry load() {
+    Iterator<MetricsRegistry> provided = ServiceLoader.load(MetricsRegistry.class).iterator();
+    return provided.hasNext() ? provided.next() : TaskMetricsRegistry.withJmx(JMX_DOMAIN);
+  }
+
+  public static MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Set the registry for tasks that are named from now on. Tasks that have
+   * been named before keep recording into the previous registry.
+   */
+  public static void setRegistry(MetricsRegistry registry) {
+    if (registry == null) {
+      throw new IllegalArgumentException("registry must not be null");
+    }
+    Metrics.registry = registry;
+  }
+
+  /**
+   * Register {@code bean} with the platform MBean server as
+   * {@code <domain>:type=<type>,name=<name>}, unless that name is taken.
+   * Returns whether it was registered.
+   */
+  public static boolean registerMBean(String domain, String type, String name, Object bean) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(domain + ":type=" + type + ",name=" + ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        return false;
+      }
+      server.registerMBean(bean, objectName);
+      return true;
+    } catch (JMException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package org.monjeri.metrics;
+
+/**
+ * <p>Where named tasks record their runs, see
+ * {@link org.monjeri.MonTask1#named(String)}.</p>
+ *
+ * <p>The default registry is a {@link TaskMetricsRegistry}. Another one
+ * can be set with {@link Metrics#setRegistry(MetricsRegistry)}, or
+ * provided through {@link java.util.ServiceLoader} by naming the
+ * implementation in
+ * {@code META-INF/services/org.monjeri.metrics.MetricsRegistry}.</p>
+ */
+public interface MetricsRegistry {
+
+  /**
+   * Return the recorder for the task {@code name}. This is called once
+   * when a task is named, not for every run.
+   */
+  TaskRecorder recorder(String name);
+}
@@ -0,0 +1,76 @@
+package org.monjeri.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of the commands of one shape, see {@link QueryShapes}.
+ */
+public final class QueryShape {
+
+  private final String shape;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong(0);
+  private final LongAdder docs = new LongAdder();
+
+  QueryShape(String shape) {
+    this.shape = shape;
+  }
+
+  void called(long nanos, int docs) {
+    calls.increment();
+    batch(nanos, docs);
+  }
+
+  /** A getMore on a cursor of this shape; it adds time but no call. */
+  void batch(long nanos, int docs) {
+    totalNanos.add(nanos);
+    this.docs.add(docs);
+    for (long max = maxNanos.get(); nanos > max && !maxNanos.compareAndSet(max, nanos); max = maxNanos.get()) {
+      // retry
+    }
+  }
+
+  /**
+   * The namespace, command and normalized arguments, like
+   * {@code db.person find {age: {$gte: ?int}} sort={name: 1}}.
+   */
+  public String getShape() {
+    return shape;
+  }
+
+  /** A 64 bit FNV-1a hash of the shape, as hex string. */
+  public String getFingerprint() {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < shape.length(); i++) {
+      hash = (hash ^ shape.charAt(i)) * 0x100000001b3L;
+    }
+    return String.format("%016x", hash);
+  }
+
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /** The time of all calls, including the getMores of their cursors. */
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /** The longest single command, a call or a getMore. */
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /** The number of documents returned, over all batches. */
+  public long getDocs() {
+    return docs.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s calls=%d total=%.1fms max=%.1fms docs=%d  %s", getFingerprint(), getCalls(),
+        getTotalNanos() / 1e6, getMaxNanos() / 1e6, getDocs(), shape);
+  }
+}
@@ -0,0 +1,377 @@
+package org.monjeri.metrics;
+
+import com.mongodb.MongoClientOptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>Collects statistics per query shape, to find the queries that need an
+ * index. A driver command listener, like {@link CommandMetrics}.</p>
+ *
+ * <pre>
+ *   QueryShapes shapes = QueryShapes.withJmx(Metrics.JMX_DOMAIN, 1000);
+ *   MongoClient client = new MongoClient(address,
+ *       shapes.apply(MongoClientOptions.builder()).build());
+ *   ...
+ *   System.out.println(shapes.dumpTop(20));
+ * </pre>
+ *
+ * <p>The shape of a command is its namespace, its name and its filter, sort
+ * and projection, with the literal values of the filter replaced by their
+ * types: {@code {age: {$gte: 18}}} becomes {@code {age: {$gte: ?int}}}.
+ * Arrays of literals, as in {@code $in}, become the list of their types,
+ * and the fields of filters are sorted, so that the same query with other
+ * values or field order has the same shape. Sorts and projections are
+ * kept as they are. Aggregations keep the shape of each stage; strings
+ * starting with {@code $} are field paths and kept.</p>
+ *
+ * <p>Shapes are taken from find, count, distinct, aggregate, update,
+ * delete and findAndModify. For updates and deletes, the first statement
+ * of a batch gives the shape. The time and documents of getMores count for
+ * the shape of the command that opened the cursor.</p>
+ *
+ * <p>The table holds at most {@code maxShapes} shapes. When it is full, a
+ * new shape evicts the one with the fewest calls.</p>
+ */
+public final class QueryShapes implements CommandListener, QueryShapesMXBean {
+
+  public static final int DEFAULT_MAX_SHAPES = 1000;
+
+  public enum Order {
+    TOTAL_TIME(QueryShape::getTotalNanos),
+    MAX_TIME(QueryShape::getMaxNanos),
+    CALLS(QueryShape::getCalls),
+    DOCS(QueryShape::getDocs);
+
+    private final ToLongFunction<QueryShape> key;
+
+    Order(ToLongFunction<QueryShape> key) {
+      this.key = key;
+    }
+  }
+
+  private final int maxShapes;
+  private final ConcurrentMap<String, QueryShape> shapes = new ConcurrentHashMap<>();
+  private final CursorTracker<QueryShape> cursors = new CursorTracker<>();
+  private final LongAdder evicted = new LongAdder();
+
+  private QueryShapes(int maxShapes) {
+    if (maxShapes <= 0) {
+      throw new IllegalArgumentException("maxShapes must be positive: " + maxShapes);
+    }
+    this.maxShapes = maxShapes;
+  }
+
+  public static QueryShapes create(int maxShapes) {
+    return new QueryShapes(maxShapes);
+  }
+
+  public static QueryShapes create() {
+    return create(DEFAULT_MAX_SHAPES);
+  }
+
+  /**
+   * Return a table that is registered with the platform MBean server as
+   * {@code <domain>:type=QueryShapes,name=default}.
+   */
+  public static QueryShapes withJmx(String domain, int maxShapes) {
+    QueryShapes shapes = create(maxShapes);
+    Metrics.registerMBean(domain, "QueryShapes", "default", shapes);
+    return shapes;
+  }
+
+  /**
+   * Add this as command listener to {@code options}.
+   */
+  public MongoClientOptions.Builder apply(MongoClientOptions.Builder options) {
+    return options.addCommandListener(this);
+  }
+
+  /**
+   * Return the {@code n} shapes that come first in {@code order}, highest
+   * first.
+   */
+  public java.util.List<QueryShape> top(int n, Order order) {
+    java.util.List<QueryShape> all = new ArrayList<>(shapes.values());
+    all.sort(Comparator.comparingLong(order.key).reversed());
+    return all.subList(0, Math.min(n, all.size()));
+  }
+
+  public java.util.Optional<QueryShape> get(String shape) {
+    return java.util.Optional.ofNullable(shapes.get(shape));
+  }
+
+  @Override
+  public String dumpTop(int n) {
+    StringBuilder out = new StringBuilder();
+    for (QueryShape shape : top(n, Order.TOTAL_TIME)) {
+      out.append(shape).append('\n');
+    }
+    return out.toString();
+  }
+
+  @Override
+  public int getShapeCount() {
+    return shapes.size();
+  }
+
+  @Override
+  public long getEvicted() {
+    return evicted.sum();
+  }
+
+  @Override
+  public void reset() {
+    shapes.clear();
+    cursors.clear();
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    String name = event.getCommandName();
+    // a getMore counts toward the shape of the command that opened its cursor
+    String shape = name.equals("getMore") ? null : shapeOf(event.getDatabaseName(), name, event.getCommand());
+    cursors.started(event, shape != null ? lookup(shape) : null);
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    CursorTracker.Command<QueryShape> c = cursors.succeeded(event);
+    if (c == null) {
+      return;
+    }
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (c.openedBy != null) {
+      c.openedBy.batch(nanos, docsOf(event.getResponse()));
+    } else if (c.stats != null) {
+      c.stats.called(nanos, docsOf(event.getResponse()));
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    CursorTracker.Command<QueryShape> c = cursors.failed(event);
+    if (c == null) {
+      return;
+    }
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (c.openedBy != null) {
+      c.openedBy.batch(nanos, 0);
+    } else if (c.stats != null) {
+      c.stats.called(nanos, 0);
+    }
+  }
+
+  private QueryShape lookup(String shape) {
+    QueryShape stats = shapes.get(shape);
+    if (stats != null) {
+      return stats;
+    }
+    if (shapes.size() >= maxShapes) {
+      evict();
+    }
+    QueryShape created = new QueryShape(shape);
+    stats = shapes.putIfAbsent(shape, created);
+    return stats != null ? stats : created;
+  }
+
+  private synchronized void evict() {
+    QueryShape fewest = null;
+    for (QueryShape shape : shapes.values()) {
+      if (fewest == null || shape.getCalls() < fewest.getCalls()) {
+        fewest = shape;
+      }
+    }
+    if (fewest != null && shapes.remove(fewest.getShape(), fewest)) {
+      evicted.increment();
+    }
+  }
+
+  /**
+   * Return the number of documents in the batch of a cursor reply, or 1
+   * for a findAndModify that returned a document.
+   */
+  static int docsOf(BsonDocument response) {
+    BsonValue cursor = response.get("cursor");
+    if (cursor != null && cursor.isDocument()) {
+      BsonValue batch = cursor.asDocument().get("firstBatch");
+      if (batch == null) {
+        batch = cursor.asDocument().get("nextBatch");
+      }
+      return batch != null && batch.isArray() ? batch.asArray().size() : 0;
+    }
+    BsonValue value = response.get("value");
+    return value != null && value.isDocument() ? 1 : 0;
+  }
+
+  /**
+   * Return the shape of a command, or null if it isn't a query.
+   */
+  static String shapeOf(String database, String name, BsonDocument command) {
+    String ns = CommandMetrics.namespace(database, name, command) + " " + name;
+    switch (name) {
+      case "find":
+        return ns + " " + filter(command.get("filter")) + options(command, "sort", "projection");
+      case "count":
+        return ns + " " + filter(command.get("query"));
+      case "distinct":
+        return ns + " " + render(command.get("key"), false) + " " + filter(command.get("query"));
+      case "findAndModify":
+        return ns + " " + filter(command.get("query")) + options(command, "sort", "fields")
+            + (command.containsKey("update") ? " update=" + render(command.get("update"), true) : "")
+            + (command.getBoolean("remove", BsonBoolean.FALSE).getValue() ? " remove" : "");
+      case "aggregate":
+        return ns + " " + pipeline(command.get("pipeline"));
+      case "update":
+        BsonDocument update = first(command.get("updates"));
+        return update == null ? null
+            : ns + " " + filter(update.get("q")) + " update=" + render(update.get("u"), true)
+            + (update.getBoolean("multi", BsonBoolean.FALSE).getValue() ? " multi" : "");
+      case "delete":
+        BsonDocument delete = first(command.get("deletes"));
+        return delete == null ? null : ns + " " + filter(delete.get("q"));
+      default:
+        return null;
+    }
+  }
+
+  private static BsonDocument first(BsonValue statements) {
+    return statements instanceof BsonArray && !((BsonArray) statements).isEmpty()
+        && ((BsonArray) statements).get(0).isDocument() ? ((BsonArray) statements).get(0).asDocument() : null;
+  }
+
+  private static String filter(BsonValue filter) {
+    return filter == null ? "{}" : render(filter, true);
+  }
+
+  private static String options(BsonDocument command, String sort, String projection) {
+    return (command.containsKey(sort) ? " sort=" + render(command.get(sort), false) : "")
+        + (command.containsKey(projection) ? " proj=" + render(command.get(projection), false) : "");
+  }
+
+  private static String pipeline(BsonValue pipeline) {
+    if (!(pipeline instanceof BsonArray)) {
+      return "[]";
+    }
+    StringBuilder out = new StringBuilder("[");
+    for (BsonValue stage : (BsonArray) pipeline) {
+      if (out.length() > 1) {
+        out.append(", ");
+      }
+      String op = stage.isDocument() && !stage.asDocument().isEmpty() ? stage.asDocument().keySet().iterator().next() : "";
+      boolean literals = !op.equals("$sort") && !op.equals("$project");
+      render(stage, literals, out);
+    }
+    return out.append(']').toString();
+  }
+
+  /**
+   * Render {@code value}, replacing literals by their types if
+   * {@code literals} is set. This also sorts the fields of documents and
+   * collapses arrays to their distinct elements.
+   */
+  static String render(BsonValue value, boolean literals) {
+    StringBuilder out = new StringBuilder();
+    render(value, literals, out);
+    return out.toString();
+  }
+
+  private static void render(BsonValue value, boolean literals, StringBuilder out) {
+    if (value.isDocument()) {
+      BsonDocument doc = value.asDocument();
+      java.util.Map<String, BsonValue> fields = literals ? new TreeMap<>(doc) : doc;
+      out.append('{');
+      boolean first = true;
+      for (java.util.Map.Entry<String, BsonValue> e : fields.entrySet()) {
+        out.append(first ? "" : ", ").append(e.getKey()).append(": ");
+        render(e.getValue(), literals, out);
+        first = false;
+      }
+      out.append('}');
+    } else if (value.isArray() && literals) {
+      Set<String> elements = new LinkedHashSet<>();
+      for (BsonValue element : value.asArray()) {
+        elements.add(render(element, true));
+      }
+      out.append('[').append(String.join(", ", elements)).append(']');
+    } else if (value.isArray()) {
+      java.util.List<String> elements = new ArrayList<>();
+      for (BsonValue element : value.asArray()) {
+        elements.add(render(element, false));
+      }
+      out.append('[').append(String.join(", ", elements)).append(']');
+    } else if (value.isString() && (!literals || value.asString().getValue().startsWith("$"))) {
+      out.append('"').append(value.asString().getValue()).append('"');
+    } else if (literals) {
+      out.append('?').append(typeName(value));
+    } else {
+      out.append(literal(value));
+    }
+  }
+
+  private static String literal(BsonValue value) {
+    switch (value.getBsonType()) {
+      case INT32:
+        return String.valueOf(value.asInt32().getValue());
+      case INT64:
+        return String.valueOf(value.asInt64().getValue());
+      case DOUBLE:
+        return String.valueOf(value.asDouble().getValue());
+      case BOOLEAN:
+        return String.valueOf(value.asBoolean().getValue());
+      default:
+        return "?" + typeName(value);
+    }
+  }
+
+  private static String typeName(BsonValue value) {
+    switch (value.getBsonType()) {
+      case INT32:
+        return "int";
+      case INT64:
+        return "long";
+      case DOUBLE:
+        return "double";
+      case DECIMAL128:
+        return "decimal";
+      case STRING:
+        return "string";
+      case BOOLEAN:
+        return "bool";
+      case DATE_TIME:
+        return "date";
+      case OBJECT_ID:
+        return "objectId";
+      case BINARY:
+        return "binData";
+      case REGULAR_EXPRESSION:
+        return "regex";
+      case NULL:
+        return "null";
+      default:
+        return value.getBsonType().name().toLowerCase(java.util.Locale.ROOT);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "QueryShapes{shapes=" + shapes.size() + "/" + maxShapes + ", evicted=" + getEvicted() + "}";
+  }
+}
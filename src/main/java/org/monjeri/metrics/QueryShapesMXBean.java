@@ -0,0 +1,21 @@
+package org.monjeri.metrics;
+
+/**
+ * The JMX view of a {@link QueryShapes}.
+ */
+public interface QueryShapesMXBean {
+
+  /** The number of shapes in the table. */
+  int getShapeCount();
+
+  /** The number of shapes evicted because the table was full. */
+  long getEvicted();
+
+  /**
+   * Return the {@code n} shapes with the highest total time, one per
+   * line.
+   */
+  String dumpTop(int n);
+
+  void reset();
+}
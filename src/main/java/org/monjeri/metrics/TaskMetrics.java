@@ -0,0 +1,96 @@
+package org.monjeri.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The runs of one named task: a latency histogram, the number of runs and
+ * failed runs, and the number of runs in flight.
+ */
+public final class TaskMetrics implements TaskRecorder, TaskMetricsMXBean {
+
+  private final String name;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder inFlight = new LongAdder();
+
+  TaskMetrics(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public void started() {
+    inFlight.increment();
+  }
+
+  @Override
+  public void finished(long nanos, boolean failed) {
+    inFlight.decrement();
+    latency.record(nanos);
+    if (failed) {
+      errors.increment();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public long getInFlight() {
+    return inFlight.sum();
+  }
+
+  @Override
+  public double getMeanMillis() {
+    return latency.snapshot().getMeanNanos() / 1e6;
+  }
+
+  @Override
+  public double getP50Millis() {
+    return percentileMillis(50);
+  }
+
+  @Override
+  public double getP90Millis() {
+    return percentileMillis(90);
+  }
+
+  @Override
+  public double getP99Millis() {
+    return percentileMillis(99);
+  }
+
+  @Override
+  public double getP999Millis() {
+    return percentileMillis(99.9);
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return latency.snapshot().getMaxNanos() / 1e6;
+  }
+
+  private double percentileMillis(double percentile) {
+    return latency.snapshot().getPercentileNanos(percentile) / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return name + "{" + latency.snapshot() + ", errors=" + getErrors() + ", inFlight=" + getInFlight() + "}";
+  }
+}
@@ -0,0 +1,27 @@
+package org.monjeri.metrics;
+
+/**
+ * The JMX view of a {@link TaskMetrics}. Durations are in milliseconds.
+ */
+public interface TaskMetricsMXBean {
+
+  String getName();
+
+  long getCount();
+
+  long getErrors();
+
+  long getInFlight();
+
+  double getMeanMillis();
+
+  double getP50Millis();
+
+  double getP90Millis();
+
+  double getP99Millis();
+
+  double getP999Millis();
+
+  double getMaxMillis();
+}
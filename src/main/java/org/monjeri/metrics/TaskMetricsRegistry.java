@@ -0,0 +1,55 @@
+package org.monjeri.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link MetricsRegistry} that keeps a {@link TaskMetrics} per task name
+ * in memory, and optionally registers each one as MBean
+ * {@code <domain>:type=Task,name=<name>}.
+ */
+public final class TaskMetricsRegistry implements MetricsRegistry {
+
+  private final ConcurrentMap<String, TaskMetrics> tasks = new ConcurrentHashMap<>();
+  private final String jmxDomain;
+
+  private TaskMetricsRegistry(String jmxDomain) {
+    this.jmxDomain = jmxDomain;
+  }
+
+  public static TaskMetricsRegistry create() {
+    return new TaskMetricsRegistry(null);
+  }
+
+  /**
+   * Return a registry that registers its metrics with the platform MBean
+   * server in {@code domain}.
+   */
+  public static TaskMetricsRegistry withJmx(String domain) {
+    return new TaskMetricsRegistry(domain);
+  }
+
+  @Override
+  public TaskRecorder recorder(String name) {
+    return tasks.computeIfAbsent(name, this::newMetrics);
+  }
+
+  private TaskMetrics newMetrics(String name) {
+    TaskMetrics metrics = new TaskMetrics(name);
+    if (jmxDomain != null) {
+      Metrics.registerMBean(jmxDomain, "Task", name, metrics);
+    }
+    return metrics;
+  }
+
+  public Optional<TaskMetrics> get(String name) {
+    return Optional.ofNullable(tasks.get(name));
+  }
+
+  public Collection<TaskMetrics> getAll() {
+    return Collections.unmodifiableCollection(tasks.values());
+  }
+}
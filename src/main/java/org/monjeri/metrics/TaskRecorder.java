@@ -0,0 +1,27 @@
+package org.monjeri.metrics;
+
+/**
+ * Receives the runs of one named task, see {@link MetricsRegistry}.
+ * Implementations are called concurrently and should not block.
+ */
+public interface TaskRecorder {
+
+  TaskRecorder NOOP = new TaskRecorder() {
+    @Override
+    public void started() {
+    }
+
+    @Override
+    public void finished(long nanos, boolean failed) {
+    }
+  };
+
+  /** Called when a run of the task starts. */
+  void started();
+
+  /**
+   * Called when a run that was {@link #started()} ends, with its duration
+   * and whether it threw an exception.
+   */
+  void finished(long nanos, boolean failed);
+}
@@ -73,7 +73,7 @@ public class Document implements Type, PathAccess, Function<MongoDatabase, Mongo
   protected void addIndex(Json.JObject keys, Consumer<IndexOptions> opts) {
     IndexOptions options = new IndexOptions();
     opts.accept(options);
-    this.indexes = indexes.cons(new IndexModel(keys.toDocument(), options));
+    this.indexes = indexes.cons(new IndexModel(keys, options));
   }
 
   protected void addIndex(Json.JObject keys) {
@@ -0,0 +1,116 @@
+package org.monjeri;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AsyncMonTaskTest {
+
+  @Test
+  public void testCombinatorStack() throws Exception {
+    CompletableFuture<Integer> start = new CompletableFuture<>();
+    AsyncMonTask1<Integer> task = c -> start;
+    for (int i = 0; i < 100000; i++) {
+      task = task.flatMap(n -> AsyncMonTask1.unit(n + 1));
+    }
+    CompletableFuture<Integer> result = task.run(null);
+    start.complete(5);
+    assertEquals(result.get().intValue(), 100005);
+
+    AsyncMonTask1<Integer> completed = AsyncMonTask1.unit(5);
+    for (int i = 0; i < 100000; i++) {
+      completed = completed.map(n -> n + 1);
+    }
+    assertEquals(completed.run(null).get().intValue(), 100005);
+  }
+
+  @Test
+  public void testMapAsync() throws Exception {
+    AsyncMonTask1<String> task = AsyncMonTask1.unit(20)
+        .mapAsync(n -> CompletableFuture.supplyAsync(() -> n * 2, ForkJoinPool.commonPool()))
+        .map(n -> "n=" + n);
+    assertEquals(task.run(null).get(), "n=40");
+  }
+
+  @Test
+  public void testOnError() throws Exception {
+    AsyncMonTask1<Integer> failing = AsyncMonTask1.<Integer>unit(1).map(n -> {
+      throw new IllegalStateException("boom");
+    });
+    AsyncMonTask1<Integer> recovered = failing.onError(e -> AsyncMonTask1.unit(e.getMessage().length()));
+    assertEquals(recovered.run(null).get().intValue(), 4);
+
+    // a task that throws instead of returning a failed future
+    AsyncMonTask1<Integer> throwing = c -> {
+      throw new IllegalArgumentException("sync");
+    };
+    assertEquals(throwing.onError(e -> AsyncMonTask1.unit(-1)).run(null).get().intValue(), -1);
+  }
+
+  @Test
+  public void testAlwaysRun() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    AsyncMonTask1<Void> effect = AsyncMonTask1.defer(() -> {
+      runs.incrementAndGet();
+      return null;
+    });
+    assertEquals(AsyncMonTask1.unit(3).alwaysRun(effect).run(null).get().intValue(), 3);
+    assertEquals(runs.get(), 1);
+
+    try {
+      AsyncMonTask1.<Integer>fail(new IllegalStateException("failed")).alwaysRun(effect).blocking(null).run(null);
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "failed");
+    }
+    assertEquals(runs.get(), 2);
+  }
+
+  @Test
+  public void testAlwaysRunFailingEffect() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    AsyncMonTask1<Void> effect = AsyncMonTask1.defer(() -> {
+      runs.incrementAndGet();
+      throw new IllegalStateException("effect");
+    });
+    try {
+      AsyncMonTask1.unit(3).alwaysRun(effect).blocking(null).run(null);
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "effect");
+    }
+    assertEquals(runs.get(), 1);
+
+    try {
+      AsyncMonTask1.<Integer>fail(new IllegalStateException("failed")).alwaysRun(effect).blocking(null).run(null);
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "failed");
+      assertEquals(e.getSuppressed()[0].getMessage(), "effect");
+    }
+    assertEquals(runs.get(), 2);
+  }
+
+  @Test
+  public void testSeq() throws Exception {
+    List<AsyncMonTask1<Integer>> tasks = List.range(0, 5).map(n -> c -> CompletableFuture.supplyAsync(() -> n));
+    assertEquals(AsyncMonTask1.seq(tasks).run(null).get(), MonTask1.seq(List.range(0, 5).map(MonTask1::unit)).run(null));
+  }
+
+  @Test
+  public void testBlockingAdapters() throws Exception {
+    MonTask1<Integer> blocking = MonTask1.unit(7);
+    AsyncMonTask1<Integer> async = AsyncMonTask1.fromBlocking(blocking, null, ForkJoinPool.commonPool());
+    assertEquals(async.map(n -> n + 1).blocking(null).run(null).intValue(), 8);
+
+    MonTask1<Integer> failing = AsyncMonTask1.fromBlocking(MonTask1.<Integer>fail(new IllegalStateException("x")),
+        null, ForkJoinPool.commonPool()).blocking(null);
+    assertTrue(failing.attemptRun(null).isFailure());
+  }
+}
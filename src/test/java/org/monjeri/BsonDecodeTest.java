@@ -0,0 +1,92 @@
+package org.monjeri;
+
+import org.bson.Document;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+
+public class BsonDecodeTest {
+
+  private static final class Person {
+    final String name;
+    final int age;
+    final Optional<String> city;
+    final List<String> aliases;
+
+    Person(String name, int age, Optional<String> city, List<String> aliases) {
+      this.name = name;
+      this.age = age;
+      this.city = city;
+      this.aliases = aliases;
+    }
+  }
+
+  private BsonDecode<Person> person() {
+    BsonDecode.Record address = BsonDecode.record();
+    BsonDecode.Field<String> city = address.field("city", BsonDecode.string());
+
+    BsonDecode.Record r = BsonDecode.record();
+    BsonDecode.Field<String> name = r.field("name", BsonDecode.string());
+    BsonDecode.Field<Integer> age = r.field("age", BsonDecode.integer());
+    BsonDecode.Field<Optional<String>> addr = r.field("address", address.build(v -> v.opt(city)));
+    BsonDecode.Field<List<String>> aliases = r.field("aliases", BsonDecode.list(BsonDecode.string()));
+    return r.build(v -> new Person(
+        v.require(name),
+        v.require(age),
+        v.opt(addr).flatMap(c -> c),
+        v.opt(aliases).orElse(List.nil())));
+  }
+
+  @Test
+  public void testRecord() throws Exception {
+    Document doc = new Document("_id", 1)
+        .append("age", 33)
+        .append("unknown", new Document("x", Arrays.asList(1, 2)))
+        .append("name", "john")
+        .append("address", new Document("street", "abc").append("city", "Berlin"))
+        .append("aliases", Arrays.asList("jo", "johnny"));
+
+    Person p = person().apply(doc);
+    assertEquals(p.name, "john");
+    assertEquals(p.age, 33);
+    assertEquals(p.city, Optional.of("Berlin"));
+    assertEquals(p.aliases, List.of("jo", "johnny"));
+  }
+
+  @Test
+  public void testRecordMissingAndNull() throws Exception {
+    Document doc = new Document("name", "john")
+        .append("age", 33)
+        .append("address", null);
+
+    Person p = person().apply(doc);
+    assertEquals(p.city, Optional.empty());
+    assertEquals(p.aliases, List.nil());
+  }
+
+  @Test(expectedExceptions = NullPointerException.class)
+  public void testRecordRequired() throws Exception {
+    person().apply(new Document("name", "john"));
+  }
+
+  @Test
+  public void testDecimal() throws Exception {
+    BsonDecode.Record r = BsonDecode.record();
+    BsonDecode.Field<BigDecimal> a = r.field("a", BsonDecode.decimal());
+    BsonDecode.Field<BigDecimal> b = r.field("b", BsonDecode.decimal());
+    BsonDecode<BigDecimal> sum = r.build(v -> v.require(a).add(v.require(b)));
+
+    assertEquals(sum.apply(new Document("a", "1.5").append("b", 2L)), new BigDecimal("3.5"));
+  }
+
+  @Test
+  public void testRecordPaths() throws Exception {
+    assertEquals(
+        person().paths().map(ps -> ps.sortWith(Path::render)),
+        Optional.of(List.of(Path.p("address.city"), Path.p("age"), Path.p("aliases"), Path.p("name"))));
+  }
+}
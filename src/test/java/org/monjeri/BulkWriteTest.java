@@ -0,0 +1,61 @@
+package org.monjeri;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.testng.Assert.assertEquals;
+
+public class BulkWriteTest {
+
+  private static java.util.List<Integer> chunkSizes(BulkWrite bulk, BulkWrite.Op... ops) {
+    java.util.List<Integer> sizes = new ArrayList<>();
+    for (Iterator<java.util.List<BulkWrite.Op>> it = bulk.chunks(Arrays.asList(ops).iterator()); it.hasNext(); ) {
+      sizes.add(it.next().size());
+    }
+    return sizes;
+  }
+
+  private static BulkWrite.Op insert(int chars) {
+    StringBuilder str = new StringBuilder();
+    for (int i = 0; i < chars; i++) {
+      str.append('x');
+    }
+    return BulkWrite.insert(Json.obj("s", Json.str(str.toString())));
+  }
+
+  @Test
+  public void testChunksByCount() throws Exception {
+    BulkWrite.Op op = BulkWrite.deleteOne(Json.obj());
+    assertEquals(chunkSizes(BulkWrite.ordered().maxOps(2), op, op, op, op, op), Arrays.asList(2, 2, 1));
+    assertEquals(chunkSizes(BulkWrite.ordered()), Arrays.asList());
+  }
+
+  @Test
+  public void testChunksByBytes() throws Exception {
+    int size = insert(100).getSize();
+    BulkWrite bulk = BulkWrite.unordered().maxBytes(2 * size);
+    assertEquals(chunkSizes(bulk, insert(100), insert(100), insert(100)), Arrays.asList(2, 1));
+    // too large for a chunk, but sent anyway
+    assertEquals(chunkSizes(bulk, insert(100), insert(1000), insert(100)), Arrays.asList(1, 1, 1));
+  }
+
+  @Test
+  public void testEstimateSize() throws Exception {
+    Json.JObject obj = Json.obj(
+        Json.JObject.entry("a", Json.num(1)),
+        Json.JObject.entry("b", Json.str("xyz")),
+        Json.JObject.entry("c", Json.array(Json.num(1L), Json.True())),
+        Json.JObject.entry("d", Json.obj("_id", Json.id(new org.bson.types.ObjectId()))),
+        Json.JObject.entry("e", Json.Null()),
+        Json.JObject.entry("gr\u00f6\u00dfe", Json.str("\u00e4\u00f6\u00fc \u20ac \ud83d\ude00")));
+    BasicOutputBuffer buffer = new BasicOutputBuffer();
+    JsonCodec.INSTANCE.encode(new BsonBinaryWriter(buffer), obj, EncoderContext.builder().build());
+    assertEquals(JsonCodec.estimateSize(obj), buffer.getSize());
+  }
+}
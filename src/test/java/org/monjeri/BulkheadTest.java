@@ -0,0 +1,78 @@
+package org.monjeri;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class BulkheadTest {
+
+  @Test
+  public void testRejectsWhenFull() throws Exception {
+    Bulkhead bulkhead = Bulkhead.create("test-full", 2, Duration.ofMillis(10));
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      java.util.List<Future<Integer>> running = new java.util.ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        running.add(executor.submit(() -> bulkhead.run(() -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          return 1;
+        })));
+      }
+      started.await();
+      assertEquals(bulkhead.getActive(), 2);
+      try {
+        bulkhead.run(() -> 3);
+        fail();
+      } catch (Bulkhead.FullException e) {
+        assertEquals(bulkhead.getRejected(), 1);
+      }
+      release.countDown();
+      for (Future<Integer> f : running) {
+        assertEquals(f.get().intValue(), 1);
+      }
+      assertEquals(bulkhead.getActive(), 0);
+      assertEquals(bulkhead.run(() -> 3).intValue(), 3);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReleasesOnFailure() throws Exception {
+    Bulkhead bulkhead = Bulkhead.create("test-failure", 1, Duration.ZERO);
+    MonTask1<Integer> task = MonTask1.<Integer>fail(new IllegalStateException())
+        .transform(Monjeri.getInstance().bulkhead1(bulkhead));
+    for (int i = 0; i < 3; i++) {
+      try {
+        task.run(null);
+        fail();
+      } catch (IllegalStateException e) {
+        assertEquals(bulkhead.getActive(), 0);
+      }
+    }
+    assertEquals(bulkhead.getRejected(), 0);
+  }
+
+  @Test
+  public void testPerKey() throws Exception {
+    Bulkhead.PerKey bulkheads = Bulkhead.perKey(4, Duration.ZERO);
+    assertSame(bulkheads.get("orders"), bulkheads.get("orders"));
+    assertEquals(bulkheads.get("orders").getMaxConcurrent(), 4);
+    assertEquals(bulkheads.get("people").getName(), "people");
+  }
+}
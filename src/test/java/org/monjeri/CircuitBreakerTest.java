@@ -0,0 +1,183 @@
+package org.monjeri;
+
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class CircuitBreakerTest {
+
+  private static final RuntimeException FAILURE = new IllegalStateException("failed");
+
+  private static void failing(CircuitBreaker breaker) {
+    try {
+      breaker.run(() -> {
+        throw FAILURE;
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(e, FAILURE);
+    }
+  }
+
+  @Test
+  public void testOpensOnFailureRate() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-failures").window(10, 4).failureRate(0.5);
+    failing(breaker);
+    failing(breaker);
+    breaker.run(() -> 1);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    // 3 of 4
+    failing(breaker);
+    assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    assertEquals(breaker.getOpened(), 1);
+
+    AtomicInteger calls = new AtomicInteger(0);
+    try {
+      breaker.run(calls::incrementAndGet);
+      fail();
+    } catch (CircuitBreaker.OpenException e) {
+      assertEquals(calls.get(), 0);
+      assertEquals(breaker.getRejected(), 1);
+    }
+  }
+
+  @Test
+  public void testWindowForgetsOldRuns() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-window").window(4, 4).failureRate(0.75);
+    failing(breaker);
+    failing(breaker);
+    for (int i = 0; i < 10; i++) {
+      breaker.run(() -> 1);
+    }
+    assertEquals(breaker.getFailureRate(), 0.0);
+    failing(breaker);
+    failing(breaker);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    assertEquals(breaker.getFailureRate(), 0.5);
+  }
+
+  @Test
+  public void testRecordOn() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-record-on").window(2, 2)
+        .recordOn(e -> !(e instanceof IllegalStateException));
+    failing(breaker);
+    failing(breaker);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void testSlowCalls() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-slow").window(2, 2)
+        .slowCalls(Duration.ofMillis(5), 0.5);
+    breaker.run(() -> 1);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    breaker.run(() -> {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return 2;
+    });
+    assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+  }
+
+  @Test
+  public void testHalfOpen() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-half-open").window(1, 1)
+        .openFor(Duration.ofMillis(10)).trialRuns(2);
+    failing(breaker);
+    assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    Thread.sleep(20);
+    assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+    // a failed trial opens again
+    failing(breaker);
+    assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    Thread.sleep(20);
+    breaker.run(() -> 1);
+    assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+    breaker.run(() -> 2);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    assertEquals(breaker.getOpened(), 2);
+  }
+
+  @Test
+  public void testCombinator() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-combinator").window(1, 1);
+    MonTask1<Integer> task = MonTask1.<Integer>fail(FAILURE).transform(Monjeri.getInstance().circuitBreaker1(breaker));
+    try {
+      task.run(null);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(e, FAILURE);
+    }
+    try {
+      task.run(null);
+      fail();
+    } catch (CircuitBreaker.OpenException e) {
+      assertEquals(breaker.getRejected(), 1);
+    }
+  }
+
+  @Test
+  public void testErrorInTrialIsRecorded() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-error-trial").window(1, 1)
+        .openFor(Duration.ofMillis(10)).trialRuns(1);
+    failing(breaker);
+    Thread.sleep(20);
+    try {
+      breaker.run(() -> {
+        throw new AssertionError("error");
+      });
+      fail();
+    } catch (AssertionError e) {
+      assertEquals(e.getMessage(), "error");
+    }
+    // the failed trial opened the breaker again, which lets a trial through later
+    assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+    Thread.sleep(20);
+    breaker.run(() -> 1);
+    assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void testStaleRunsAreIgnored() throws Exception {
+    CircuitBreaker breaker = CircuitBreaker.create("test-stale").window(1, 1)
+        .openFor(Duration.ofMillis(10)).trialRuns(2);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // a run that starts while closed and ends while half open
+      Future<Integer> slow = executor.submit(() -> breaker.run(() -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        return 1;
+      }));
+      started.await();
+      failing(breaker);
+      Thread.sleep(20);
+      breaker.run(() -> 2);
+      release.countDown();
+      assertEquals(slow.get().intValue(), 1);
+      // only one of the two trials has succeeded
+      assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+      breaker.run(() -> 3);
+      assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.monjeri;
+
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class DeadlineTest {
+
+  private static final MonTask1<Long> REMAINING =
+      client -> Deadline.current().map(d -> d.remaining().toMillis()).orElse(-1L);
+
+  @Test
+  public void testCurrent() throws Exception {
+    assertFalse(Deadline.current().isPresent());
+    long remaining = REMAINING.withDeadline(Duration.ofSeconds(10)).run(null);
+    assertTrue(remaining > 9000 && remaining <= 10000, "remaining: " + remaining);
+    assertFalse(Deadline.current().isPresent());
+  }
+
+  @Test
+  public void testNestedKeepsEarlier() throws Exception {
+    long inner = REMAINING.withDeadline(Duration.ofSeconds(100)).withDeadline(Duration.ofSeconds(1)).run(null);
+    assertTrue(inner <= 1000, "inner: " + inner);
+    long shorter = REMAINING.withDeadline(Duration.ofSeconds(1)).withDeadline(Duration.ofSeconds(100)).run(null);
+    assertTrue(shorter <= 1000, "shorter: " + shorter);
+  }
+
+  @Test
+  public void testFailsFast() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    MonTask1<Long> task = MonTask1.defer(() -> {
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return (long) runs.incrementAndGet();
+    }).flatMap(n -> client -> {
+      // what an operation does before it is sent
+      Deadline.current().get().maxTimeMillis();
+      return n;
+    });
+    try {
+      task.withDeadline(Duration.ofMillis(5)).run(null);
+      fail();
+    } catch (Deadline.ExceededException e) {
+      assertEquals(e.getCode(), 50);
+      assertEquals(runs.get(), 1);
+    }
+    assertEquals(task.withDeadline(Duration.ofSeconds(10)).run(null).longValue(), 2);
+  }
+
+  @Test
+  public void testOptions() throws Exception {
+    Deadline deadline = Deadline.after(Duration.ofSeconds(10));
+    CountOptions count = new CountOptions().limit(5);
+    CountOptions limited = deadline.applyTo(count);
+    assertEquals(count.getMaxTime(TimeUnit.MILLISECONDS), 0);
+    assertEquals(limited.getLimit(), 5);
+    long maxTime = limited.getMaxTime(TimeUnit.MILLISECONDS);
+    assertTrue(maxTime > 9000 && maxTime <= 10000, "maxTime: " + maxTime);
+    // an earlier maxTime is kept
+    assertEquals(deadline.applyTo(new CountOptions().maxTime(100, TimeUnit.MILLISECONDS))
+        .getMaxTime(TimeUnit.MILLISECONDS), 100);
+
+    FindOneAndUpdateOptions update = deadline.applyTo(
+        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+    assertTrue(update.isUpsert());
+    assertEquals(update.getReturnDocument(), ReturnDocument.AFTER);
+    assertTrue(update.getMaxTime(TimeUnit.MILLISECONDS) > 9000);
+  }
+
+  @Test
+  public void testParallelWorkers() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<Long> remaining = MonTask1.parSeq(List.range(0, 4).map(i -> REMAINING), executor)
+          .withDeadline(Duration.ofSeconds(10))
+          .run(null);
+      assertEquals(remaining.size(), 4);
+      remaining.foreach(r -> assertTrue(r > 9000 && r <= 10000, "remaining: " + r));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testNoRetryPastDeadline() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    RetryPolicy policy = RetryPolicy.DEFAULT
+        .maxAttempts(10)
+        .backoff(Duration.ofSeconds(1), Duration.ofSeconds(1))
+        .retryOn(e -> true)
+        .budget(RetryBudget.unlimited());
+    MonTask1<Integer> task = MonTask1.<Integer>defer(() -> {
+      runs.incrementAndGet();
+      throw new IllegalStateException();
+    }).transform(Monjeri.getInstance().retry1(policy));
+    long start = System.nanoTime();
+    try {
+      task.withDeadline(Duration.ofMillis(1)).run(null);
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(runs.get(), 1);
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    }
+  }
+}
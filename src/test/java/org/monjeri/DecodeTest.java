@@ -0,0 +1,72 @@
+package org.monjeri;
+
+import org.bson.Document;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+
+public class DecodeTest implements BaseDecode {
+
+  @Test
+  public void testPaths() throws Exception {
+    assertEquals(string(Path.p("a.b")).paths(), Optional.of(List.of(Path.p("a.b"))));
+    assertEquals(string(Path.p("a")).map(String::length).paths(), Optional.of(List.of(Path.p("a"))));
+    assertEquals(decimal(Path.p("x.y")).paths(), Optional.of(List.of(Path.p("x.y"))));
+    assertEquals(
+        string(Path.p("a")).combine(integer(Path.p("b.c")), (s, n) -> s + n).paths(),
+        Optional.of(List.of(Path.p("a"), Path.p("b.c"))));
+    assertEquals(
+        doc(Path.p("a.b")).then(string(Path.p("c")).combine(string(Path.p("d")), String::concat)).paths(),
+        Optional.of(List.of(Path.p("a.b.c"), Path.p("a.b.d"))));
+    assertEquals(withObjectId(doc(Path.p("a"))).paths(), Optional.of(List.of(Path.p("_id"), Path.p("a"))));
+  }
+
+  @Test
+  public void testUnknownPaths() throws Exception {
+    Decode<String> lambda = doc -> doc.getString("a");
+    assertEquals(lambda.paths(), Optional.empty());
+    assertEquals(lambda.combine(string(Path.p("b")), String::concat).paths(), Optional.empty());
+    assertEquals(string(Path.p("a")).flatMap(s -> string(Path.p(s))).paths(), Optional.empty());
+    assertEquals(doc(Path.p("a")).then(lambda).paths(), Optional.of(List.of(Path.p("a"))));
+  }
+
+  @Test
+  public void testDecodeNested() throws Exception {
+    Document doc = new Document("a", new Document("b", new Document("c", "x").append("d", "y")));
+    assertEquals(doc(Path.p("a.b")).then(string(Path.p("c")).combine(string(Path.p("d")), String::concat)).apply(doc), "xy");
+    assertEquals(string(Path.p("a.b.d")).apply(doc), "y");
+  }
+
+  @Test
+  public void testProjection() throws Exception {
+    assertEquals(
+        Util.projection(List.of(Path.p("a.b"), Path.p("c"), Path.p("a"), Path.p("c"))).noSpaces(),
+        Json.obj(Json.JObject.entry("c", Json.num(1)), Json.JObject.entry("a", Json.num(1))).noSpaces());
+  }
+
+  @Test
+  public void testRecord() throws Exception {
+    Decode.Record r = Decode.record();
+    Decode.Field<String> name = r.field(Path.p("name"), Document::getString);
+    Decode.Field<String> city = r.field(Path.p("address.city"), Document::getString);
+    Decode.Field<String> zip = r.field(Path.p("address.zip"), Document::getString);
+    Decode.Field<Integer> n = r.at(Path.p("address.geo"), integer(Path.p("n")));
+    Decode<String> decode = r.build(v -> v.require(name) + v.get(city) + v.get(zip) + v.get(n));
+
+    Document doc = new Document("name", "a")
+        .append("address", new Document("city", "b").append("zip", "c").append("geo", new Document("n", 1)));
+    assertEquals(decode.apply(doc), "abc1");
+    assertEquals(decode.apply(new Document("name", "a")), "anullnullnull");
+    assertEquals(decode.paths(), Optional.of(List.of(
+        Path.p("name"), Path.p("address.city"), Path.p("address.zip"), Path.p("address.geo.n"))));
+  }
+
+  @Test(expectedExceptions = NullPointerException.class, expectedExceptionsMessageRegExp = "Field 'address.city' is missing or null")
+  public void testRecordRequire() throws Exception {
+    Decode.Record r = Decode.record();
+    Decode.Field<String> city = r.field(Path.p("address.city"), Document::getString);
+    r.build(v -> v.require(city)).apply(new Document("address", new Document()));
+  }
+}
@@ -0,0 +1,69 @@
+package org.monjeri;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class HamtTest {
+
+  @Test
+  public void testPutGet() throws Exception {
+    Hamt<String, Integer> map = Hamt.empty();
+    for (int i = 0; i < 5000; i++) {
+      map = map.put("k" + i, i);
+    }
+    assertEquals(map.size(), 5000);
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(map.get("k" + i), Integer.valueOf(i));
+    }
+    assertNull(map.get("x"));
+  }
+
+  @Test
+  public void testPersistent() throws Exception {
+    Hamt<String, Integer> a = Hamt.<String, Integer>empty().put("a", 1);
+    Hamt<String, Integer> b = a.put("a", 2).put("b", 3);
+    assertEquals(a.get("a"), Integer.valueOf(1));
+    assertNull(a.get("b"));
+    assertEquals(b.get("a"), Integer.valueOf(2));
+    assertEquals(b.size(), 2);
+  }
+
+  @Test
+  public void testCollisions() throws Exception {
+    // "Aa" and "BB" have the same hash code
+    Hamt<String, Integer> map = Hamt.<String, Integer>empty()
+        .put("Aa", 1)
+        .put("BB", 2)
+        .put("AaAa", 3)
+        .put("BBBB", 4)
+        .put("AaBB", 5)
+        .put("BB", 6);
+    assertEquals(map.size(), 5);
+    assertEquals(map.get("Aa"), Integer.valueOf(1));
+    assertEquals(map.get("BB"), Integer.valueOf(6));
+    assertEquals(map.get("AaAa"), Integer.valueOf(3));
+    assertEquals(map.get("BBBB"), Integer.valueOf(4));
+    assertEquals(map.get("AaBB"), Integer.valueOf(5));
+  }
+
+  @Test
+  public void testOf() throws Exception {
+    int n = 5000;
+    Object[] keys = new Object[n];
+    Object[] values = new Object[n];
+    for (int i = 0; i < n; i++) {
+      // "Aa" and "BB" have the same hash code, so "Aa" + j and "BB" + j collide
+      keys[i] = i % 2 == 0 ? "k" + i : (i % 4 == 1 ? "Aa" : "BB") + i / 4;
+      values[i] = i;
+    }
+    Hamt<String, Integer> map = Hamt.of(keys, values, n);
+    assertEquals(map.size(), n);
+    for (int i = 0; i < n; i++) {
+      assertEquals(map.get((String) keys[i]), Integer.valueOf(i));
+    }
+    assertEquals(map.put("k0", -1).get("k0"), Integer.valueOf(-1));
+    assertEquals(map.put("new", -1).size(), n + 1);
+  }
+}
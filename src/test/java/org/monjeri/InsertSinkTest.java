@@ -0,0 +1,132 @@
+package org.monjeri;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import org.monjeri.Json.JObject;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class InsertSinkTest {
+
+  private final ConcurrentLinkedQueue<java.util.List<?>> batches = new ConcurrentLinkedQueue<>();
+
+  /**
+   * A collection that records the batches passed to insertMany, and fails
+   * from batch {@code failAt} on.
+   */
+  @SuppressWarnings("unchecked")
+  private MongoCollection<?> collection(int failAt) {
+    batches.clear();
+    AtomicInteger calls = new AtomicInteger(0);
+    return (MongoCollection<?>) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "insertMany":
+              if (calls.incrementAndGet() >= failAt) {
+                throw new MongoException("insert failed");
+              }
+              batches.add((java.util.List<?>) args[0]);
+              return null;
+            case "getCodecRegistry":
+              return com.mongodb.MongoClient.getDefaultCodecRegistry();
+            default:
+              return proxy;
+          }
+        });
+  }
+
+  private static Stream<JObject> docs(int n) {
+    return IntStream.range(0, n).mapToObj(i -> Json.obj("n", Json.num(i)));
+  }
+
+  @Test
+  public void testBatchesByCount() throws Exception {
+    InsertSink.Result result = docs(25).collect(InsertSink.create().maxDocs(10).keepIds().collector(collection(Integer.MAX_VALUE)));
+    assertEquals(result.getCount(), 25);
+    assertEquals(result.getBatches(), 3);
+    assertEquals(batches.stream().map(java.util.List::size).collect(Collectors.toList()), java.util.Arrays.asList(10, 10, 5));
+    java.util.List<Object> ids = batches.stream()
+        .flatMap(java.util.List::stream)
+        .map(doc -> JsonCodec.idOf((JObject) doc))
+        .collect(Collectors.toList());
+    assertEquals(result.getIds().toJava(), ids);
+  }
+
+  @Test
+  public void testBatchesByBytes() throws Exception {
+    int size = JsonCodec.estimateSize(JsonCodec.withId(Json.obj("n", Json.num(0))));
+    InsertSink.Result result = docs(10).collect(InsertSink.create().maxBytes(3 * size).collector(collection(Integer.MAX_VALUE)));
+    assertEquals(result.getBatches(), 4);
+    assertTrue(result.getIds().isEmpty());
+  }
+
+  @Test
+  public void testConcurrentBatches() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      InsertSink sink = InsertSink.create().maxDocs(7).concurrent(3, executor).keepIds();
+      InsertSink.Result result = docs(1000).parallel().collect(sink.collector(collection(Integer.MAX_VALUE)));
+      assertEquals(result.getCount(), 1000);
+      assertEquals(batches.stream().mapToInt(java.util.List::size).sum(), 1000);
+      assertEquals(result.getIds().size(), 1000);
+      assertEquals(result.getIds().distinct(Object::equals).size(), 1000);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expectedExceptions = MongoException.class, expectedExceptionsMessageRegExp = "insert failed")
+  public void testFailure() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      docs(100).collect(InsertSink.create().maxDocs(10).concurrent(2, executor).collector(collection(3)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailureWaitsForBatchesInFlight() throws Exception {
+    AtomicInteger calls = new AtomicInteger(0);
+    AtomicInteger writing = new AtomicInteger(0);
+    MongoCollection<?> coll = (MongoCollection<?>) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "insertMany":
+              if (calls.incrementAndGet() == 1) {
+                throw new MongoException("insert failed");
+              }
+              writing.incrementAndGet();
+              Thread.sleep(50);
+              writing.decrementAndGet();
+              return null;
+            case "getCodecRegistry":
+              return com.mongodb.MongoClient.getDefaultCodecRegistry();
+            default:
+              return proxy;
+          }
+        });
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      docs(100).collect(InsertSink.create().maxDocs(10).concurrent(3, executor).collector(coll));
+      fail("expected exception");
+    } catch (MongoException e) {
+      assertEquals(e.getMessage(), "insert failed");
+      assertEquals(writing.get(), 0);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package org.monjeri;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.testng.annotations.Test;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.monjeri.Json.JObject.entry;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.fail;
+
+public class JsonParserTest {
+
+  private static final ObjectId OID = new ObjectId("58c4002bd93a0043e0fd01a4");
+
+  private static Json.JObject sample() {
+    return Json.obj(
+        entry("_id", Json.id(OID)),
+        entry("regex", Json.regex("^a\\d+", "i")),
+        entry("name", Json.str("Wi\"l\\li\nä€")),
+        entry("male", Json.True()),
+        entry("age", Json.num(22)),
+        entry("big", Json.num(12345678901L)),
+        entry("score", Json.num(-3.5e-3)),
+        entry("aliases", Json.array(Json.str("will"), Json.array(), Json.obj())),
+        entry("aref", Json.dbref("other", OID)));
+  }
+
+  @Test
+  public void testParsePrinted() throws Exception {
+    Json.JObject json = sample();
+    assertEquals(Json.parse(json.noSpaces()).noSpaces(), json.noSpaces());
+    assertEquals(Json.parse(json.spaces4()).noSpaces(), json.noSpaces());
+    assertEquals(Json.parse(new StringReader(json.spaces2())).noSpaces(), json.noSpaces());
+    assertEquals(Json.parse(ByteBuffer.wrap(json.noSpaces().getBytes(StandardCharsets.UTF_8))).noSpaces(), json.noSpaces());
+  }
+
+  @Test
+  public void testStrictMode() throws Exception {
+    Json.JObject json = Json.parse(sample().noSpaces()).asObject().get();
+    assertEquals(json.get("_id").get(), Json.id(OID));
+    assertEquals(json.get("regex").get().noSpaces(), Json.regex("^a\\d+", "i").noSpaces());
+    assertEquals(json.get("regex").get().type(), Json.Type.REGEX);
+    assertEquals(json.get("aref").get(), Json.dbref("other", OID));
+    assertEquals(Json.parse("{\"$ref\": \"c\", \"$id\": 1}"), Json.dbref("c", 1));
+    assertEquals(Json.parse("{\"$oid\": \"x\"}").type(), Json.Type.OBJECT);
+    assertEquals(Json.parse("{\"$regex\": \"a\", \"x\": 1}").type(), Json.Type.OBJECT);
+  }
+
+  @Test
+  public void testNumbers() throws Exception {
+    assertEquals(((Json.JNumber) Json.parse("12")).kind(), Json.JNumber.Kind.INT);
+    assertEquals(((Json.JNumber) Json.parse("-2147483649")).kind(), Json.JNumber.Kind.LONG);
+    assertEquals(((Json.JNumber) Json.parse("-2147483649")).longValue(), -2147483649L);
+    assertEquals(Json.parse("123456789012345678901234").asNumber().get(), new BigDecimal("123456789012345678901234"));
+    assertEquals(((Json.JNumber) Json.parse("1.5e2")).kind(), Json.JNumber.Kind.DECIMAL);
+    assertEquals(Json.parse("1.5e2").asNumber().get(), new BigDecimal("1.5e2"));
+  }
+
+  @Test
+  public void testLargeInput() throws Exception {
+    Json.JArray.Builder array = Json.JArray.builder();
+    for (int i = 0; i < 2000; i++) {
+      array.add(Json.obj(entry("n", Json.num(i)), entry("s", Json.str("x\ty" + i))));
+    }
+    String text = array.build().spaces2();
+    assertEquals(Json.parse(new StringReader(text)).spaces2(), text);
+    assertEquals(Json.parse(new StringBuilder(text)).spaces2(), text);
+    assertEquals(Json.parse(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))).spaces2(), text);
+  }
+
+  @Test
+  public void testUnicodeEscape() throws Exception {
+    assertEquals(Json.parse("\"a\\u00e4\\/\"").asString().get(), "aä/");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Expected ',' or '}' at position 8")
+  public void testInvalid() throws Exception {
+    Json.parse("{\"a\": 1 \"b\": 2}");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testTrailingContent() throws Exception {
+    Json.parse("[1] x");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testUnterminated() throws Exception {
+    Json.parse("{\"a\": [1, 2");
+  }
+
+  @Test
+  public void testNumberGrammar() throws Exception {
+    assertEquals(((Json.JNumber) Json.parse("0")).longValue(), 0L);
+    assertEquals(Json.parse("-0.5e+2").asNumber().get(), new BigDecimal("-0.5e+2"));
+    assertEquals(((Json.JNumber) Json.parse("10")).longValue(), 10L);
+    assertEquals(Json.parse("1E3").asNumber().get(), new BigDecimal("1E3"));
+    assertEquals(Json.parse("1e-400").asNumber().get(), new BigDecimal("1e-400"));
+    for (String invalid : new String[]{"01", "-01", "1.", "-.5", ".5", "1.e5", "1e", "1e+", "-", "1.5.2", "[1-2]",
+        "1e400", "-1e400", "1e99999999999"}) {
+      try {
+        Json.parse(invalid);
+        fail("accepted " + invalid);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testFractionsAreExact() throws Exception {
+    Json a = Json.parse("{\"a\": 0.1}");
+    assertEquals(a.noSpaces(), Json.obj("a", Json.num(new BigDecimal("0.1"))).noSpaces());
+    assertEquals(((Json.JNumber) ((Json.JObject) a).get("a").get()).kind(), Json.JNumber.Kind.DECIMAL);
+    Json.JObject printed = Json.obj("x", Json.num(new BigDecimal("1401.15")));
+    Json parsed = Json.parse(printed.noSpaces());
+    assertEquals(parsed.noSpaces(), printed.noSpaces());
+    assertEquals(((Json.JObject) parsed).get("x").flatMap(Json::asNumber).get(), new BigDecimal("1401.15"));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Nesting deeper than .*")
+  public void testDeepNesting() throws Exception {
+    StringBuilder deep = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      deep.append(i % 2 == 0 ? "[" : "{\"a\":");
+    }
+    Json.parse(deep);
+  }
+
+  @Test
+  public void testMaxDepth() throws Exception {
+    StringBuilder deep = new StringBuilder();
+    for (int i = 0; i < JsonParser.MAX_DEPTH; i++) {
+      deep.append('[');
+    }
+    for (int i = 0; i < JsonParser.MAX_DEPTH; i++) {
+      deep.append(']');
+    }
+    assertNotNull(Json.parse(deep));
+  }
+
+  @Test(enabled = false)
+  public void testParseBenchmark() throws Exception {
+    Json.JArray.Builder array = Json.JArray.builder();
+    for (int i = 0; i < 10_000; i++) {
+      array.add(sample().put("n", Json.num(i)));
+    }
+    String text = Json.obj("items", array.build()).noSpaces();
+    for (int n = 0; n < 20; n++) {
+      System.out.println("---- run " + n + " ----");
+      Stopwatch w = Stopwatch.start();
+      assertNotNull(Json.parse(text));
+      System.out.println("Json.parse (" + text.length() + " chars) in " + w.stop());
+
+      w = w.reset();
+      assertNotNull(Document.parse(text));
+      System.out.println("Document.parse (" + text.length() + " chars) in " + w.stop());
+    }
+  }
+}
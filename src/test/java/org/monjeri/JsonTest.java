@@ -1,10 +1,27 @@
 package org.monjeri;
 
+import com.mongodb.MongoClient;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
 import static org.monjeri.Json.JObject.entry;
+import static org.testng.Assert.assertEquals;
 
 public class JsonTest {
 
@@ -32,4 +49,145 @@ public class JsonTest {
         "{\"_id\": {\"$oid\": \"58c4002bd93a0043e0fd01a4\"},\"regex\": {\"$regex\": \"^abc\"},\"male\": true,\"lastname\": \"Schmal\",\"firstname\": \"Willi\",\"age\": 22,\"aliases\": [\"will\",\"ack\",\"ackli\"],\"money\": {\"2004\": 1401.15,\"2005\": 12123.15},\"score\": 3.120000000000000106581410364015028,\"aref\": {\"$ref\": \"othercollection\",\"$id\": \"58c4002bd93a0043e0fd01a4\"}}");
 
   }
+
+  @Test
+  public void testCodecMatchesDocument() throws Exception {
+    ObjectId oid = new ObjectId("58c4002bd93a0043e0fd01a4");
+    Json.JObject json = Json.obj(
+        entry("_id", Json.id(oid)),
+        entry("id", Json.Null()),
+        entry("regex", Json.regex("^abc", "i")),
+        entry("male", Json.True()),
+        entry("name", Json.str("Willi")),
+        entry("age", Json.num(22)),
+        entry("big", Json.num(new BigDecimal("12345678901"))),
+        entry("aliases", Json.array(Json.str("will"), Json.num(1))),
+        entry("money", Json.obj(entry("2004", Json.num("1401.15")))),
+        entry("aref", Json.dbref("othercollection", oid))
+    );
+
+    BsonDocument expected = json.toDocument().toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry());
+    assertEquals(JsonCodec.toBsonDocument(json), expected);
+  }
+
+  @Test
+  public void testCodecRoundtrip() throws Exception {
+    Json.JObject json = Json.obj(
+        entry("_id", Json.id(new ObjectId())),
+        entry("male", Json.False()),
+        entry("age", Json.num(22)),
+        entry("aliases", Json.array(Json.str("will"), Json.Null())),
+        entry("nested", Json.obj(entry("a", Json.obj("b", Json.str("c")))))
+    );
+
+    BsonDocument bson = JsonCodec.toBsonDocument(json);
+    Json.JObject decoded = JsonCodec.INSTANCE.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    assertEquals(decoded.noSpaces(), json.noSpaces());
+  }
+
+  @Test
+  public void testNativeNumbers() throws Exception {
+    Json.JObject json = Json.obj(
+        entry("int", Json.num(1)),
+        entry("long", Json.num(1L)),
+        entry("double", Json.num(1.5)),
+        entry("decimal", Json.num("1.50")),
+        entry("integral", Json.num(new BigDecimal("12345678901"))),
+        entry("decimal128", Json.decimal128(new BigDecimal("1.50")))
+    );
+
+    BsonDocument bson = JsonCodec.toBsonDocument(json);
+    assertEquals(bson.get("int"), new BsonInt32(1));
+    assertEquals(bson.get("long"), new BsonInt64(1));
+    assertEquals(bson.get("double"), new BsonDouble(1.5));
+    assertEquals(bson.get("decimal"), new BsonString("1.50"));
+    assertEquals(bson.get("integral"), new BsonInt64(12345678901L));
+    assertEquals(bson.get("decimal128"), new BsonDecimal128(Decimal128.parse("1.50")));
+    assertEquals(json.toDocument().toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()), bson);
+
+    Json.JObject decoded = JsonCodec.INSTANCE.decode(new BsonDocumentReader(bson), DecoderContext.builder().build());
+    assertEquals(decoded.get("long").get().asNumber().get(), new BigDecimal(1));
+    assertEquals(((Json.JNumber) decoded.get("double").get()).doubleValue(), 1.5);
+    assertEquals(((Json.JNumber) decoded.get("decimal128").get()).kind(), Json.JNumber.Kind.DECIMAL128);
+  }
+
+  @Test
+  public void testPutOrder() throws Exception {
+    Json.JObject json = Json.obj(entry("a", Json.num(1)), entry("b", Json.num(2)), entry("c", Json.num(3)));
+    Json.JObject updated = json.put("a", Json.num(4)).put("d", Json.num(5));
+    assertEquals(json.noSpaces(), "{\"a\": 1,\"b\": 2,\"c\": 3}");
+    assertEquals(updated.noSpaces(), "{\"b\": 2,\"c\": 3,\"a\": 4,\"d\": 5}");
+    assertEquals(updated.get("a").flatMap(Json::asNumber).get(), new BigDecimal(4));
+    assertEquals(updated.size(), 4);
+
+    Json.JObject many = Json.obj();
+    for (int i = 0; i < 1000; i++) {
+      many = many.put("x", Json.num(i)).put("y" + (i % 10), Json.num(i));
+    }
+    assertEquals(many.size(), 11);
+    assertEquals(many.getValues().size(), 11);
+    assertEquals(many.getValues().map(e -> e.name), List.of("y0", "y1", "y2", "y3", "y4", "y5", "y6", "y7", "y8", "x", "y9"));
+  }
+
+  @Test
+  public void testBuilder() throws Exception {
+    Json.JObject.Builder builder = Json.JObject.builder()
+        .put("a", Json.num(1))
+        .put("b", Json.num(2))
+        .put("a", Json.num(3));
+    for (int i = 0; i < 100; i++) {
+      builder.put("x" + i, Json.num(i));
+    }
+    Json.JObject json = builder.build();
+    assertEquals(json.size(), 102);
+    assertEquals(json.getValues().take(2).map(e -> e.name), List.of("b", "a"));
+    assertEquals(json.get("a").flatMap(Json::asNumber).get(), new BigDecimal(3));
+    assertEquals(json.get("x99").flatMap(Json::asNumber).get(), new BigDecimal(99));
+    assertEquals(json.put("b", Json.num(4)).getValues().reverse().head().name, "b");
+
+    Json.JArray array = Json.JArray.builder().add(Json.num(1)).add(Json.str("a")).build();
+    assertEquals(array.noSpaces(), "[1,\"a\"]");
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testBuilderSingleUse() throws Exception {
+    Json.JObject.Builder builder = Json.JObject.builder().put("a", Json.num(1));
+    builder.build();
+    builder.put("b", Json.num(2));
+  }
+
+  @Test
+  public void testPrinter() throws Exception {
+    Json.JObject json = Json.obj(
+        entry("quote\"", Json.str("a\\b\n\u0001")),
+        entry("list", Json.array(Json.num(1L), Json.Null(), Json.obj("x", Json.True()))));
+
+    assertEquals(json.noSpaces(), "{\"quote\\\"\": \"a\\\\b\\n\\u0001\",\"list\": [1,{\"x\": true}]}");
+    assertEquals(json.spaces2(),
+        "{\n  \"quote\\\"\": \"a\\\\b\\n\\u0001\",\n  \"list\": [\n    1,\n    {\n      \"x\": true\n    }\n  ]\n}");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonPrinter.SPACES4.print(json, out);
+    assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), json.spaces4());
+
+    StringWriter writer = new StringWriter();
+    JsonPrinter.indent(3).print(json, writer);
+    assertEquals(writer.toString(), JsonPrinter.indent(3).render(json));
+
+    Json.JArray.Builder big = Json.JArray.builder();
+    for (int i = 0; i < 5000; i++) {
+      big.add(json);
+    }
+    Json.JArray array = big.build();
+    StringWriter bigWriter = new StringWriter();
+    JsonPrinter.NO_SPACES.print(array, bigWriter);
+    assertEquals(bigWriter.toString(), array.noSpaces());
+  }
+
+  @Test
+  public void testPrintNonFiniteDoubles() throws Exception {
+    Json json = Json.array(Json.num(Double.NaN), Json.num(Double.POSITIVE_INFINITY), Json.num(1.5));
+    assertEquals(json.noSpaces(), "[null,null,1.5]");
+    assertEquals(Json.obj("x", Json.num(Double.NEGATIVE_INFINITY)).noSpaces(), "{\"x\": null}");
+  }
 }
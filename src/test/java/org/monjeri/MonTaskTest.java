@@ -4,10 +4,17 @@ import org.testng.annotations.Test;
 
 import javax.management.RuntimeMBeanException;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class MonTaskTest {
 
@@ -74,6 +81,62 @@ public class MonTaskTest {
         ));
   }
 
+  @Test
+  public void testTimedConcurrently() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    MonTask1<List.P2<Integer, Duration>> task = MonTask1.defer(() -> {
+      bothStarted.countDown();
+      try {
+        bothStarted.await();
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return 1;
+    }).transform(Monjeri.getInstance().timed1());
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      java.util.concurrent.Future<List.P2<Integer, Duration>> f1 = executor.submit(() -> task.run(null));
+      java.util.concurrent.Future<List.P2<Integer, Duration>> f2 = executor.submit(() -> task.run(null));
+      for (Duration d : new Duration[]{f1.get()._2, f2.get()._2}) {
+        assertTrue(d.toMillis() >= 99 && d.toMillis() < 1000, "duration: " + d);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(enabled = false)
+  public void testDeepFlatMapBenchmark() throws Exception {
+    for (int depth : new int[]{10, 200, 2000}) {
+      MonTask1<Integer> task = MonTask1.unit(0);
+      MonTask<String, Integer> task2 = MonTask.unit(0);
+      for (int i = 0; i < depth; i++) {
+        task = task.flatMap(n -> MonTask1.unit(n + 1));
+        task2 = task2.flatMap(n -> MonTask.unit(n + 1));
+      }
+      int runs = 20_000_000 / depth;
+      for (int round = 0; round < 5; round++) {
+        long sum = 0;
+        Stopwatch w = Stopwatch.start();
+        for (int i = 0; i < runs; i++) {
+          sum += task.run(null);
+        }
+        w = w.stop();
+        long sum2 = 0;
+        Stopwatch w2 = Stopwatch.start();
+        for (int i = 0; i < runs; i++) {
+          sum2 += task2.run("", null);
+        }
+        w2 = w2.stop();
+        assertEquals(sum, (long) runs * depth);
+        assertEquals(sum2, (long) runs * depth);
+        System.out.printf("depth %d: MonTask1 %.0f runs/s, MonTask %.0f runs/s%n", depth,
+            runs * 1e9 / w.getDuration().toNanos(), runs * 1e9 / w2.getDuration().toNanos());
+      }
+    }
+  }
+
   @Test
   public void testTimed() throws Exception {
     MonTask1<Integer> task = client -> {
@@ -89,4 +152,84 @@ public class MonTaskTest {
     assertEquals((int) result._1, 5);
     assertTrue(result._2.toMillis() > 299);
   }
+
+  @Test
+  public void testParSeq() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      // all tasks must run at the same time to pass the barrier
+      CyclicBarrier barrier = new CyclicBarrier(5);
+      List<MonTask1<Integer>> tasks = List.range(0, 5).map(n -> client -> {
+        try {
+          barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+        return n * 10;
+      });
+      assertEquals(MonTask1.parSeq(tasks, executor).run(null), List.of(0, 10, 20, 30, 40));
+
+      MonTask1<Integer> none = client -> null;
+      assertEquals(MonTask1.parSeq(List.range(1, 4).map(n -> n == 2 ? none : MonTask1.unit(n)), executor).run(null),
+          List.of(1, 3));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testParTraverseBounded() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      AtomicInteger running = new AtomicInteger(0);
+      AtomicInteger maxRunning = new AtomicInteger(0);
+      List<Integer> result = MonTask1.parTraverse(List.range(0, 50), n -> client -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(2);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        running.decrementAndGet();
+        return n + 1;
+      }, 3, executor).run(null);
+      assertEquals(result, List.range(1, 51));
+      assertTrue(maxRunning.get() <= 3, "max running: " + maxRunning.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testParFailure() throws Exception {
+    AtomicInteger started = new AtomicInteger(0);
+    List<MonTask1<Integer>> tasks = List.range(0, 100).map(n -> client -> {
+      started.incrementAndGet();
+      if (n == 3) {
+        throw new IllegalStateException("task " + n);
+      }
+      return n;
+    });
+    // a direct executor: the tasks run one after the other
+    try {
+      MonTask1.parSeq(tasks, Runnable::run).run(null);
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getMessage(), "task 3");
+    }
+    assertEquals(started.get(), 4);
+  }
+
+  @Test
+  public void testParZipNested() throws Exception {
+    // nested parallel tasks on a single thread executor must not deadlock
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      MonTask1<Integer> inner = MonTask1.parZip(MonTask1.unit(1), MonTask1.unit(2), Integer::sum, executor);
+      MonTask1<String> outer = MonTask1.parZip(inner, inner, (a, b) -> a + "," + b, executor);
+      assertEquals(outer.run(null), "3,3");
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
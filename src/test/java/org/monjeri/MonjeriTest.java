@@ -50,6 +50,113 @@ public class MonjeriTest extends AbstractMongoTest {
     assertEquals(persons.elementAt(0), person);
   }
 
+  @Test
+  public void testDecodeBson() throws Exception {
+    MonTask1<MongoDatabase> db = newDb();
+    Person person = new Person("john", 33, true, new BigDecimal("12111.02"));
+    db.map(model().person)
+        .map(insertMany(List.of(person.asJson(), person.asJson())))
+        .run(client());
+
+    List<Person> persons = db.map(model().person)
+        .map(query(Json.obj(), Sized.Count.LAZY))
+        .map(limit(1))
+        .map(decode(codec().bsonDecodePerson()))
+        .map(s -> s.collect(List.collector()))
+        .run(client());
+    assertEquals(persons, List.of(person));
+
+    List<Person> aggregated = db.map(model().person)
+        .map(aggregate(List.of(Json.obj("$match", Json.obj())), codec().bsonDecodePerson()))
+        .map(s -> s.collect(List.collector()))
+        .run(client());
+    assertEquals(aggregated, List.of(person, person));
+  }
+
+  @Test
+  public void testParallelScan() throws Exception {
+    MonTask1<MongoDatabase> db = newDb();
+    List<JObject> docs = List.range(0, 500).map(n -> Json.obj("n", Json.num(n)));
+    db.map(model().person).map(insertMany(docs)).run(client());
+
+    ParallelScan scan = db.map(model().person)
+        .map(parallelScan(Json.obj(), 4))
+        .run(client());
+    java.util.List<Integer> ns = scan.stream(ForkJoinPool.commonPool(), doc -> doc.getInteger("n"))
+        .sorted()
+        .collect(java.util.stream.Collectors.toList());
+    assertEquals(ns.size(), 500);
+    assertEquals(ns.get(499), Integer.valueOf(499));
+    assertTrue(scan.isDone());
+    assertEquals(scan.partitions().stream().mapToLong(ParallelScan.Partition::getCount).sum(), 500);
+  }
+
+  @Test
+  public void testPaginate() throws Exception {
+    MonTask1<MongoDatabase> db = newDb();
+    List<JObject> docs = List.range(0, 25).map(n -> Json.obj("n", Json.num(n % 10)));
+    db.map(model().person).map(insertMany(docs)).run(client());
+    JObject sort = Json.obj("n", Json.num(-1));
+
+    List<Page<Document>> pages = db.map(model().person)
+        .map(paginate(Json.obj(), sort, 10))
+        .map(s -> s.collect(List.collector()))
+        .run(client());
+    assertEquals(pages.map(p -> p.getItems().size()), List.of(10, 10, 5));
+    List<Integer> ns = pages.flatMap(p -> p.getItems().map(doc -> doc.getInteger("n")));
+    assertEquals(ns, ns.sortWith(n -> -n));
+
+    Page<Document> second = db.map(model().person)
+        .map(page(Json.obj(), sort, 10, pages.elementAt(0).getNext()))
+        .run(client());
+    assertEquals(second.getItems().map(doc -> doc.get("_id")), pages.elementAt(1).getItems().map(doc -> doc.get("_id")));
+  }
+
+  @Test
+  public void testBulkWrite() throws Exception {
+    MonTask1<MongoDatabase> db = newDb();
+    db.map(model().person).map(createIndex(Json.obj("n", Json.num(1)), new com.mongodb.client.model.IndexOptions().unique(true)))
+        .run(client());
+    java.util.stream.Stream<BulkWrite.Op> ops = java.util.stream.Stream.of(
+        BulkWrite.insert(Json.obj("n", Json.num(1))),
+        BulkWrite.insert(Json.obj("n", Json.num(2))),
+        BulkWrite.insert(Json.obj("n", Json.num(1))),
+        BulkWrite.upsert(Json.obj("n", Json.num(3)), Json.obj("$set", Json.obj("x", Json.True()))),
+        BulkWrite.updateOne(Json.obj("n", Json.num(2)), Json.obj("$set", Json.obj("x", Json.True()))),
+        BulkWrite.deleteOne(Json.obj("n", Json.num(1))));
+
+    BulkWrite.Result result = db.map(model().person)
+        .map(bulkWrite(ops, BulkWrite.unordered().maxOps(2)))
+        .run(client());
+    assertEquals(result.getChunks(), 3);
+    assertEquals(result.getInsertedCount(), 2);
+    assertEquals(result.getMatchedCount(), 1);
+    assertEquals(result.getDeletedCount(), 1);
+    assertEquals(result.getUpserts().map(List.P2::__1), List.of(3));
+    assertEquals(result.getErrors().map(BulkWrite.WriteFailure::getIndex), List.of(2));
+
+    BulkWrite.Result ordered = db.map(model().person)
+        .map(bulkWrite(List.of(
+            BulkWrite.insert(Json.obj("n", Json.num(4))),
+            BulkWrite.insert(Json.obj("n", Json.num(2))),
+            BulkWrite.insert(Json.obj("n", Json.num(5)))), BulkWrite.ordered().maxOps(1)))
+        .run(client());
+    assertEquals(ordered.getChunks(), 2);
+    assertEquals(ordered.getInsertedCount(), 1);
+    assertEquals(ordered.getErrors().map(BulkWrite.WriteFailure::getIndex), List.of(1));
+  }
+
+  @Test
+  public void testInsertAll() throws Exception {
+    MonTask1<MongoDatabase> db = newDb();
+    InsertSink.Result result = db.map(model().person)
+        .map(insertAll(java.util.stream.IntStream.range(0, 250).mapToObj(n -> Json.obj("n", Json.num(n))),
+            InsertSink.create().maxDocs(100).concurrent(2, ForkJoinPool.commonPool()).keepIds()))
+        .run(client());
+    assertEquals(result.getBatches(), 3);
+    assertEquals(result.getIds().size(), 250);
+    assertEquals(db.map(model().person).map(count(Json.obj())).run(client()), Long.valueOf(250));
+  }
 
   @Test
   public void testRetry() throws Exception {
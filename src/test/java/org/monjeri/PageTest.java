@@ -0,0 +1,63 @@
+package org.monjeri;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.testng.Assert.assertEquals;
+
+public class PageTest {
+
+  private final Page.Keys keys = Page.Keys.of(Json.obj(
+      Json.JObject.entry("a.b", Json.num(-1)),
+      Json.JObject.entry("c", Json.num(1))));
+
+  @Test
+  public void testToken() throws Exception {
+    java.util.List<Object> values = Arrays.asList("x", new Date(1000), new ObjectId());
+    assertEquals(Page.decodeToken(Page.encodeToken(keys, values), keys), values);
+  }
+
+  @Test
+  public void testValues() throws Exception {
+    Document doc = new Document("_id", 1).append("a", new Document("b", 2)).append("c", 3);
+    assertEquals(keys.valuesOf(doc), Arrays.asList(2, 3, 1));
+  }
+
+  @Test
+  public void testAfter() throws Exception {
+    assertEquals(keys.after(Arrays.asList(2, 3, 1)).toJson(),
+        "{ \"$or\" : [{ \"a.b\" : { \"$lt\" : 2 } }, "
+            + "{ \"a.b\" : 2, \"c\" : { \"$gt\" : 3 } }, "
+            + "{ \"a.b\" : 2, \"c\" : 3, \"_id\" : { \"$gt\" : 1 } }] }");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Page token is for a different sort.*")
+  public void testTokenForOtherSort() throws Exception {
+    String token = Page.encodeToken(keys, Arrays.asList(2, 3, 1));
+    Page.decodeToken(token, Page.Keys.of(Json.obj("c", Json.num(1))));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidToken() throws Exception {
+    Page.decodeToken("not a token", keys);
+  }
+
+  @Test
+  public void testQuery() throws Exception {
+    Json.JObject filter = Json.obj("d", Json.str("x"));
+    String token = Page.encodeToken(keys, Arrays.asList(2, 3, 1));
+    BsonDocument query = Page.query(filter, keys, Optional.of(token))
+        .toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    assertEquals(query, BsonDocument.parse("{$and: [{d: 'x'}, {$or: ["
+        + "{'a.b': {$lt: 2}}, {'a.b': 2, c: {$gt: 3}}, {'a.b': 2, c: 3, _id: {$gt: 1}}]}]}"));
+    assertEquals(Page.query(Json.obj(), keys, Optional.empty())
+        .toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry()), new BsonDocument());
+  }
+}
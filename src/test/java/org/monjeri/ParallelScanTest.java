@@ -0,0 +1,105 @@
+package org.monjeri;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+
+public class ParallelScanTest {
+
+  @Test
+  public void testSplitPoints() throws Exception {
+    java.util.List<Object> sample = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8);
+    assertEquals(ParallelScan.splitPoints(sample, 4), Arrays.asList(3, 5, 7));
+    assertEquals(ParallelScan.splitPoints(sample, 1), Collections.emptyList());
+    assertEquals(ParallelScan.splitPoints(Collections.emptyList(), 4), Collections.emptyList());
+    assertEquals(ParallelScan.splitPoints(Arrays.asList(1, 1, 1, 2), 4), Arrays.asList(1, 2));
+  }
+
+  @Test
+  public void testPartitionFilter() throws Exception {
+    BsonDocument filter = JsonCodec.toBsonDocument(Json.obj("age", Json.obj("$gte", Json.num(18))));
+    java.util.List<ParallelScan.Partition> partitions = ParallelScan.ranges(Arrays.asList(3, 7));
+    assertEquals(encode(partitions.get(1).filter(filter)),
+        BsonDocument.parse("{$and: [{age: {$gte: 18}}, {_id: {$gte: 3, $lt: 7}}]}"));
+    assertEquals(encode(partitions.get(0).filter(JsonCodec.toBsonDocument(Json.obj()))),
+        BsonDocument.parse("{$and: [{}, {_id: {$lt: 3}}]}"));
+  }
+
+  @Test
+  public void testSamplePipeline() throws Exception {
+    BsonDocument filter = JsonCodec.toBsonDocument(Json.obj("age", Json.num(3)));
+    java.util.List<Bson> pipeline = ParallelScan.samplePipeline(filter, 40);
+    assertEquals(encode(pipeline.get(0)), BsonDocument.parse("{$match: {age: 3}}"));
+    assertEquals(encode(pipeline.get(1)), BsonDocument.parse("{$sample: {size: 40}}"));
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      java.util.List<ParallelScan.Producer<Integer>> producers = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        int offset = i * 1000;
+        producers.add((sink, stopped) -> {
+          for (int n = 0; n < 1000; n++) {
+            sink.accept(offset + n);
+          }
+        });
+      }
+      AtomicInteger ends = new AtomicInteger(0);
+      Set<Integer> merged = ParallelScan.merge(executor, producers, 16, ends::incrementAndGet)
+          .collect(Collectors.toSet());
+      assertEquals(merged.size(), 3000);
+      assertEquals(ends.get(), 1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAbandonedMerge() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      CountDownLatch finished = new CountDownLatch(2);
+      java.util.List<ParallelScan.Producer<Integer>> producers = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        producers.add((sink, stopped) -> {
+          try {
+            for (int n = 0; !stopped.getAsBoolean(); n++) {
+              sink.accept(n);
+            }
+          } finally {
+            finished.countDown();
+          }
+        });
+      }
+      // a short-circuiting operation leaves the stream unclosed
+      assertEquals(ParallelScan.merge(executor, producers, 16, () -> { }).limit(5).count(), 5L);
+      for (int i = 0; i < 100 && finished.getCount() > 0; i++) {
+        System.gc();
+        finished.await(100, TimeUnit.MILLISECONDS);
+      }
+      assertEquals(finished.getCount(), 0);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static BsonDocument encode(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+  }
+}
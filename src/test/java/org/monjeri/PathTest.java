@@ -21,6 +21,13 @@ public class PathTest {
     assertFalse(Path.single("a").isEmpty());
   }
 
+  @Test
+  public void testConcat() throws Exception {
+    assertEquals(Path.parse("a.b.c.d"), Path.parse("a.b").concat(Path.parse("c.d")));
+    assertEquals(Path.parse("a.b"), Path.parse("a.b").concat(Path.root));
+    assertEquals(Path.parse("a.b"), Path.root.concat(Path.parse("a.b")));
+  }
+
   @Test
   public void testConsSnoc() throws Exception {
     assertEquals(Path.parse("b.a"), Path.root.cons("a").cons("b"));
@@ -0,0 +1,87 @@
+package org.monjeri;
+
+import org.testng.annotations.Test;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class PrefetchTest {
+
+  /**
+   * An iterator over {@code 0 until n} that fails at {@code failAt} and
+   * counts down {@code closed} when closed.
+   */
+  private static final class Source implements Iterator<Integer>, AutoCloseable {
+    private final int n;
+    private final int failAt;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private int next = 0;
+
+    Source(int n) {
+      this(n, -1);
+    }
+
+    Source(int n, int failAt) {
+      this.n = n;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < n;
+    }
+
+    @Override
+    public Integer next() {
+      if (next == failAt) {
+        throw new IllegalStateException("failed");
+      }
+      return next++;
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    Source source = new Source(1000);
+    Prefetch<Integer> prefetch = Prefetch.start(source, 10, 2);
+    java.util.List<Integer> result = new java.util.ArrayList<>();
+    prefetch.forEachRemaining(result::add);
+    assertEquals(result, IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+    assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Source source = new Source(Integer.MAX_VALUE);
+    Prefetch<Integer> prefetch = Prefetch.start(source, 10, 2);
+    assertEquals(prefetch.next(), Integer.valueOf(0));
+    prefetch.close();
+    assertFalse(prefetch.hasNext());
+    assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "failed")
+  public void testFailure() throws Exception {
+    Prefetch.start(new Source(100, 7), 3, 2).forEachRemaining(n -> { });
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    Sized<Integer> sized = new Sized<Integer>(null, 500).prefetch(3);
+    java.util.List<Integer> ints = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+    assertEquals(Util.makeStream(sized, ints).map(n -> n + 1).collect(Util.collectList()).size(), 500);
+    assertEquals(Util.makeStream(sized, ints).parallel().collect(Collectors.toList()), ints);
+  }
+}
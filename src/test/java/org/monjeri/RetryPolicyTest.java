@@ -0,0 +1,162 @@
+package org.monjeri;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoSocketOpenException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RetryPolicyTest {
+
+  private final RetryPolicy noDelay = RetryPolicy.DEFAULT
+      .backoff(Duration.ZERO, Duration.ZERO)
+      .budget(RetryBudget.unlimited());
+
+  private static MongoCommandException commandError(int code) {
+    BsonDocument response = new BsonDocument("ok", new BsonInt32(0))
+        .append("code", new BsonInt32(code))
+        .append("errmsg", new BsonString("error " + code));
+    return new MongoCommandException(response, new ServerAddress());
+  }
+
+  @Test
+  public void testClassification() throws Exception {
+    RuntimeException timeout = new MongoTimeoutException("no server");
+    RuntimeException open = new MongoSocketOpenException("refused", new ServerAddress(), new java.io.IOException());
+    RuntimeException read = new MongoSocketReadException("reset", new ServerAddress());
+    assertTrue(RetryPolicy.isNotExecuted(timeout));
+    assertTrue(RetryPolicy.isNotExecuted(open));
+    assertTrue(RetryPolicy.isNotExecuted(commandError(10107)));
+    assertFalse(RetryPolicy.isNotExecuted(read));
+    assertFalse(RetryPolicy.isNotExecuted(commandError(11602)));
+
+    assertTrue(RetryPolicy.isTransient(read));
+    assertTrue(RetryPolicy.isTransient(commandError(11602)));
+    assertTrue(RetryPolicy.isTransient(timeout));
+    assertTrue(RetryPolicy.isTransient(commandError(13435)));
+    assertFalse(RetryPolicy.isTransient(commandError(11000)));
+    assertFalse(RetryPolicy.isTransient(new IllegalStateException()));
+  }
+
+  @Test
+  public void testDelays() throws Exception {
+    RetryPolicy policy = RetryPolicy.DEFAULT.backoff(Duration.ofMillis(10), Duration.ofMillis(100));
+    for (int i = 0; i < 1000; i++) {
+      long delay = policy.delayNanos(i % 70);
+      long cap = Math.min(100, 10L << Math.min(i % 70, 20)) * 1_000_000;
+      assertTrue(delay >= 0 && delay <= cap, "retry " + i % 70 + ": " + delay);
+    }
+  }
+
+  @Test
+  public void testRetriesUntilSuccess() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    int result = noDelay.maxAttempts(5).run(() -> {
+      if (runs.incrementAndGet() < 4) {
+        throw new MongoTimeoutException("no server");
+      }
+      return 42;
+    });
+    assertEquals(result, 42);
+    assertEquals(runs.get(), 4);
+  }
+
+  @Test
+  public void testThrowsFirstFailure() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    RuntimeException first = new MongoTimeoutException("first");
+    try {
+      noDelay.maxAttempts(3).run(() -> {
+        throw runs.incrementAndGet() == 1 ? first : new MongoTimeoutException("later");
+      });
+      fail("expected exception");
+    } catch (MongoTimeoutException e) {
+      assertSame(e, first);
+    }
+    assertEquals(runs.get(), 3);
+  }
+
+  @Test
+  public void testThrowsFailureThatIsNotRetried() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    RuntimeException other = new IllegalStateException("other");
+    try {
+      noDelay.maxAttempts(3).run(() -> {
+        throw runs.incrementAndGet() == 1 ? new MongoTimeoutException("first") : other;
+      });
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertSame(e, other);
+    }
+    assertEquals(runs.get(), 2);
+  }
+
+  @Test
+  public void testNoRetryOfOtherFailures() throws Exception {
+    AtomicInteger runs = new AtomicInteger(0);
+    try {
+      noDelay.maxAttempts(3).run(() -> {
+        runs.incrementAndGet();
+        throw new MongoSocketReadException("reset", new ServerAddress());
+      });
+      fail("expected exception");
+    } catch (MongoException e) {
+      assertEquals(runs.get(), 1);
+    }
+    runs.set(0);
+    assertTrue(Attempt.eval(() -> noDelay.idempotent().maxAttempts(3).run(() -> {
+      runs.incrementAndGet();
+      throw new MongoSocketReadException("reset", new ServerAddress());
+    })).isFailure());
+    assertEquals(runs.get(), 3);
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    RetryBudget budget = new RetryBudget(2, 0.5, 0);
+    RetryPolicy policy = noDelay.maxAttempts(10).budget(budget);
+    AtomicInteger runs = new AtomicInteger(0);
+    assertTrue(Attempt.eval(() -> policy.run(() -> {
+      runs.incrementAndGet();
+      throw new MongoTimeoutException("no server");
+    })).isFailure());
+    // the first run and two retries
+    assertEquals(runs.get(), 3);
+    assertFalse(budget.tryAcquire());
+
+    policy.run(() -> 1);
+    policy.run(() -> 1);
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+  }
+
+  @Test
+  public void testMaxElapsed() throws Exception {
+    RetryPolicy policy = RetryPolicy.DEFAULT
+        .backoff(Duration.ofMillis(40), Duration.ofMillis(40))
+        .maxElapsed(Duration.ofMillis(20))
+        .budget(RetryBudget.unlimited())
+        .maxAttempts(10);
+    AtomicInteger runs = new AtomicInteger(0);
+    assertTrue(Attempt.eval(() -> policy.run(() -> {
+      runs.incrementAndGet();
+      throw new MongoTimeoutException("no server");
+    })).isFailure());
+    // retried only if the random delay was short enough
+    assertTrue(runs.get() < 10, "runs: " + runs.get());
+  }
+}
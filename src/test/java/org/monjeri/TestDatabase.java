@@ -111,6 +111,15 @@ public class TestDatabase {
       );
     }
 
+    public BsonDecode<Person> bsonDecodePerson() {
+      BsonDecode.Record r = BsonDecode.record();
+      BsonDecode.Field<String> name = r.field(model.person.name.nameAsPath(), BsonDecode.string());
+      BsonDecode.Field<Integer> age = r.field(model.person.age.nameAsPath(), BsonDecode.integer());
+      BsonDecode.Field<Boolean> active = r.field(model.person.active.nameAsPath(), BsonDecode.bool());
+      BsonDecode.Field<BigDecimal> wealth = r.field(model.person.wealth.nameAsPath(), BsonDecode.decimal());
+      return r.build(v -> new Person(v.require(name), v.require(age), v.require(active), v.require(wealth)));
+    }
+
     public Encode.Object<Person> encodePerson() {
       return person -> Json.obj(
           ofName(model.person.name, Json.str(person.name)),
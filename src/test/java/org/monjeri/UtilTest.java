@@ -1,14 +1,21 @@
 package org.monjeri;
 
+import com.mongodb.client.FindIterable;
 import org.testng.annotations.Test;
 
+
+import java.lang.reflect.Proxy;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class UtilTest {
 
@@ -30,4 +37,79 @@ public class UtilTest {
     assertEquals(Stream.of(1, 2, 3).collect(Util.collectList()), List.of(1, 2, 3));
     assertSame(Stream.empty().collect(Util.collectList()), List.nil());
   }
+
+  @Test
+  public void testLazySizedStream() throws Exception {
+    AtomicInteger counts = new AtomicInteger(0);
+    Sized<Integer> sized = Sized.lazy(null, () -> (long) counts.incrementAndGet() + 2);
+
+    assertEquals(Util.makeStream(sized, List.of(1, 2, 3)).findFirst(), Optional.of(1));
+    assertEquals(Util.makeStream(sized, List.of(1, 2, 3)).collect(Util.collectList()), List.of(1, 2, 3));
+    assertEquals(counts.get(), 0);
+
+    assertEquals(Util.makeStream(sized, List.of(1, 2, 3)).toArray().length, 3);
+    assertEquals(counts.get(), 0);
+
+    assertEquals(sized.size(), Optional.of(3L));
+    assertEquals(sized.size(), Optional.of(3L));
+    assertEquals(counts.get(), 1);
+    Spliterator<Integer> split = Util.makeStream(sized, List.of(1, 2, 3)).spliterator();
+    assertFalse(split.hasCharacteristics(Spliterator.SIZED));
+    assertEquals(split.estimateSize(), 3);
+  }
+
+  @Test
+  public void testSizeChangedAfterCount() throws Exception {
+    // the collection changed between the count and the read
+    Sized<Integer> lazy = Sized.lazy(null, () -> 5L);
+    assertEquals(lazy.size(), Optional.of(5L));
+    assertEquals(Util.makeStream(lazy, List.of(1, 2, 3)).toArray().length, 3);
+    assertEquals(Util.makeStream(lazy, List.of(1, 2, 3)).collect(Collectors.toList()).size(), 3);
+
+    Sized<Integer> exact = new Sized<>(null, 3);
+    assertTrue(exact.isStable());
+    assertTrue(Util.makeStream(exact, List.of(1, 2, 3)).spliterator().hasCharacteristics(Spliterator.SIZED));
+  }
+
+  @Test
+  public void testEstimatedSizedStream() throws Exception {
+    Sized<Integer> sized = Sized.estimated(null, () -> 10L);
+    assertFalse(Util.makeStream(sized, List.of(1, 2, 3)).spliterator().hasCharacteristics(Spliterator.SIZED));
+    assertEquals(Util.makeStream(sized, List.of(1, 2, 3)).toArray().length, 3);
+  }
+
+  @Test
+  public void testParallelSizedStream() throws Exception {
+    java.util.List<Integer> ints = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+    // a find iterable that ignores its settings
+    @SuppressWarnings("unchecked")
+    FindIterable<Integer> find = (FindIterable<Integer>) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[]{FindIterable.class}, (proxy, method, args) -> proxy);
+    Sized<Integer> sized = new Sized<>(find, ints.size()).batchSize(100);
+    java.util.List<Integer> result = Util.makeStream(sized, ints)
+        .parallel()
+        .map(n -> n * 2)
+        .collect(Collectors.toList());
+    assertEquals(result, ints.stream().map(n -> n * 2).collect(Collectors.toList()));
+
+    Spliterator<Integer> split = Util.makeStream(sized, ints).spliterator();
+    Spliterator<Integer> batch = split.trySplit();
+    assertEquals(batch.estimateSize(), 100);
+    assertEquals(split.estimateSize(), 9900);
+    assertTrue(split.hasCharacteristics(Spliterator.ORDERED));
+    assertTrue(batch.hasCharacteristics(Spliterator.ORDERED));
+
+    // a parallel stream keeps the order of the cursor
+    assertEquals(Util.makeStream(sized, ints).parallel().filter(n -> n >= 5000).findFirst(), Optional.of(5000));
+    assertEquals(Util.makeStream(sized, ints).parallel().skip(10).limit(3).collect(Collectors.toList()),
+        java.util.Arrays.asList(10, 11, 12));
+  }
+
+  @Test
+  public void testUnknownSizeStreamCharacteristics() throws Exception {
+    Spliterator<Integer> split = Util.makeStream(Optional.empty(), List.of(1, 2)).spliterator();
+    assertTrue(split.hasCharacteristics(Spliterator.NONNULL));
+    assertTrue(split.hasCharacteristics(Spliterator.IMMUTABLE));
+    assertFalse(split.hasCharacteristics(Spliterator.SIZED));
+  }
 }
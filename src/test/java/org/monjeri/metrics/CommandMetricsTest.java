@@ -0,0 +1,164 @@
+package org.monjeri.metrics;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.monjeri.MonTask1;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class CommandMetricsTest {
+
+  private static final ConnectionDescription CONNECTION =
+      new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+  private static final AtomicInteger REQUEST_IDS = new AtomicInteger(0);
+
+  private static BsonDocument reply(long cursorId) {
+    return new BsonDocument("ok", new BsonInt32(1))
+        .append("cursor", new BsonDocument("id", new BsonInt64(cursorId))
+            .append("firstBatch", new BsonArray()));
+  }
+
+  private static void send(CommandMetrics metrics, String name, BsonDocument command, BsonDocument reply) {
+    int id = REQUEST_IDS.incrementAndGet();
+    metrics.commandStarted(new CommandStartedEvent(id, CONNECTION, "db", name, command));
+    metrics.commandSucceeded(new CommandSucceededEvent(id, CONNECTION, name, reply, 1_000_000));
+  }
+
+  private static CommandStats only(Collection<CommandStats> stats, String command) {
+    return stats.stream().filter(s -> s.getCommand().equals(command)).findFirst().get();
+  }
+
+  @Test
+  public void testNamespace() throws Exception {
+    assertEquals(CommandMetrics.namespace("db", "find", new BsonDocument("find", new BsonString("person"))),
+        "db.person");
+    assertEquals(CommandMetrics.namespace("db", "getMore", new BsonDocument("getMore", new BsonInt64(7))
+        .append("collection", new BsonString("person"))), "db.person");
+    assertEquals(CommandMetrics.namespace("admin", "ping", new BsonDocument("ping", new BsonInt32(1))), "admin");
+  }
+
+  @Test
+  public void testSizeOf() throws Exception {
+    BsonDocument reply = reply(42);
+    RawBsonDocument raw = new RawBsonDocument(reply, new BsonDocumentCodec());
+    assertEquals(CommandMetrics.sizeOf(reply), raw.getByteBuffer().remaining());
+    assertEquals(CommandMetrics.sizeOf(raw), raw.getByteBuffer().remaining());
+  }
+
+  @Test
+  public void testCommandsByTask() throws Exception {
+    CommandMetrics metrics = CommandMetrics.create();
+    BsonDocument find = new BsonDocument("find", new BsonString("person"));
+    MonTask1<Void> task = MonTask1.<Void>defer(() -> {
+      send(metrics, "find", find, reply(0));
+      return null;
+    }).named("findPeople", TaskMetricsRegistry.create());
+    task.run(null);
+    task.run(null);
+    send(metrics, "find", find, reply(0));
+
+    CommandStats named = only(metrics.getTask("findPeople"), "find");
+    assertEquals(named.getNamespace(), "db.person");
+    assertEquals(named.getCount(), 2);
+    assertEquals(named.getReplyBytes(), 2 * CommandMetrics.sizeOf(reply(0)));
+    assertEquals(only(metrics.getTask(""), "find").getCount(), 1);
+    assertEquals(metrics.getAll().size(), 2);
+    assertFalse(CurrentTask.get().isPresent());
+  }
+
+  @Test
+  public void testCommandsAfterTask() throws Exception {
+    CommandMetrics metrics = CommandMetrics.create();
+    // the task returns a lazy result that sends its commands when read
+    Optional<String> task = MonTask1.defer(CurrentTask::get).named("lazy", TaskMetricsRegistry.create()).run(null);
+    assertEquals(task, Optional.of("lazy"));
+    String outer = CurrentTask.enter("outer");
+    try {
+      CurrentTask.run(task, () -> {
+        send(metrics, "getMore", new BsonDocument("getMore", new BsonInt64(42)), reply(0));
+        return null;
+      });
+      assertEquals(CurrentTask.get(), Optional.of("outer"));
+      CurrentTask.run(Optional.empty(), () -> {
+        send(metrics, "getMore", new BsonDocument("getMore", new BsonInt64(42)), reply(0));
+        return null;
+      });
+    } finally {
+      CurrentTask.exit(outer);
+    }
+    assertEquals(only(metrics.getTask("lazy"), "getMore").getCount(), 1);
+    assertEquals(only(metrics.getTask("outer"), "getMore").getCount(), 1);
+    assertFalse(CurrentTask.get().isPresent());
+  }
+
+  @Test
+  public void testGetMores() throws Exception {
+    CommandMetrics metrics = CommandMetrics.create();
+    BsonDocument getMore = new BsonDocument("getMore", new BsonInt64(42))
+        .append("collection", new BsonString("person"));
+    send(metrics, "aggregate", new BsonDocument("aggregate", new BsonString("person")), reply(42));
+    send(metrics, "getMore", getMore, reply(42));
+    send(metrics, "getMore", getMore, reply(0));
+    // the cursor is exhausted, so this one isn't counted
+    send(metrics, "getMore", getMore, reply(0));
+
+    CommandStats aggregate = only(metrics.getAll(), "aggregate");
+    assertEquals(aggregate.getCount(), 1);
+    assertEquals(aggregate.getGetMores(), 2);
+    assertEquals(only(metrics.getAll(), "getMore").getCount(), 3);
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    CommandMetrics metrics = CommandMetrics.create();
+    metrics.commandStarted(new CommandStartedEvent(-1, CONNECTION, "db", "insert",
+        new BsonDocument("insert", new BsonString("person"))));
+    metrics.commandFailed(new CommandFailedEvent(-1, CONNECTION, "insert", 2_000_000, new RuntimeException()));
+    CommandStats insert = only(metrics.getAll(), "insert");
+    assertEquals(insert.getCount(), 1);
+    assertEquals(insert.getErrors(), 1);
+    assertEquals(insert.getMaxMillis(), 2.0, 0.2);
+  }
+
+  @Test
+  public void testExporter() throws Exception {
+    CommandMetrics metrics = CommandMetrics.create();
+    send(metrics, "ping", new BsonDocument("ping", new BsonInt32(1)), new BsonDocument("ok", new BsonInt32(1)));
+    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    try {
+      CountDownLatch exported = new CountDownLatch(2);
+      metrics.exportEvery(Duration.ofMillis(5), scheduler, all -> {
+        assertEquals(all.size(), 1);
+        exported.countDown();
+        throw new IllegalStateException("export failed");
+      });
+      assertTrue(exported.await(5, TimeUnit.SECONDS));
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+}
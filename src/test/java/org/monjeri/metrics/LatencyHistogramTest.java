@@ -0,0 +1,63 @@
+package org.monjeri.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() throws Exception {
+    for (long v : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 123_456_789, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucket(v);
+      assertTrue(LatencyHistogram.lowerBound(bucket) <= v, "value " + v);
+      if (bucket + 1 < (64 - 4) * LatencyHistogram.SUB_BUCKETS) {
+        assertTrue(LatencyHistogram.lowerBound(bucket + 1) > v, "value " + v);
+      }
+    }
+  }
+
+  @Test
+  public void testPercentiles() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10_000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(snapshot.getCount(), 10_000);
+    assertEquals(snapshot.getMaxNanos(), TimeUnit.MILLISECONDS.toNanos(10));
+    assertWithin(snapshot.getPercentileNanos(50), TimeUnit.MILLISECONDS.toNanos(5));
+    assertWithin(snapshot.getPercentileNanos(99), TimeUnit.MICROSECONDS.toNanos(9_900));
+    assertEquals(snapshot.getPercentileNanos(100), snapshot.getMaxNanos());
+    assertWithin((long) snapshot.getMeanNanos(), TimeUnit.MICROSECONDS.toNanos(5_000));
+    assertEquals(new LatencyHistogram().snapshot().getPercentileNanos(99), 0);
+  }
+
+  private static void assertWithin(long actual, long expected) {
+    assertTrue(Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS,
+        "expected about " + expected + " but was " + actual);
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        Random random = new Random();
+        for (int i = 0; i < 100_000; i++) {
+          histogram.record(random.nextInt(1_000_000));
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(histogram.snapshot().getCount(), 400_000);
+  }
+}
@@ -0,0 +1,129 @@
+package org.monjeri.metrics;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class QueryShapesTest {
+
+  private static final ConnectionDescription CONNECTION =
+      new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+  private static final AtomicInteger REQUEST_IDS = new AtomicInteger(0);
+
+  private static BsonDocument reply(long cursorId, int docs) {
+    BsonArray batch = new BsonArray();
+    for (int i = 0; i < docs; i++) {
+      batch.add(new BsonDocument("_id", new BsonInt32(i)));
+    }
+    return new BsonDocument("ok", new BsonInt32(1))
+        .append("cursor", new BsonDocument("id", new BsonInt64(cursorId)).append("firstBatch", batch));
+  }
+
+  private static void send(QueryShapes shapes, String name, BsonDocument command, BsonDocument reply,
+                           long millis) {
+    int id = REQUEST_IDS.incrementAndGet();
+    shapes.commandStarted(new CommandStartedEvent(id, CONNECTION, "db", name, command));
+    shapes.commandSucceeded(new CommandSucceededEvent(id, CONNECTION, name, reply, millis * 1_000_000));
+  }
+
+  private static BsonDocument find(BsonDocument filter) {
+    return new BsonDocument("find", new BsonString("person")).append("filter", filter);
+  }
+
+  @Test
+  public void testShape() throws Exception {
+    BsonDocument filter = BsonDocument.parse(
+        "{name: 'bob', age: {$gte: 18, $lt: 65}, tag: {$in: ['a', 'b', 1]}}");
+    BsonDocument command = find(filter)
+        .append("sort", BsonDocument.parse("{name: 1, age: -1}"))
+        .append("projection", BsonDocument.parse("{name: 1}"));
+    assertEquals(QueryShapes.shapeOf("db", "find", command),
+        "db.person find {age: {$gte: ?int, $lt: ?int}, name: ?string, tag: {$in: [?string, ?int]}}"
+            + " sort={name: 1, age: -1} proj={name: 1}");
+    // other values and field order
+    BsonDocument other = BsonDocument.parse("{age: {$lt: 30, $gte: 20}, tag: {$in: [2]}, name: 'alice'}");
+    assertEquals(QueryShapes.shapeOf("db", "find", find(other).append("sort", command.get("sort"))
+            .append("projection", command.get("projection"))),
+        "db.person find {age: {$gte: ?int, $lt: ?int}, name: ?string, tag: {$in: [?int]}}"
+            + " sort={name: 1, age: -1} proj={name: 1}");
+    assertNull(QueryShapes.shapeOf("db", "insert", new BsonDocument("insert", new BsonString("person"))));
+  }
+
+  @Test
+  public void testAggregateAndWrites() throws Exception {
+    BsonDocument aggregate = new BsonDocument("aggregate", new BsonString("person"))
+        .append("pipeline", new BsonArray(Arrays.asList(
+            BsonDocument.parse("{$match: {age: 3}}"),
+            BsonDocument.parse("{$group: {_id: '$city', n: {$sum: 1}}}"),
+            BsonDocument.parse("{$sort: {n: -1}}"),
+            BsonDocument.parse("{$limit: 10}"))));
+    assertEquals(QueryShapes.shapeOf("db", "aggregate", aggregate),
+        "db.person aggregate [{$match: {age: ?int}}, {$group: {_id: \"$city\", n: {$sum: ?int}}},"
+            + " {$sort: {n: -1}}, {$limit: ?int}]");
+
+    BsonDocument update = new BsonDocument("update", new BsonString("person"))
+        .append("updates", new BsonArray(Arrays.asList(
+            BsonDocument.parse("{q: {_id: 1}, u: {$set: {age: 4}}, multi: true}"))));
+    assertEquals(QueryShapes.shapeOf("db", "update", update),
+        "db.person update {_id: ?int} update={$set: {age: ?int}} multi");
+    BsonDocument count = new BsonDocument("count", new BsonString("person"));
+    assertEquals(QueryShapes.shapeOf("db", "count", count), "db.person count {}");
+  }
+
+  @Test
+  public void testStatistics() throws Exception {
+    QueryShapes shapes = QueryShapes.create();
+    BsonDocument byName = find(BsonDocument.parse("{name: 'bob'}"));
+    BsonDocument byAge = find(BsonDocument.parse("{age: 3}"));
+    send(shapes, "find", byName, reply(0, 1), 1);
+    send(shapes, "find", byName, reply(7, 2), 2);
+    BsonDocument getMore = new BsonDocument("getMore", new BsonInt64(7))
+        .append("collection", new BsonString("person"));
+    send(shapes, "getMore", getMore, reply(0, 5), 10);
+    send(shapes, "find", byAge, reply(0, 0), 3);
+
+    QueryShape name = shapes.top(1, QueryShapes.Order.TOTAL_TIME).get(0);
+    assertEquals(name.getShape(), "db.person find {name: ?string}");
+    assertEquals(name.getCalls(), 2);
+    assertEquals(name.getDocs(), 8);
+    assertEquals(name.getTotalNanos(), 13_000_000);
+    assertEquals(name.getMaxNanos(), 10_000_000);
+    assertEquals(shapes.top(1, QueryShapes.Order.CALLS).get(0), name);
+    assertEquals(shapes.top(10, QueryShapes.Order.TOTAL_TIME).size(), 2);
+
+    String dump = shapes.dumpTop(1);
+    assertTrue(dump.contains(name.getFingerprint()) && dump.contains("{name: ?string}"), dump);
+    assertFalse(dump.contains("age"), dump);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    QueryShapes shapes = QueryShapes.create(2);
+    BsonDocument a = find(BsonDocument.parse("{a: 1}"));
+    send(shapes, "find", a, reply(0, 0), 1);
+    send(shapes, "find", a, reply(0, 0), 1);
+    send(shapes, "find", find(BsonDocument.parse("{b: 1}")), reply(0, 0), 1);
+    send(shapes, "find", find(BsonDocument.parse("{c: 1}")), reply(0, 0), 1);
+    assertEquals(shapes.getShapeCount(), 2);
+    assertEquals(shapes.getEvicted(), 1);
+    assertTrue(shapes.get("db.person find {a: ?int}").isPresent());
+    assertFalse(shapes.get("db.person find {b: ?int}").isPresent());
+  }
+}
@@ -0,0 +1,73 @@
+package org.monjeri.metrics;
+
+import org.monjeri.MonTask1;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TaskMetricsTest {
+
+  @Test
+  public void testNamedTask() throws Exception {
+    TaskMetricsRegistry registry = TaskMetricsRegistry.create();
+    MonTask1<Integer> task = MonTask1.unit(1).named("one", registry);
+    MonTask1<Integer> failing = MonTask1.<Integer>fail(new IllegalStateException()).named("one", registry);
+    task.run(null);
+    task.run(null);
+    assertTrue(failing.attemptRun(null).isFailure());
+
+    TaskMetrics metrics = registry.get("one").get();
+    assertEquals(metrics.getCount(), 3);
+    assertEquals(metrics.getErrors(), 1);
+    assertEquals(metrics.getInFlight(), 0);
+  }
+
+  @Test
+  public void testInFlight() throws Exception {
+    TaskMetricsRegistry registry = TaskMetricsRegistry.create();
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    MonTask1<Void> task = MonTask1.<Void>defer(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return null;
+    }).named("slow", registry);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> f1 = executor.submit(() -> task.run(null));
+      Future<?> f2 = executor.submit(() -> task.run(null));
+      started.await();
+      assertEquals(registry.get("slow").get().getInFlight(), 2);
+      release.countDown();
+      f1.get();
+      f2.get();
+      assertEquals(registry.get("slow").get().getInFlight(), 0);
+      assertEquals(registry.get("slow").get().getCount(), 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    TaskMetricsRegistry registry = TaskMetricsRegistry.withJmx("org.monjeri.test");
+    MonTask1.unit("x").named("find \"user\"", registry).run(null);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.monjeri.test:type=Task,name=" + ObjectName.quote("find \"user\""));
+    assertEquals(server.getAttribute(name, "Count"), 1L);
+    assertEquals(server.getAttribute(name, "Errors"), 0L);
+  }
+}